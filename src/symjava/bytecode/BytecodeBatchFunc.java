@@ -1,5 +1,22 @@
 package symjava.bytecode;
 
 public interface BytecodeBatchFunc {
-	void apply(double[] outAry, int outPos, double[] ...args);
+	/**
+	 * outAry[outPos+i] = the value at the point args[0][i], args[1][i], ... 
+	 * for i = from, from+1, ..., to-1
+	 * 
+	 * @param outAry
+	 * @param outPos
+	 * @param from
+	 * @param to
+	 * @param args args[j] is the array of the argument j
+	 */
+	void apply(double[] outAry, int outPos, int from, int to, double[] ...args);
+	
+	/**
+	 * Evaluate at all the points in args
+	 */
+	default void apply(double[] outAry, int outPos, double[] ...args) {
+		apply(outAry, outPos, 0, args[0].length, args);
+	}
 }
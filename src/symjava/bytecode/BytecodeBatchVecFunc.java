@@ -0,0 +1,15 @@
+package symjava.bytecode;
+
+public interface BytecodeBatchVecFunc {
+	/**
+	 * Evaluate the outputs at the points start, start+1, ..., end-1: 
+	 * outAry[k][i] is the output k at the point args[0][i], args[1][i], ...
+	 * The outputs which are zero are not written.
+	 * 
+	 * @param outAry outAry[k] is the array of the output k
+	 * @param start
+	 * @param end
+	 * @param args args[j] is the array of the argument j
+	 */
+	void apply(double[][] outAry, int start, int end, double[] ...args);
+}
@@ -0,0 +1,25 @@
+package symjava.bytecode;
+
+/**
+ * A batch function compiled in single precision, see JIT.compileFloatBatchFunc()
+ */
+public interface FloatBatchFunc {
+	/**
+	 * outAry[outPos+i] = the value at the point args[0][i], args[1][i], ... 
+	 * for i = from, from+1, ..., to-1
+	 * 
+	 * @param outAry
+	 * @param outPos
+	 * @param from
+	 * @param to
+	 * @param args args[j] is the array of the argument j
+	 */
+	void apply(float[] outAry, int outPos, int from, int to, float[] ...args);
+	
+	/**
+	 * Evaluate at all the points in args
+	 */
+	default void apply(float[] outAry, int outPos, float[] ...args) {
+		apply(outAry, outPos, 0, args[0].length, args);
+	}
+}
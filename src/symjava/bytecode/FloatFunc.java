@@ -0,0 +1,8 @@
+package symjava.bytecode;
+
+/**
+ * A function compiled in single precision, see JIT.compileFloat()
+ */
+public interface FloatFunc {
+	float apply(float ...args);
+}
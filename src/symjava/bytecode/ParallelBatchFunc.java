@@ -0,0 +1,84 @@
+package symjava.bytecode;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluate a BytecodeBatchFunc in parallel. The range of the points is split
+ * into ranges of at most grainSize points which are evaluated by the tasks 
+ * of a ForkJoinPool. Each task writes only its own part of outAry.
+ *
+ */
+public class ParallelBatchFunc implements BytecodeBatchFunc {
+	public static final int DEFAULT_GRAIN_SIZE = 8192;
+	
+	BytecodeBatchFunc func;
+	int grainSize;
+	ForkJoinPool pool;
+	
+	public ParallelBatchFunc(BytecodeBatchFunc func) {
+		this(func, DEFAULT_GRAIN_SIZE, ForkJoinPool.commonPool());
+	}
+	
+	public ParallelBatchFunc(BytecodeBatchFunc func, int grainSize) {
+		this(func, grainSize, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * 
+	 * @param func
+	 * @param grainSize the maximum number of points evaluated by one task
+	 * @param pool
+	 */
+	public ParallelBatchFunc(BytecodeBatchFunc func, int grainSize, ForkJoinPool pool) {
+		if(grainSize < 1)
+			throw new IllegalArgumentException("grainSize must be positive: "+grainSize);
+		this.func = func;
+		this.grainSize = grainSize;
+		this.pool = pool;
+	}
+	
+	public int getGrainSize() {
+		return grainSize;
+	}
+	
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+	
+	@Override
+	public void apply(double[] outAry, int outPos, int from, int to, double[]... args) {
+		if(to - from <= grainSize)
+			func.apply(outAry, outPos, from, to, args);
+		else
+			pool.invoke(new RangeTask(outAry, outPos, from, to, args));
+	}
+	
+	class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		double[] outAry;
+		int outPos;
+		int from;
+		int to;
+		double[][] args;
+		
+		RangeTask(double[] outAry, int outPos, int from, int to, double[][] args) {
+			this.outAry = outAry;
+			this.outPos = outPos;
+			this.from = from;
+			this.to = to;
+			this.args = args;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from <= grainSize) {
+				func.apply(outAry, outPos, from, to, args);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new RangeTask(outAry, outPos, from, mid, args),
+						new RangeTask(outAry, outPos, mid, to, args));
+			}
+		}
+	}
+}
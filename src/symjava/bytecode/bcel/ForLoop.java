@@ -1,31 +1,31 @@
 package symjava.bytecode.bcel;
 
-import static com.sun.org.apache.bcel.internal.Constants.ACC_PUBLIC;
-import static com.sun.org.apache.bcel.internal.Constants.ACC_SUPER;
+import static org.apache.bcel.Const.ACC_PUBLIC;
+import static org.apache.bcel.Const.ACC_SUPER;
 import symjava.bytecode.BytecodeFunc;
 import symjava.symbolic.utils.FuncClassLoader;
 
-import com.sun.org.apache.bcel.internal.generic.ALOAD;
-import com.sun.org.apache.bcel.internal.generic.ArrayType;
-import com.sun.org.apache.bcel.internal.generic.ClassGen;
-import com.sun.org.apache.bcel.internal.generic.ConstantPoolGen;
-import com.sun.org.apache.bcel.internal.generic.DADD;
-import com.sun.org.apache.bcel.internal.generic.DALOAD;
-import com.sun.org.apache.bcel.internal.generic.DLOAD;
-import com.sun.org.apache.bcel.internal.generic.DSTORE;
-import com.sun.org.apache.bcel.internal.generic.GOTO;
-import com.sun.org.apache.bcel.internal.generic.IF_ICMPLT;
-import com.sun.org.apache.bcel.internal.generic.IINC;
-import com.sun.org.apache.bcel.internal.generic.ILOAD;
-import com.sun.org.apache.bcel.internal.generic.ISTORE;
-import com.sun.org.apache.bcel.internal.generic.InstructionConstants;
-import com.sun.org.apache.bcel.internal.generic.InstructionFactory;
-import com.sun.org.apache.bcel.internal.generic.InstructionHandle;
-import com.sun.org.apache.bcel.internal.generic.InstructionList;
-import com.sun.org.apache.bcel.internal.generic.LocalVariableGen;
-import com.sun.org.apache.bcel.internal.generic.MethodGen;
-import com.sun.org.apache.bcel.internal.generic.PUSH;
-import com.sun.org.apache.bcel.internal.generic.Type;
+import org.apache.bcel.generic.ALOAD;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.DADD;
+import org.apache.bcel.generic.DALOAD;
+import org.apache.bcel.generic.DLOAD;
+import org.apache.bcel.generic.DSTORE;
+import org.apache.bcel.generic.GOTO;
+import org.apache.bcel.generic.IF_ICMPLT;
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.ILOAD;
+import org.apache.bcel.generic.ISTORE;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LocalVariableGen;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.Type;
 
 public class ForLoop {
 
@@ -54,7 +54,7 @@ public class ForLoop {
 		lg = mg.addLocalVariable("sum",
 				Type.DOUBLE, null, null);
 		int idxSum = lg.getIndex();
-		il.append(InstructionConstants.DCONST_0);
+		il.append(InstructionConst.DCONST_0);
 		lg.setStart(il.append(new DSTORE(idxSum))); // "sum" valid from here
 
 		//////////////////////////////////////////////////////////////
@@ -66,7 +66,7 @@ public class ForLoop {
 		lg = mg.addLocalVariable("i",
 				Type.INT, null, null);
 		int idxI = lg.getIndex();
-		il.append(InstructionConstants.ICONST_0);
+		il.append(InstructionConst.ICONST_0);
 		lg.setStart(il.append(new ISTORE(idxI))); // "i" valid from here
 		
 		//Loop body: sum = sum + args[i]
@@ -89,7 +89,7 @@ public class ForLoop {
 		/////////////////////////////////////////////////////////////
 
 		il.append(new DLOAD(idxSum));
-		il.append(InstructionConstants.DRETURN);
+		il.append(InstructionConst.DRETURN);
 		
 		mg.setMaxStack();
 		cg.addMethod(mg.getMethod());
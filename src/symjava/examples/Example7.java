@@ -153,7 +153,7 @@ public class Example7 {
 						subsList.add(new ExprPair(x, trans.eqs[0].rhs()));
 						subsList.add(new ExprPair(y, trans.eqs[1].rhs()));
 						lhsInt[i][j] = intTerm.changeOfVars(subsList, jac, refTri);
-						lhsInt[i][j].integrand.setLabel("LHS"+i+j);
+						lhsInt[i][j].integrand = lhsInt[i][j].integrand.setLabel("LHS"+i+j);
 						System.out.println(lhsInt[i][j]+"\n");
 					}
 					List<ExprPair> subsList = new ArrayList<ExprPair>();
@@ -163,7 +163,7 @@ public class Example7 {
 					subsList.add(new ExprPair(x, trans.eqs[0].rhs()));
 					subsList.add(new ExprPair(y, trans.eqs[1].rhs()));
 					rhsInt[i] = ((Integrate)pde.rhs()).changeOfVars(subsList, jac, refTri);
-					rhsInt[i].integrand.setLabel("RHS"+i);
+					rhsInt[i].integrand = rhsInt[i].integrand.setLabel("RHS"+i);
 					System.out.println(rhsInt[i]+"\n");
 				}
 			//Integrate on the boundary of the domain	
@@ -185,7 +185,7 @@ public class Example7 {
 						subsListB.add(new ExprPair(x, transB.eqs[0].rhs()));
 						subsListB.add(new ExprPair(y, transB.eqs[1].rhs()));
 						lhsIntB[i][j] = intTerm.changeOfVars(subsListB, jacB, refLine);
-						lhsIntB[i][j].integrand.setLabel("LHSB"+i+j);
+						lhsIntB[i][j].integrand = lhsIntB[i][j].integrand.setLabel("LHSB"+i+j);
 						System.out.println(lhsIntB[i][j]+"\n");
 					}
 				}
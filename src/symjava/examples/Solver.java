@@ -5,7 +5,9 @@ import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Matrix;
 import no.uib.cipr.matrix.Vector;
 import no.uib.cipr.matrix.sparse.CG;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
 import no.uib.cipr.matrix.sparse.IterativeSolverNotConvergedException;
+import symjava.numeric.NumSparseMatrix;
 
 public class Solver {
 	public static double[] solveCG(double[][] A, double[] b, double[] x) {
@@ -58,6 +60,49 @@ public class Solver {
 		return _x;
 	}
 	
+	/**
+	 * Create a CompRowMatrix with the non-zero pattern and the values of A.
+	 * The values can be refreshed by copyValues() after A.eval()
+	 * @param A
+	 * @return
+	 */
+	public static CompRowMatrix toCompRowMatrix(NumSparseMatrix A) {
+		int[] rowPtr = A.getRowPointers();
+		int[] colIdx = A.getColumnIndices();
+		int[][] nz = new int[A.rowDim()][];
+		for(int i=0; i<nz.length; i++) {
+			nz[i] = new int[rowPtr[i+1]-rowPtr[i]];
+			System.arraycopy(colIdx, rowPtr[i], nz[i], 0, nz[i].length);
+		}
+		CompRowMatrix M = new CompRowMatrix(A.rowDim(), A.colDim(), nz);
+		copyValues(A, M);
+		return M;
+	}
+	
+	/**
+	 * Copy the values of A into M which is created by toCompRowMatrix(A), 
+	 * both store the entries in CSR order
+	 * @param A
+	 * @param M
+	 */
+	public static void copyValues(NumSparseMatrix A, CompRowMatrix M) {
+		System.arraycopy(A.getValues(), 0, M.getData(), 0, A.nnz());
+	}
+	
+	public static double[] solveCG(NumSparseMatrix A, double[] b, double[] x) {
+		CompRowMatrix SA = toCompRowMatrix(A);
+		DenseVector Db = new DenseVector(b);
+		DenseVector Dx = new DenseVector(x);
+		CG sol = new CG(Db);
+		try {
+			sol.solve(SA, Db, Dx);
+		} catch (IterativeSolverNotConvergedException e) {
+			e.printStackTrace();
+		}
+		System.arraycopy(Dx.getData(), 0, x, 0, x.length);
+		return x;
+	}
+	
 	public static void main(String[] args) {
 		double[][] A = {
 				{ 2, 1,  3},
@@ -7,8 +7,11 @@ public class And extends BinaryOp implements Logic {
 	
 	public And(Expr l, Expr r) {
 		super(l, r);
-		this.label = l+" & "+r;
-		this.sortKey = this.label;
+	}
+
+	@Override
+	protected String makeLabel() {
+		return arg1+" & "+arg2;
 	}
 
 	@Override
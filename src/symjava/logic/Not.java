@@ -7,8 +7,11 @@ public class Not extends UnaryOp implements Logic {
 
 	public Not(Expr arg) {
 		super(arg);
-		this.label = "!"+arg;
-		this.sortKey = this.label;
+	}
+
+	@Override
+	protected String makeLabel() {
+		return "!"+arg;
 	}
 
 	@Override
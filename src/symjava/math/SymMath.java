@@ -2,6 +2,7 @@ package symjava.math;
 
 import symjava.matrix.SymMatrix;
 import symjava.matrix.SymVector;
+import symjava.numeric.NumVector;
 import symjava.symbolic.Cos;
 import symjava.symbolic.Exp;
 import symjava.symbolic.Expr;
@@ -13,6 +14,7 @@ import symjava.symbolic.Sin;
 import symjava.symbolic.Sqrt;
 import symjava.symbolic.SymConst;
 import symjava.symbolic.Tan;
+import symjava.symbolic.utils.JIT;
 import symjava.symbolic.utils.Utils;
 
 public class SymMath {
@@ -163,6 +165,18 @@ public class SymMath {
 		return Grad.apply(f);
 	}
 	
+	/**
+	 * Return the compiled gradient of f with respect to args. 
+	 * The gradient is not expanded symbolically, it is computed by 
+	 * reverse mode, see JIT.compileGradient()
+	 * @param f
+	 * @param args
+	 * @return
+	 */
+	public static NumVector grad(Expr f, Expr[] args) {
+		return new NumVector(JIT.compileGradient(args, f), args.length);
+	}
+	
 	/**
 	 * Return Hessian Matrix of f
 	 * @param f
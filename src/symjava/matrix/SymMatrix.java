@@ -3,6 +3,7 @@ package symjava.matrix;
 import java.util.Vector;
 
 import symjava.numeric.NumMatrix;
+import symjava.numeric.NumSparseMatrix;
 import symjava.symbolic.Expr;
 
 public class SymMatrix {
@@ -115,4 +116,13 @@ public class SymMatrix {
 		NumMatrix mat = new NumMatrix(this, args);
 		return mat;
 	}
+	
+	/**
+	 * Compile only the non-zero entries, see NumSparseMatrix
+	 * @param args
+	 * @return
+	 */
+	public NumSparseMatrix toNumSparseMatrix(Expr[] args) {
+		return new NumSparseMatrix(this, args);
+	}
 }
@@ -0,0 +1,172 @@
+package symjava.numeric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import symjava.bytecode.BytecodeVecFunc;
+import symjava.matrix.SymMatrix;
+import symjava.symbolic.Expr;
+import symjava.symbolic.Symbol;
+import symjava.symbolic.utils.JIT;
+import symjava.symbolic.utils.Utils;
+
+/**
+ * A matrix of which only the structural non-zero entries are compiled and evaluated,
+ * e.g. the Jacobian or the Hessian of a function with local couplings.
+ *
+ * The non-zero pattern is fixed when the matrix is created and is stored in the
+ * compressed sparse row (CSR) format: the entries of row i are values[k] for
+ * k=rowPtr[i]..rowPtr[i+1]-1 in column colIdx[k], ordered by column in each row.
+ * The values array is refreshed in place by eval().
+ *
+ */
+public class NumSparseMatrix {
+	BytecodeVecFunc func;
+	int nRow;
+	int nCol;
+	int[] rowPtr;
+	int[] colIdx;
+	double[] values;
+
+	public NumSparseMatrix(SymMatrix sm, Expr[] args) {
+		this.nRow = sm.rowDim();
+		this.nCol = sm.colDim();
+		List<Expr> exprs = new ArrayList<Expr>();
+		List<Integer> cols = new ArrayList<Integer>();
+		this.rowPtr = new int[nRow+1];
+		for(int i=0; i<nRow; i++) {
+			for(int j=0; j<nCol; j++) {
+				Expr e = sm.get(i, j);
+				if(!Utils.symCompare(Symbol.C0, e)) {
+					exprs.add(e);
+					cols.add(j);
+				}
+			}
+			rowPtr[i+1] = exprs.size();
+		}
+		this.colIdx = new int[cols.size()];
+		for(int k=0; k<colIdx.length; k++)
+			colIdx[k] = cols.get(k);
+		this.values = new double[exprs.size()];
+		if(!exprs.isEmpty())
+			this.func = JIT.compile(args, exprs.toArray(new Expr[0]));
+	}
+
+	NumSparseMatrix(int nRow, int nCol, int[][] pattern, BytecodeVecFunc func) {
+		this.nRow = nRow;
+		this.nCol = nCol;
+		this.rowPtr = new int[nRow+1];
+		for(int i=0; i<nRow; i++)
+			rowPtr[i+1] = rowPtr[i] + pattern[i].length;
+		this.colIdx = new int[rowPtr[nRow]];
+		for(int i=0; i<nRow; i++)
+			System.arraycopy(pattern[i], 0, colIdx, rowPtr[i], pattern[i].length);
+		this.values = new double[colIdx.length];
+		this.func = func;
+	}
+	
+	/**
+	 * The Jacobian of exprs with respect to args without symbolic derivatives.
+	 * The pattern is the dependencies of exprs on args, see Utils.getDependencies(),
+	 * and the entries are computed by JIT.compileJacobian()
+	 * 
+	 * @param exprs
+	 * @param args
+	 * @return
+	 */
+	public static NumSparseMatrix jacobian(Expr[] exprs, Expr[] args) {
+		int[][] pattern = Utils.getDependencies(exprs, args);
+		BytecodeVecFunc func = JIT.compileJacobian(args, exprs);
+		return new NumSparseMatrix(exprs.length, args.length, pattern, func);
+	}
+	
+	public int rowDim() {
+		return nRow;
+	}
+
+	public int colDim() {
+		return nCol;
+	}
+
+	/**
+	 * Number of the structural non-zero entries
+	 * @return
+	 */
+	public int nnz() {
+		return values.length;
+	}
+
+	/**
+	 * Evaluate the non-zero entries into the values array
+	 * @param args
+	 * @return the values array in CSR order
+	 */
+	public double[] eval(double ...args) {
+		if(func != null)
+			func.apply(values, 0, args);
+		return values;
+	}
+
+	/**
+	 * The values of the non-zero entries in CSR order of the last evaluation.
+	 * The array is the same one for all evaluations.
+	 * @return
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * CSR: the entries of row i are in [rowPtr[i], rowPtr[i+1])
+	 * @return
+	 */
+	public int[] getRowPointers() {
+		return rowPtr;
+	}
+
+	/**
+	 * CSR and COO: the column of each non-zero entry
+	 * @return
+	 */
+	public int[] getColumnIndices() {
+		return colIdx;
+	}
+
+	/**
+	 * COO: the row of each non-zero entry
+	 * @return
+	 */
+	public int[] getRowIndices() {
+		int[] rowIdx = new int[values.length];
+		for(int i=0; i<nRow; i++) {
+			for(int k=rowPtr[i]; k<rowPtr[i+1]; k++)
+				rowIdx[k] = i;
+		}
+		return rowIdx;
+	}
+
+	/**
+	 * y = A*x with the values of the last evaluation
+	 * @param x
+	 * @param y
+	 * @return y
+	 */
+	public double[] mult(double[] x, double[] y) {
+		for(int i=0; i<nRow; i++) {
+			double sum = 0.0;
+			for(int k=rowPtr[i]; k<rowPtr[i+1]; k++)
+				sum += values[k]*x[colIdx[k]];
+			y[i] = sum;
+		}
+		return y;
+	}
+
+	public double[][] copyData() {
+		double[][] ret = new double[nRow][nCol];
+		for(int i=0; i<nRow; i++) {
+			for(int k=rowPtr[i]; k<rowPtr[i+1]; k++)
+				ret[i][colIdx[k]] = values[k];
+		}
+		return ret;
+	}
+}
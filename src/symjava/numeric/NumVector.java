@@ -23,6 +23,17 @@ public class NumVector {
 		this.func = JIT.compile(args, sv.getData());
 	}
 	
+	/**
+	 * A vector computed by func, e.g. the gradient compiled by JIT.compileGradient()
+	 * 
+	 * @param func
+	 * @param size
+	 */
+	public NumVector(BytecodeVecFunc func, int size) {
+		this.size = size;
+		this.func = func;
+	}
+	
 	public int dim() {
 		return this.size;
 	}
@@ -28,8 +28,6 @@ public class Eq extends BinaryOp implements Relation {
 	 */
 	public Eq(Expr lhs, Expr rhs) {
 		super(lhs, rhs);
-		this.label = arg1 + " = " + arg2;
-		this.sortKey = this.label;
 		this.freeVars = Utils.extractSymbols(rhs).toArray(new Expr[0]);
 		this.params = new Expr[0];
 		this.dependentVars = Utils.extractSymbols(lhs).toArray(new Expr[0]);
@@ -54,8 +52,6 @@ public class Eq extends BinaryOp implements Relation {
 	 */
 	public Eq(Expr lhs, Expr rhs, Expr[] freeVars) {
 		super(lhs, rhs);
-		this.label = arg1 + " = " + arg2;
-		this.sortKey = this.label;
 		this.freeVars = freeVars;
 		List<Expr> list = Utils.extractSymbols(lhs, rhs);
 		List<Expr> depList = new ArrayList<Expr>();
@@ -97,8 +93,6 @@ public class Eq extends BinaryOp implements Relation {
 	 */
 	public Eq(Expr lhs, Expr rhs, Expr[] freeVars, Expr[] params) {
 		super(lhs, rhs);
-		this.label = arg1 + " = " + arg2;
-		this.sortKey = this.label;
 		this.freeVars = freeVars;
 		this.params = params;
 		//Find dependent variables
@@ -132,8 +126,6 @@ public class Eq extends BinaryOp implements Relation {
 	 */
 	public Eq(Expr lhs, Expr rhs, Expr[] freeVars, Expr[] params, Expr[] dependentVars) {
 		super(lhs, rhs);
-		this.label = arg1 + " = " + arg2;
-		this.sortKey = this.label;
 		this.freeVars = freeVars;
 		this.params = params;
 		this.dependentVars = dependentVars;
@@ -150,6 +142,11 @@ public class Eq extends BinaryOp implements Relation {
 			unknowns[idx++] = dependentVars[i];
 		}
 	}
+	
+	@Override
+	protected String makeLabel() {
+		return arg1 + " = " + arg2;
+	}
 
 	public static Eq apply(Expr lhs, Expr rhs) {
 		return new Eq(lhs, rhs);
@@ -7,8 +7,11 @@ public class Neq extends BinaryOp implements Relation {
 
 	public Neq(Expr arg1, Expr arg2) {
 		super(arg1, arg2);
-		this.label = arg1 + " != " + arg2;
-		this.sortKey = this.label;
+	}
+
+	@Override
+	protected String makeLabel() {
+		return arg1 + " != " + arg2;
 	}
 
 	@Override
@@ -1,15 +1,31 @@
 package symjava.symbolic;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import symjava.symbolic.arity.BinaryOp;
+import symjava.symbolic.utils.HashCons;
 import symjava.symbolic.utils.Utils;
 
 public class Add extends BinaryOp {
+	/**
+	 * True if this is a sum built by sortedSumOf() of which the terms are
+	 * sorted, have different symbol parts and none of them is negated
+	 */
+	boolean isSortedSum = false;
+	
 	public Add(Expr l, Expr r) {
 		super(l, r);
-		label = l + " + " + r;
-		sortKey = arg1.getSortKey()+arg2.getSortKey();
+	}
+	
+	@Override
+	protected String makeLabel() {
+		return arg1 + " + " + arg2;
+	}
+	
+	@Override
+	protected Object[] makeSortKeyParts() {
+		return new Object[]{arg1, arg2};
 	}
 	
 	public static Expr shallowSimplifiedIns(Expr l, Expr r) {
@@ -34,7 +50,7 @@ public class Add extends BinaryOp {
 		} else if(l instanceof Negate && r instanceof Negate) {
 			Negate nl = (Negate)l;
 			Negate nr = (Negate)r;
-			return new Negate(Add.shallowSimplifiedIns(nl.arg, nr.arg)).setSimplifyOps(simOps).setAsSimplified();
+			return HashCons.intern(new Negate(HashCons.internOperand(Add.shallowSimplifiedIns(nl.arg, nr.arg))).setSimplifyOps(simOps).setAsSimplified());
 		} else if(l instanceof Negate) {
 			Negate nl = (Negate)l;
 			return Subtract.shallowSimplifiedIns(r, nl.arg); //Do not increase simplifyOps
@@ -80,12 +96,241 @@ public class Add extends BinaryOp {
 		if(Utils.symCompare(l, r)) {
 			return Symbol.C2.multiply(l).incSimplifyOps(1);
 		}
-		return new Add(l, r).setAsSimplified();
+		return HashCons.intern(new Add(HashCons.internOperand(l), HashCons.internOperand(r)).setAsSimplified());
 	}
 	
 	public static Expr simplifiedIns(Expr l, Expr r) {
 		//return shallowSimplifiedIns(l,r);
-		return Utils.flattenSortAndSimplify(shallowSimplifiedIns(l,r));
+		Expr ret = null;
+		if(l instanceof Add && ((Add)l).isSortedSum)
+			ret = addToSortedSum((Add)l, r);
+		else if(r instanceof Add && ((Add)r).isSortedSum)
+			ret = addToSortedSum((Add)r, l);
+		if(ret == null)
+			ret = Utils.flattenSortAndSimplify(shallowSimplifiedIns(l,r));
+		return ret;
+	}
+	
+	/**
+	 * Return the sum of the sorted terms as a treap: the term with the highest
+	 * priority (a hash of the term) is the root, the terms before it are in the
+	 * left subtree and the terms after it are in the right subtree. The shape 
+	 * depends only on the terms and the depth is O(log n), so a term is added 
+	 * or removed by rebuilding one path from the root, see addToSortedSum().
+	 * 
+	 * The sum is printed as the list of the terms like a1 + a2 + ... + an.
+	 * 
+	 * @param terms the simplified terms of a sum in the order of Utils.sortExprs()
+	 * @return null if there are less than two terms, negated terms or terms with
+	 * the same sort key
+	 */
+	public static Expr sortedSumOf(List<Expr> terms) {
+		if(terms.size() < 2)
+			return null;
+		for(int i=0; i<terms.size(); i++) {
+			Expr t = terms.get(i);
+			if(t instanceof Negate || t instanceof Add || t instanceof Subtract)
+				return null;
+			if(i > 0 && Utils.compareSortKey(terms.get(i-1), t) >= 0)
+				return null;
+		}
+		Expr ret = HashCons.setAsSimplified(buildTreap(terms, 0, terms.size()));
+		((Add)ret).isSortedSum = true;
+		return ret;
+	}
+	
+	/**
+	 * Add a term to a sorted sum without flattening, sorting and simplifying all
+	 * the terms again. The result is the same as Utils.flattenSortAndSimplify()
+	 * in O(log n) steps, except for a number which is searched in all the terms.
+	 * 
+	 * @param sum
+	 * @param r
+	 * @return null if the result is not a sorted sum, e.g. r is negated
+	 */
+	static Expr addToSortedSum(Add sum, Expr r) {
+		if(r instanceof Add || r instanceof Subtract || r instanceof Negate)
+			return null;
+		List<Expr> l = new ArrayList<Expr>();
+		r.flattenAdd(l);
+		if(l.size() != 1)
+			return null;
+		Expr term = Utils.simplifyAddTerm(l.get(0));
+		if(term instanceof Negate || Symbol.C0.symEquals(term))
+			return null;
+		Expr core = getSymbolPart(term);
+		if(core instanceof Add || core instanceof Subtract)
+			return null;
+		
+		//The term with the same symbol part
+		Expr old = null;
+		if(core == null) {
+			l.clear();
+			sum.flattenAdd(l);
+			for(Expr e : l) {
+				if(e instanceof SymReal<?>)
+					old = e;
+			}
+		} else {
+			old = findTerm(sum, term);
+			if(old != null && !core.equals(getSymbolPart(old)))
+				return null; //a different term with the same sort key
+		}
+		
+		Expr root = sum;
+		Expr newTerm = term;
+		if(old != null) {
+			SymReal<?> coeff = (SymReal<?>)shallowSimplifiedIns(getCoeffPart(old), getCoeffPart(term));
+			if(coeff.isZero())
+				newTerm = null;
+			else if(core == null)
+				newTerm = coeff;
+			else if(coeff.getDoubleValue() < 0)
+				return null;
+			else
+				newTerm = Utils.simplifyAddTerm(coeff.multiply(getSymbolPart(old)));
+			root = removeTerm(sum, old);
+		}
+		if(newTerm != null) {
+			if(newTerm instanceof Negate || newTerm instanceof Add || 
+					newTerm instanceof Subtract || findTerm(root, newTerm) != null)
+				return null;
+			root = insertTerm(root, newTerm);
+		}
+		Expr ret = HashCons.setAsSimplified(root);
+		if(ret instanceof Add)
+			((Add)ret).isSortedSum = true;
+		return ret;
+	}
+	
+	static Expr getSymbolPart(Expr term) {
+		if(term instanceof SymReal<?>)
+			return null;
+		if(term instanceof Multiply && ((Multiply)term).isCoeffMulSymbol())
+			return ((Multiply)term).getSymbolTerm();
+		return term;
+	}
+	
+	static Expr getCoeffPart(Expr term) {
+		if(term instanceof SymReal<?>)
+			return term;
+		if(term instanceof Multiply && ((Multiply)term).isCoeffMulSymbol())
+			return ((Multiply)term).getCoeffTerm();
+		return Symbol.C1;
+	}
+	
+	/**
+	 * True if the priority of term a is higher than term b in a sorted sum
+	 */
+	static boolean isAbove(Expr a, Expr b) {
+		int pa = a.getStructuralHash() * 0x9E3779B9;
+		int pb = b.getStructuralHash() * 0x9E3779B9;
+		if(pa != pb)
+			return pa > pb;
+		return Utils.compareSortKey(a, b) < 0;
+	}
+	
+	static Expr buildTreap(List<Expr> terms, int begin, int end) {
+		if(begin == end)
+			return null;
+		int root = begin;
+		for(int i=begin+1; i<end; i++) {
+			if(isAbove(terms.get(i), terms.get(root)))
+				root = i;
+		}
+		return join(buildTreap(terms, begin, root), terms.get(root), buildTreap(terms, root+1, end));
+	}
+	
+	/**
+	 * A node of a treap with the root term t is t, left + t, t + right
+	 * or (left + t) + right
+	 */
+	static Expr join(Expr left, Expr term, Expr right) {
+		Expr ret = HashCons.internOperand(term);
+		if(left != null)
+			ret = HashCons.intern(new Add(HashCons.internOperand(left), ret));
+		if(right != null)
+			ret = HashCons.intern(new Add(ret, HashCons.internOperand(right)));
+		return ret;
+	}
+	
+	/**
+	 * The inverse of join(): {left, root term, right}
+	 */
+	static Expr[] splitRoot(Expr node) {
+		if(!(node instanceof Add))
+			return new Expr[] {null, node, null};
+		Expr a = ((Add)node).arg1;
+		Expr b = ((Add)node).arg2;
+		if(!(a instanceof Add)) {
+			if(!(b instanceof Add) && isAbove(b, a))
+				return new Expr[] {a, b, null};
+			return new Expr[] {null, a, b};
+		}
+		if(!(b instanceof Add) && isAbove(b, splitRoot(a)[1]))
+			return new Expr[] {a, b, null};
+		return new Expr[] {((Add)a).arg1, ((Add)a).arg2, b};
+	}
+	
+	static Expr findTerm(Expr node, Expr term) {
+		while(node != null) {
+			Expr[] n = splitRoot(node);
+			int c = Utils.compareSortKey(term, n[1]);
+			if(c == 0)
+				return n[1];
+			node = c < 0 ? n[0] : n[2];
+		}
+		return null;
+	}
+	
+	static Expr insertTerm(Expr node, Expr term) {
+		if(node == null)
+			return term;
+		Expr[] n = splitRoot(node);
+		if(isAbove(term, n[1])) {
+			Expr[] lr = splitAt(node, term);
+			return join(lr[0], term, lr[1]);
+		}
+		if(Utils.compareSortKey(term, n[1]) < 0)
+			return join(insertTerm(n[0], term), n[1], n[2]);
+		return join(n[0], n[1], insertTerm(n[2], term));
+	}
+	
+	static Expr removeTerm(Expr node, Expr term) {
+		Expr[] n = splitRoot(node);
+		int c = Utils.compareSortKey(term, n[1]);
+		if(c == 0)
+			return merge(n[0], n[2]);
+		if(c < 0)
+			return join(removeTerm(n[0], term), n[1], n[2]);
+		return join(n[0], n[1], removeTerm(n[2], term));
+	}
+	
+	/**
+	 * The terms before and after term
+	 */
+	static Expr[] splitAt(Expr node, Expr term) {
+		if(node == null)
+			return new Expr[2];
+		Expr[] n = splitRoot(node);
+		if(Utils.compareSortKey(n[1], term) < 0) {
+			Expr[] lr = splitAt(n[2], term);
+			return new Expr[] {join(n[0], n[1], lr[0]), lr[1]};
+		}
+		Expr[] lr = splitAt(n[0], term);
+		return new Expr[] {lr[0], join(lr[1], n[1], n[2])};
+	}
+	
+	static Expr merge(Expr left, Expr right) {
+		if(left == null)
+			return right;
+		if(right == null)
+			return left;
+		Expr[] l = splitRoot(left);
+		Expr[] r = splitRoot(right);
+		if(isAbove(l[1], r[1]))
+			return join(l[0], l[1], merge(l[2], right));
+		return join(merge(left, r[0]), r[1], r[2]);
 	}
 	
 	@Override
@@ -122,6 +367,8 @@ public class Add extends BinaryOp {
 	}
 	
 	public boolean symEquals(Expr other) {
+		if(this == other)
+			return true;
 		//return Utils.flattenSortAndCompare(this, other);
 		return Utils.flattenSortAndCompare(this.simplify(), other.simplify());
 	}
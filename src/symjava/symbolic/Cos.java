@@ -6,7 +6,11 @@ import symjava.symbolic.utils.Utils;
 public class Cos extends UnaryOp {
 	public Cos(Expr arg) {
 		super(arg);
-		label = "cos(" + arg + ")";
+	}
+
+	@Override
+	protected String makeLabel() {
+		return "cos(" + arg + ")";
 	}
 
 	@Override
@@ -27,7 +27,7 @@ public class Derivative extends Func {
 		this.func = df.func;
 		this.dxyz.addAll(df.dxyz);
 		this.dxyz.add(x);
-		this.label = df.label + x.label;
+		this.label = df.label + x.getLabel();
 		this.sortKey = label;
 	}
 	
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import symjava.symbolic.arity.BinaryOp;
+import symjava.symbolic.utils.HashCons;
 import symjava.symbolic.utils.Utils;
 
 /**
@@ -14,10 +15,18 @@ import symjava.symbolic.utils.Utils;
 public class Divide extends BinaryOp {
 	public Divide(Expr numerator, Expr denominator) {
 		super(numerator, denominator);
-		label =  SymPrinting.addParenthsesIfNeeded(arg1, this) 
+	}
+	
+	@Override
+	protected String makeLabel() {
+		return SymPrinting.addParenthsesIfNeeded(arg1, this) 
 				+ "/" + 
 				SymPrinting.addParenthsesIfNeeded2(arg2, this);
-		sortKey = arg1.getSortKey()+arg2.getSortKey();
+	}
+	
+	@Override
+	protected Object[] makeSortKeyParts() {
+		return new Object[]{arg1, arg2};
 	}
 	
 	public static Expr shallowSimplifiedIns(Expr numerator, Expr denominator) {
@@ -34,7 +43,7 @@ public class Divide extends BinaryOp {
 			return Reciprocal.simplifiedIns(denominator).setSimplifyOps(simOps).setAsSimplified();
 		 else if(Symbol.C1.symEquals(denominator))
 			return numerator.clone().setSimplifyOps(simOps).setAsSimplified();
-		return new Divide(numerator, denominator).setAsSimplified();
+		return HashCons.intern(new Divide(HashCons.internOperand(numerator), HashCons.internOperand(denominator)).setAsSimplified());
 	}
 	
 	public static Expr simplifiedIns(Expr numerator, Expr denominator) {
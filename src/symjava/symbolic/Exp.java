@@ -6,17 +6,29 @@ import symjava.symbolic.utils.Utils;
 public class Exp extends Pow {
 	public Exp(Expr arg) {
 		super(SymMath.E, arg);
+	}
+	
+	String getDisplayArg() {
 		String displayExp = String.format("{%s}", this.arg2);
-		if(arg instanceof SymReal<?>) {
-			SymReal<?> realExp = (SymReal<?>)arg;
+		if(arg2 instanceof SymReal<?>) {
+			SymReal<?> realExp = (SymReal<?>)arg2;
 			if(realExp.isInteger()) {
 				displayExp = String.format("%d", realExp.getIntValue());
 			}
 			//if(realExp.isNegative())
 			//	displayExp = "{"+displayExp+"}";
 		}
-		label = "e^" + displayExp + "";
-		sortKey = "epower"+String.valueOf(displayExp);
+		return displayExp;
+	}
+	
+	@Override
+	protected String makeLabel() {
+		return "e^" + getDisplayArg() + "";
+	}
+	
+	@Override
+	protected String makeSortKey() {
+		return "epower"+String.valueOf(getDisplayArg());
 	}
 
 	public static Expr simplifiedIns(Expr expr) {
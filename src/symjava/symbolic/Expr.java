@@ -1,6 +1,7 @@
 package symjava.symbolic;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.List;
 
 import symjava.logic.And;
@@ -9,16 +10,23 @@ import symjava.logic.Or;
 import symjava.logic.Xor;
 import symjava.relational.Ge;
 import symjava.relational.Relation;
+import symjava.symbolic.arity.BinaryOp;
+import symjava.symbolic.arity.TernaryOp;
+import symjava.symbolic.arity.UnaryOp;
+import symjava.symbolic.utils.SortKeyReader;
 import symjava.symbolic.utils.Utils;
 
 abstract public class Expr implements Cloneable {
 	/**
 	 * Label(or name) of an expression(Symbol, Func,...)
+	 * The label of an expression with operands is built by makeLabel() when it is
+	 * needed for the first time, use getLabel() instead of accessing it directly
 	 */
 	protected String label = null;
 	
 	/**
-	 * A string used to sort terms in an expression
+	 * A string used to sort terms in an expression, built by makeSortKey() when
+	 * it is needed for the first time
 	 */
 	protected String sortKey = null;
 	
@@ -29,6 +37,17 @@ abstract public class Expr implements Cloneable {
 	
 	public boolean isSimplified = false;
 	
+	/**
+	 * True if the node is shared by the hash consing pool, see HashCons.
+	 * The setters of the simplification state return a modified copy of an interned node
+	 */
+	public boolean isInterned = false;
+	
+	/**
+	 * Cached structural hash, 0 if it is not computed yet
+	 */
+	protected int structHash = 0;
+	
 	public abstract Expr simplify();
 	
 	public abstract boolean symEquals(Expr other);
@@ -96,16 +115,23 @@ abstract public class Expr implements Cloneable {
 	 * Return the string expression
 	 */
 	public String toString() {
-		return label;
+		return getLabel();
 	}
 	
 	/**
-	 * Set the label(or name) of the expression
+	 * Set the label(or name) of the expression. An interned node is shared
+	 * by other expressions, a relabeled copy of it is returned instead, so
+	 * always use the returned expression.
 	 * @param label
 	 * @return
 	 */
 	public Expr setLabel(String label) {
+		if(isInterned)
+			return clone().setLabel(label);
 		this.label = label;
+		//The label of an operator is not a part of its hash
+		if(!isOperator())
+			this.structHash = 0;
 		return this;
 	}
 	
@@ -114,9 +140,21 @@ abstract public class Expr implements Cloneable {
 	 * @return
 	 */
 	public String getLabel() {
+		if(label == null)
+			cacheBottomUp(LABEL);
 		return label;
 	}
 	
+	/**
+	 * Build the label from the operands. Building an expression does not
+	 * build the strings of its operands, the label is built the first time
+	 * it is printed.
+	 * @return
+	 */
+	protected String makeLabel() {
+		return null;
+	}
+	
 	/**
 	 * Set a string key for arranging terms in an expression
 	 * @param sortKey
@@ -133,8 +171,46 @@ abstract public class Expr implements Cloneable {
 	 * @return
 	 */
 	public String getSortKey() {
+		if(sortKey == null) {
+			if(makeSortKeyParts() != null)
+				sortKey = SortKeyReader.read(this);
+			else
+				cacheBottomUp(SORT_KEY);
+		}
 		return sortKey;
 	}
+	
+	/**
+	 * Build the sort key from the operands, the label is used by default
+	 * @return
+	 */
+	protected String makeSortKey() {
+		return getLabel();
+	}
+	
+	/**
+	 * Return the parts of the sort key of an operator whose key is made of 
+	 * the keys of its operands, e.g. the key of a+b is the key of a followed 
+	 * by the key of b. Each part is a String or an Expr standing for its key.
+	 * The parts are compared by Utils.compareSortKey() without building the 
+	 * key of each sub expression, which would be quadratic in the depth of 
+	 * the expression. Return null if the key is built by makeSortKey().
+	 * @return
+	 */
+	protected Object[] makeSortKeyParts() {
+		return null;
+	}
+	
+	/**
+	 * Return the parts of the sort key, see makeSortKeyParts(), or null if 
+	 * the key is a string, e.g. it is set by setSortKey()
+	 * @return
+	 */
+	public Object[] getSortKeyParts() {
+		if(sortKey != null)
+			return null;
+		return makeSortKeyParts();
+	}
 
 	/**
 	 * Count number of operations for simplification
@@ -147,19 +223,126 @@ abstract public class Expr implements Cloneable {
 		//Make no sense, call setAsSimplified() explicitly
 		//if(n > simplifyOpNum)
 		//	isSimplified = true;
+		if(isInterned && n != simplifyOpNum)
+			return clone().setSimplifyOps(n);
 		simplifyOpNum = n;
 		return this;
 	}
 	public Expr incSimplifyOps(int n) {
+		if(isInterned)
+			return clone().incSimplifyOps(n);
 		simplifyOpNum += n;
 		isSimplified = true;
 		return this;
 	}
 	public Expr setAsSimplified() {
+		if(isInterned && !isSimplified)
+			return clone().setAsSimplified();
 		isSimplified = true;
 		return this;
 	}
 	
+	/**
+	 * A hash of the structure of the expression: the class and the operands of
+	 * an operator, the class and the label of other expressions (symbols, numbers,
+	 * functions,...). The operands of a sum or a product are hashed in any order,
+	 * so x+y and y+x have the same hash. Equal expressions, see equals(), have
+	 * the same hash. It is computed once and cached in the node.
+	 * @return
+	 */
+	public int getStructuralHash() {
+		if(structHash == 0)
+			cacheBottomUp(STRUCT_HASH);
+		return structHash;
+	}
+	
+	/**
+	 * True if the expression is determined by its class and its operands 
+	 * args(), e.g. x+y, sin(x). A function is determined by its name.
+	 * @return
+	 */
+	private boolean isOperator() {
+		return this instanceof BinaryOp || this instanceof UnaryOp || this instanceof TernaryOp;
+	}
+	
+	/**
+	 * True if the two operands can be swapped, e.g. x+y and y+x
+	 * @return
+	 */
+	private boolean isCommutative() {
+		return this instanceof Add || this instanceof Multiply;
+	}
+	
+	private static final int LABEL = 0;
+	private static final int SORT_KEY = 1;
+	private static final int STRUCT_HASH = 2;
+	
+	private boolean isCached(int kind) {
+		if(kind == LABEL)
+			return label != null;
+		else if(kind == SORT_KEY)
+			return sortKey != null;
+		return structHash != 0;
+	}
+	
+	private void cache(int kind) {
+		if(kind == LABEL) {
+			label = makeLabel();
+		} else if(kind == SORT_KEY) {
+			sortKey = makeSortKey();
+		} else {
+			int h = getClass().getName().hashCode();
+			if(isCommutative()) {
+				Expr[] args = args();
+				h = 31*h + Math.min(args[0].structHash, args[1].structHash);
+				h = 31*h + Math.max(args[0].structHash, args[1].structHash);
+			} else if(isOperator()) {
+				for(Expr arg : args())
+					h = 31*h + arg.structHash;
+			} else {
+				String l = getLabel();
+				h = 31*h + (l == null ? 0 : l.hashCode());
+			}
+			structHash = (h == 0 ? 1 : h);
+		}
+	}
+	
+	/**
+	 * Compute the label, sort key or hash of the operands before the node
+	 * itself with an explicit stack, so a long chain like a1+a2+...+an
+	 * does not overflow the call stack
+	 */
+	private void cacheBottomUp(int kind) {
+		List<Expr> stack = new ArrayList<Expr>();
+		List<Boolean> expanded = new ArrayList<Boolean>();
+		stack.add(this);
+		expanded.add(false);
+		while(!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			Expr e = stack.remove(top);
+			boolean isExpanded = expanded.remove(top);
+			if(e.isCached(kind))
+				continue;
+			if(isExpanded) {
+				e.cache(kind);
+			} else {
+				stack.add(e);
+				expanded.add(true);
+				if(kind == STRUCT_HASH && !e.isOperator())
+					continue;
+				for(Expr arg : e.args()) {
+					//The key of an operand given by its parts is read when it is needed
+					if(kind == SORT_KEY && arg.getSortKeyParts() != null)
+						continue;
+					if(!arg.isCached(kind)) {
+						stack.add(arg);
+						expanded.add(false);
+					}
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Operator overload support:
 	 * Expr a = 5;
@@ -474,9 +657,19 @@ abstract public class Expr implements Cloneable {
 		return subs(from, new SymDouble(to));
 	}
 	
+	/**
+	 * A shallow copy of the node which shares the operands, see HashCons.internOperand()
+	 * @return
+	 */
+	public Expr copy() {
+		return clone();
+	}
+	
 	protected Expr clone() {
 		try {
-			return (Expr) super.clone();
+			Expr e = (Expr) super.clone();
+			e.isInterned = false;
+			return e;
 		} catch (CloneNotSupportedException e) {
 			e.printStackTrace();
 		}
@@ -484,16 +677,67 @@ abstract public class Expr implements Cloneable {
 	}
 	
 	/**
-	 * If the labels of two expressions are the same they are considered as
-	 * the same symbolic expressions 
+	 * The structural hash, see getStructuralHash()
 	 */
     @Override
     public int hashCode() {
-        return this.label.hashCode();
+        return getStructuralHash();
     }
 
+	/**
+	 * Two expressions are equal if they have the same structure: operators of the 
+	 * same class with equal operands, or other expressions of the same class with
+	 * the same label. The operands of a sum or a product may be swapped, so x*y 
+	 * equals y*x. Equal expressions are symEquals(), but not the other way around:
+	 * (x+y)+z does not equal x+(y+z) and 2 does not equal 2.0, since symEquals()
+	 * flattens and simplifies the expressions before comparing them.
+	 * 
+	 * The hashes are compared first, so two different expressions are
+	 * usually told apart without visiting their operands.
+	 */
     @Override
     public boolean equals(Object obj) {
-       return this.label.equals(((Expr)obj).label);
+        if(this == obj)
+            return true;
+        if(!(obj instanceof Expr))
+            return false;
+        List<Expr> stack = new ArrayList<Expr>();
+        stack.add(this);
+        stack.add((Expr)obj);
+        while(!stack.isEmpty()) {
+            Expr b = stack.remove(stack.size()-1);
+            Expr a = stack.remove(stack.size()-1);
+            if(a == b)
+                continue;
+            if(a.getClass() != b.getClass() || a.getStructuralHash() != b.getStructuralHash())
+                return false;
+            if(a.isOperator()) {
+                Expr[] aArgs = a.args();
+                Expr[] bArgs = b.args();
+                if(aArgs.length != bArgs.length)
+                    return false;
+                if(a.isCommutative()) {
+                    if(aArgs[0].getStructuralHash() == aArgs[1].getStructuralHash()) {
+                        //The hashes do not tell the order of the operands
+                        if(!(aArgs[0].equals(bArgs[0]) && aArgs[1].equals(bArgs[1])) &&
+                                !(aArgs[0].equals(bArgs[1]) && aArgs[1].equals(bArgs[0])))
+                            return false;
+                        continue;
+                    }
+                    if(aArgs[0].getStructuralHash() != bArgs[0].getStructuralHash())
+                        bArgs = new Expr[] { bArgs[1], bArgs[0] };
+                }
+                for(int i=0; i<aArgs.length; i++) {
+                    stack.add(aArgs[i]);
+                    stack.add(bArgs[i]);
+                }
+            } else {
+                String la = a.getLabel();
+                String lb = b.getLabel();
+                if(la == null ? lb != null : !la.equals(lb))
+                    return false;
+            }
+        }
+        return true;
     }
 }
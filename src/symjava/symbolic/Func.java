@@ -2,13 +2,13 @@ package symjava.symbolic;
 
 import java.util.List;
 
-import com.sun.org.apache.bcel.internal.generic.ClassGen;
-
 import symjava.bytecode.BConstant;
 import symjava.bytecode.BytecodeFunc;
 import symjava.symbolic.arity.NaryOp;
-import symjava.symbolic.utils.BytecodeUtils;
-import symjava.symbolic.utils.FuncClassLoader;
+import symjava.symbolic.utils.FuncCache;
+import symjava.symbolic.utils.GeneratedClass;
+import symjava.symbolic.utils.JIT;
+import symjava.symbolic.utils.JITOptions;
 import symjava.symbolic.utils.Utils;
 
 public class Func extends NaryOp {
@@ -57,24 +57,38 @@ public class Func extends NaryOp {
 	}
 	
 	public BytecodeFunc toBytecodeFunc() {
-		return toBytecodeFunc(false, false);
+		return toBytecodeFunc(JIT.getOptions());
 	}
 	
 	public BytecodeFunc toBytecodeFunc(boolean isWriteFile, boolean staticMethod) {
+		return toBytecodeFunc(JITOptions.fromFlags(isWriteFile, staticMethod));
+	}
+	
+	/**
+	 * Return an instance of BytecodeFunc generated by this Func
+	 * 
+	 * @param options
+	 * @return
+	 */
+	public BytecodeFunc toBytecodeFunc(JITOptions options) {
 		try {
-			if(!isWriteFile) {
+			boolean staticMethod = options.isStaticMethod();
+			if(!staticMethod) {
 				if(this.expr instanceof SymReal<?>) {
 					SymReal<?> r = (SymReal<?>)this.expr;
 					return new BConstant(r.getValue().doubleValue());
 				}
 			}
-			/**
-			 * Return an instance of BytecodeFunc generated by this Func without writing a class file to disk.
-			 */
-			FuncClassLoader<BytecodeFunc> fcl = new FuncClassLoader<BytecodeFunc>();
-			ClassGen genClass = BytecodeUtils.genClassBytecodeFunc(this, isWriteFile, staticMethod);
-			return fcl.newInstance(genClass);
-			//return (BytecodeFunc)Class.forName("symjava.bytecode."+this.label).newInstance();
+			//A static method can not be called through BytecodeFunc
+			String key = null;
+			if(!staticMethod) {
+				key = FuncCache.getKey("BytecodeFunc"+options.getCodegenKey(), this.args, this.expr);
+				BytecodeFunc func = JIT.getCache().get(key);
+				if(func != null)
+					return func;
+			}
+			GeneratedClass genClass = options.getBackend().genBytecodeFunc(this, options);
+			return JIT.getCache().newInstance(key, genClass, options);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -20,14 +20,22 @@ public class Integrate extends Expr {
 	public Integrate(Expr integrand, Domain domain) {
 		this.integrand = integrand;
 		this.domain = domain;
+	}
+	
+	@Override
+	protected String makeLabel() {
 		String postfix = "d" + Utils.joinLabels(domain.getCoordVars(),"d");
 		if(domain instanceof Interval) {
 			Interval o = (Interval)domain;
-			this.label = "\\int_{"+o.getStart()+"}^{"+o.getEnd()+"}{"+integrand+"}" + postfix;
+			return "\\int_{"+o.getStart()+"}^{"+o.getEnd()+"}{"+integrand+"}" + postfix;
 		}
 		else
-			this.label = "\\int_{"+domain+"}{"+integrand+"}" + postfix;
-		this.sortKey = integrand.toString()+domain.toString();
+			return "\\int_{"+domain+"}{"+integrand+"}" + postfix;
+	}
+	
+	@Override
+	protected String makeSortKey() {
+		return integrand.toString()+domain.toString();
 	}
 	
 	public static Expr apply(Expr integrand, Domain domain) {
@@ -69,7 +77,7 @@ public class Integrate extends Expr {
 			tmp = tmp.subs(p.e1, p.e2);
 		}
 		return new Integrate(new Func(
-				this.label, tmp.multiply(jac), 
+				this.getLabel(), tmp.multiply(jac), 
 				target.getCoordVars()
 				), target);
 	}
@@ -12,8 +12,6 @@ public class Log extends BinaryOp {
 	 */
 	public Log(Expr expr) {
 		super(SymMath.E, expr);
-		label = "log(" + expr + ")";
-		sortKey = label;
 	}
 	
 	/**
@@ -23,8 +21,13 @@ public class Log extends BinaryOp {
 	 */
 	public Log(Expr base, Expr expr) {
 		super(base, expr);
-		label = "log_{" + base + "}(" + expr + ")";
-		sortKey = label;
+	}
+	
+	@Override
+	protected String makeLabel() {
+		if(arg1 == SymMath.E)
+			return "log(" + arg2 + ")";
+		return "log_{" + arg1 + "}(" + arg2 + ")";
 	}
 	
 	public static Expr simplifiedIns(Expr base, Expr expr) {
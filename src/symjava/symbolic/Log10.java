@@ -4,8 +4,11 @@ public class Log10 extends Log {
 
 	public Log10(Expr expr) {
 		super(Expr.valueOf(10), expr);
-		label = "log10(" + expr + ")";
-		sortKey = label;
+	}
+
+	@Override
+	protected String makeLabel() {
+		return "log10(" + arg2 + ")";
 	}
 	
 	public static Expr simplifiedIns(Expr expr) {
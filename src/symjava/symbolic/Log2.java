@@ -4,8 +4,11 @@ public class Log2 extends Log {
 
 	public Log2(Expr expr) {
 		super(Expr.valueOf(2), expr);
-		label = "log2(" + expr + ")";
-		sortKey = label;
+	}
+
+	@Override
+	protected String makeLabel() {
+		return "log2(" + arg2 + ")";
 	}
 	
 	public static Expr simplifiedIns(Expr expr) {
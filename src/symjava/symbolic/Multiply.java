@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import symjava.symbolic.arity.BinaryOp;
+import symjava.symbolic.utils.HashCons;
 import symjava.symbolic.utils.Utils;
 
 public class Multiply extends BinaryOp {
@@ -17,13 +18,21 @@ public class Multiply extends BinaryOp {
 			arg1 = l;
 			arg2 = r;
 		}
-		label =  SymPrinting.addParenthsesIfNeeded(arg1, this) 
+	}
+	
+	@Override
+	protected String makeLabel() {
+		return SymPrinting.addParenthsesIfNeeded(arg1, this) 
 				+ "*" + 
 				SymPrinting.addParenthsesIfNeeded(arg2, this);
+	}
+	
+	@Override
+	protected Object[] makeSortKeyParts() {
 		if(this.isCoeffMulSymbol()) {
-			sortKey = this.getSymbolTerm().getSortKey();//+this.getCoeffTerm().getSortKey();
+			return new Object[]{this.getSymbolTerm()};//, this.getCoeffTerm()};
 		} else {
-			sortKey = arg1.getSortKey()+arg2.getSortKey();
+			return new Object[]{arg1, arg2};
 		}
 	}
 	
@@ -50,9 +59,9 @@ public class Multiply extends BinaryOp {
 			//Here we need a new instance of 0 to hold the number of simplify operations
 			return new SymInteger(0).setSimplifyOps(simOps).setAsSimplified();
 		} else if(Symbol.Cm1.symEquals(l)) {
-			return new Negate(r).setSimplifyOps(simOps).setAsSimplified();
+			return HashCons.intern(new Negate(HashCons.internOperand(r)).setSimplifyOps(simOps).setAsSimplified());
 		} else if(Symbol.Cm1.symEquals(r)) {
-			return new Negate(l).setSimplifyOps(simOps).setAsSimplified();
+			return HashCons.intern(new Negate(HashCons.internOperand(l)).setSimplifyOps(simOps).setAsSimplified());
 		} else if(l instanceof Reciprocal && r instanceof Reciprocal) {
 			Reciprocal rl = (Reciprocal)l;
 			Reciprocal rr = (Reciprocal)r;
@@ -76,18 +85,18 @@ public class Multiply extends BinaryOp {
 		} else if(l instanceof Pow) {
 			Pow lp = (Pow)l;
 			if(Utils.symCompare(lp.arg1, r)) {
-				return new Pow(lp.arg1, lp.arg2 + 1).setSimplifyOps(simOps).setAsSimplified();
+				return HashCons.intern(new Pow(lp.arg1, HashCons.internOperand(lp.arg2 + 1)).setSimplifyOps(simOps).setAsSimplified());
 			}
 		} else if(r instanceof Pow) {
 			Pow rp = (Pow)r;
 			if(Utils.symCompare(rp.arg1, l)) {
-				return new Pow(rp.arg1, rp.arg2 + 1).setSimplifyOps(simOps).setAsSimplified();
+				return HashCons.intern(new Pow(rp.arg1, HashCons.internOperand(rp.arg2 + 1)).setSimplifyOps(simOps).setAsSimplified());
 			}
 		}
 		if(Utils.symCompare(l, r)) {
-			return new Pow(l, Expr.valueOf(2)).setSimplifyOps(simOps).setAsSimplified();
+			return HashCons.intern(new Pow(HashCons.internOperand(l), HashCons.intern(Expr.valueOf(2))).setSimplifyOps(simOps).setAsSimplified());
 		}
-		return new Multiply(l, r).setAsSimplified();
+		return HashCons.intern(new Multiply(HashCons.internOperand(l), HashCons.internOperand(r)).setAsSimplified());
 	}
 	
 	public static Expr simplifiedIns(Expr l, Expr r) {
@@ -161,6 +170,8 @@ public class Multiply extends BinaryOp {
 	}
 	
 	public boolean symEquals(Expr other) {
+		if(this == other)
+			return true;
 		//return Utils.flattenSortAndCompare(this, other);
 		return Utils.flattenSortAndCompare(this.simplify(), other.simplify());
 	}
@@ -0,0 +1,55 @@
+package symjava.symbolic;
+
+import symjava.symbolic.arity.TernaryOp;
+import symjava.symbolic.utils.Utils;
+
+/**
+ * arg1*arg2 + arg3 rounded once, it is compiled to Math.fma()
+ *
+ * The expression is created by the code generator only, see CodegenRewriter
+ *
+ */
+public class MultiplyAdd extends TernaryOp {
+
+	public MultiplyAdd(Expr arg1, Expr arg2, Expr arg3) {
+		super(arg1, arg2, arg3);
+	}
+
+	@Override
+	protected String makeLabel() {
+		return "fma(" + arg1 + ", " + arg2 + ", " + arg3 + ")";
+	}
+
+	@Override
+	public Expr diff(Expr expr) {
+		return new Add(new Multiply(arg1, arg2), arg3).diff(expr);
+	}
+
+	@Override
+	public Expr simplify() {
+		return this;
+	}
+
+	@Override
+	public boolean symEquals(Expr other) {
+		if(other instanceof MultiplyAdd) {
+			MultiplyAdd o = (MultiplyAdd)other;
+			return Utils.symCompare(arg1, o.arg1) &&
+					Utils.symCompare(arg2, o.arg2) &&
+					Utils.symCompare(arg3, o.arg3);
+		}
+		return false;
+	}
+
+	@Override
+	public Expr subs(Expr from, Expr to) {
+		if(Utils.symCompare(this, from))
+			return to;
+		Expr s1 = arg1.subs(from, to);
+		Expr s2 = arg2.subs(from, to);
+		Expr s3 = arg3.subs(from, to);
+		if(s1 == arg1 && s2 == arg2 && s3 == arg3)
+			return this;
+		return new MultiplyAdd(s1, s2, s3);
+	}
+}
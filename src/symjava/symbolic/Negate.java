@@ -4,14 +4,23 @@ import java.util.ArrayList;
 import java.util.List;
 
 import symjava.symbolic.arity.UnaryOp;
+import symjava.symbolic.utils.HashCons;
 import symjava.symbolic.utils.Utils;
 
 public class Negate extends UnaryOp {
 	
 	public Negate(Expr expr) {
 		super(expr);
-		label = "-" + SymPrinting.addParenthsesIfNeeded(expr, this);
-		sortKey = arg.getSortKey();
+	}
+	
+	@Override
+	protected String makeLabel() {
+		return "-" + SymPrinting.addParenthsesIfNeeded(arg, this);
+	}
+	
+	@Override
+	protected Object[] makeSortKeyParts() {
+		return new Object[]{arg};
 	}
 	
 	@Override
@@ -41,7 +50,7 @@ public class Negate extends UnaryOp {
 			Negate n = (Negate)expr;
 			return n.arg;
 		}
-		return new Negate(expr);
+		return HashCons.intern(new Negate(HashCons.internOperand(expr)));
 	}
 
 	@Override
@@ -55,11 +64,8 @@ public class Negate extends UnaryOp {
 	public Expr simplify() {
 		if(this.isSimplified)
 			return this;
-		Expr nb = arg.simplify();
-		nb.isSimplified = true;
-		Expr rlt = new Negate(nb);
-		rlt.isSimplified = true;
-		return rlt;
+		Expr nb = arg.simplify().setAsSimplified();
+		return new Negate(nb).setAsSimplified();
 	}
 
 	@Override
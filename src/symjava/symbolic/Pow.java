@@ -3,29 +3,43 @@ package symjava.symbolic;
 import java.util.List;
 
 import symjava.symbolic.arity.BinaryOp;
+import symjava.symbolic.utils.HashCons;
 import symjava.symbolic.utils.Utils;
 
 public class Pow extends BinaryOp {
 	
 	public Pow(Expr base, Expr exponent) {
 		super(base, exponent);
+	}
+	
+	String getDisplayExp() {
 		String displayExp = String.format("%s", this.arg2);
-		if(exponent instanceof SymReal<?>) {
-			SymReal<?> realExp = (SymReal<?>)exponent;
+		if(arg2 instanceof SymReal<?>) {
+			SymReal<?> realExp = (SymReal<?>)arg2;
 			if(realExp.isInteger()) {
 				displayExp = String.format("%d", realExp.getIntValue());
 			}
 			if(realExp.isNegative())
 				displayExp = "{"+displayExp+"}";
 		}
-		if(base instanceof Symbol) {
-			label = base + "^" + displayExp + "";
-			label = "pow(" + base + ","+displayExp+")";
+		return displayExp;
+	}
+	
+	@Override
+	protected String makeLabel() {
+		String displayExp = getDisplayExp();
+		if(arg1 instanceof Symbol) {
+			//return arg1 + "^" + displayExp + "";
+			return "pow(" + arg1 + ","+displayExp+")";
 		} else {
-			label = "("+base + ")^" + displayExp;
+			return "("+arg1 + ")^" + displayExp;
 		}
+	}
+	
+	@Override
+	protected Object[] makeSortKeyParts() {
 		//TODO? x^3 + x^2 + x + 1
-		sortKey = base.getSortKey()+"power"+String.valueOf(displayExp);
+		return new Object[]{arg1, "power"+String.valueOf(getDisplayExp())};
 	}
 
 	public static Expr simplifiedIns(Expr base, Expr exponent) {
@@ -49,7 +63,7 @@ public class Pow extends BinaryOp {
 			else if(realExp.isNegativeOne())
 				return Reciprocal.simplifiedIns(base);
 		}
-		return new Pow(base, exponent);
+		return HashCons.intern(new Pow(HashCons.internOperand(base), HashCons.internOperand(exponent)));
 	}
 	
 	@Override
@@ -83,6 +97,8 @@ public class Pow extends BinaryOp {
 
 	@Override
 	public boolean symEquals(Expr other) {
+		if(this == other)
+			return true;
 		if(other instanceof Pow) {
 			Pow o = (Pow)other;
 			if(Utils.symCompare(arg1,  o.arg1) && Utils.symCompare(arg2, o.arg2))
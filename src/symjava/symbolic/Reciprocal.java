@@ -1,14 +1,23 @@
 package symjava.symbolic;
 
 import symjava.symbolic.arity.UnaryOp;
+import symjava.symbolic.utils.HashCons;
 import symjava.symbolic.utils.Utils;
 
 public class Reciprocal extends UnaryOp {
 
 	public Reciprocal(Expr base) {
 		super(base);
-		label =  "1/" +  SymPrinting.addParenthsesIfNeeded(base, this);		
-		sortKey = base.getSortKey();
+	}
+	
+	@Override
+	protected String makeLabel() {
+		return "1/" +  SymPrinting.addParenthsesIfNeeded(arg, this);
+	}
+	
+	@Override
+	protected Object[] makeSortKeyParts() {
+		return new Object[]{arg};
 	}
 	
 	@Override
@@ -22,13 +31,9 @@ public class Reciprocal extends UnaryOp {
 			return this;
 		if(arg instanceof Pow) {
 			Pow p = (Pow)arg.simplify();
-			p.isSimplified = true;
-			Expr rlt = Pow.simplifiedIns(p.arg1, -p.arg2);
-			rlt.isSimplified = true;
-			return rlt;
+			return Pow.simplifiedIns(p.arg1, -p.arg2).setAsSimplified();
 		}
-		this.isSimplified = true;
-		return this;
+		return this.setAsSimplified();
 	}
 	
 	public static Expr simplifiedIns(Expr expr) {
@@ -36,7 +41,7 @@ public class Reciprocal extends UnaryOp {
 			Number n = (Number)((SymReal<?>)expr).getValue();
 			return new SymDouble(1.0/n.doubleValue());
 		}
-		return new Reciprocal(expr);
+		return HashCons.intern(new Reciprocal(HashCons.internOperand(expr)));
 	}
 
 	@Override
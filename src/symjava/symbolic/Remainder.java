@@ -5,8 +5,11 @@ import symjava.symbolic.arity.BinaryOp;
 public class Remainder extends BinaryOp {
 	public Remainder(Expr arg1, Expr arg2) {
 		super(arg1, arg2);
-		this.label = arg1+"%"+arg2;
-		this.sortKey = this.label;
+	}
+
+	@Override
+	protected String makeLabel() {
+		return arg1+"%"+arg2;
 	}
 
 	@Override
@@ -7,8 +7,11 @@ public class Sin extends UnaryOp {
 
 	public Sin(Expr arg) {
 		super(arg);
-		label = "sin(" + arg + ")";
-		sortKey = label;
+	}
+
+	@Override
+	protected String makeLabel() {
+		return "sin(" + arg + ")";
 	}
 
 	@Override
@@ -4,24 +4,38 @@ import symjava.symbolic.arity.BinaryOp;
 import symjava.symbolic.utils.Utils;
 
 public class Sqrt extends BinaryOp {
+	/**
+	 * True if the root is given explicitly, the label shows it then
+	 */
+	boolean showRoot;
+	
 	public Sqrt(Expr expr) {
 		super(expr, Expr.valueOf(2));
-		label = "\\sqrt{" + expr + "}";
-		sortKey = expr.getSortKey()+"sqrt[2]"+String.valueOf(arg2);
 	}
 	
 	public Sqrt(Expr expr, Expr root) {
 		super(expr, root);
+		showRoot = true;
+	}
+	
+	@Override
+	protected String makeLabel() {
+		if(!showRoot)
+			return "\\sqrt{" + arg1 + "}";
 		String displayRoot = String.format("%s", this.arg2);
-		if(root instanceof SymReal<?>) {
-			SymReal<?> realExp = (SymReal<?>)root;
+		if(arg2 instanceof SymReal<?>) {
+			SymReal<?> realExp = (SymReal<?>)arg2;
 			if(realExp.isInteger()) {
 				displayRoot = String.format("%d", realExp.getIntValue());
 			}
 		}
-		label = "\\sqrt["+displayRoot+"]{" + expr + "}";
+		return "\\sqrt["+displayRoot+"]{" + arg1 + "}";
+	}
+	
+	@Override
+	protected Object[] makeSortKeyParts() {
 		//TODO
-		sortKey = expr.getSortKey()+"sqrt["+root+"]"+String.valueOf(root);
+		return new Object[]{arg1, "sqrt["+arg2+"]"+String.valueOf(arg2)};
 	}
 
 	@Override
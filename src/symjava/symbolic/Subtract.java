@@ -3,17 +3,25 @@ package symjava.symbolic;
 import java.util.List;
 
 import symjava.symbolic.arity.BinaryOp;
+import symjava.symbolic.utils.HashCons;
 import symjava.symbolic.utils.Utils;
 
 public class Subtract extends BinaryOp {
 	public Subtract(Expr l, Expr r) {
 		super(l, r);
+	}
+	
+	@Override
+	protected String makeLabel() {
 		if(arg2 instanceof Add || arg2 instanceof Subtract)
-			label = arg1 + " - (" + arg2 + ")";
+			return arg1 + " - (" + arg2 + ")";
 		else
-			label = arg1 + " - " + arg2;
-
-		sortKey = arg1.getSortKey()+arg2.getSortKey();
+			return arg1 + " - " + arg2;
+	}
+	
+	@Override
+	protected Object[] makeSortKeyParts() {
+		return new Object[]{arg1, arg2};
 	}
 	
 	@Override
@@ -43,8 +51,8 @@ public class Subtract extends BinaryOp {
 		} else if(Symbol.C0.symEquals(r))
 			return l.clone().setSimplifyOps(simOps).setAsSimplified();
 		else if(Symbol.C0.symEquals(l))
-			return new Negate(r).setSimplifyOps(simOps).setAsSimplified();
-		return new Subtract(l, r).setAsSimplified();
+			return HashCons.intern(new Negate(HashCons.internOperand(r)).setSimplifyOps(simOps).setAsSimplified());
+		return HashCons.intern(new Subtract(HashCons.internOperand(l), HashCons.internOperand(r)).setAsSimplified());
 	}
 	
 	public static Expr simplifiedIns(Expr l, Expr r) {
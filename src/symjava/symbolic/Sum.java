@@ -18,10 +18,13 @@ public class Sum extends Expr {
  		this.summandTemplate = summandTemplate;
  		this.indexExpr = indexExpr;
  		
-		label = "\\Sigma_{"+indexExpr+"="+start+"}^" + end + "{" + SymPrinting.addParenthsesIfNeeded(summandTemplate, new Add(Symbol.x, Symbol.y)) + "}";
 		this.start = start;
 		this.end = end;
-		sortKey = label;
+	}
+	
+	@Override
+	protected String makeLabel() {
+		return "\\Sigma_{"+indexExpr+"="+start+"}^" + end + "{" + SymPrinting.addParenthsesIfNeeded(summandTemplate, new Add(Symbol.x, Symbol.y)) + "}";
 	}
 	
 	public static Sum apply(Expr summandTemplate, Expr indexExpr, int start, int end) {
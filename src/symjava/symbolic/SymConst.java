@@ -31,6 +31,6 @@ public class SymConst extends Expr {
 
 	@Override
 	public boolean symEquals(Expr other) {
-		return this.label.equals(other.label);
+		return this.label.equals(other.getLabel());
 	}
 }
@@ -7,8 +7,11 @@ public class Tan extends UnaryOp {
 
 	public Tan(Expr arg) {
 		super(arg);
-		label = "tan(" + arg + ")";
-		sortKey = label;
+	}
+
+	@Override
+	protected String makeLabel() {
+		return "tan(" + arg + ")";
 	}
 
 	@Override
@@ -0,0 +1,74 @@
+package symjava.symbolic.utils;
+
+import java.util.List;
+
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.generic.ClassGen;
+
+import symjava.symbolic.Expr;
+import symjava.symbolic.Func;
+
+/**
+ * The default CodegenBackend which generates the classes by Apache Commons
+ * BCEL (lib/bcel-6.10.0.jar), see BytecodeUtils. It is the only backend 
+ * shipped, another generator (e.g. ASM) can be plugged in by 
+ * JITOptions.setBackend()
+ *
+ */
+public class BcelBackend implements CodegenBackend {
+	public static final BcelBackend INSTANCE = new BcelBackend();
+
+	@Override
+	public GeneratedClass genBytecodeFunc(Func fun, JITOptions options) {
+		return toGeneratedClass(BytecodeUtils.genClassBytecodeFunc(fun, options));
+	}
+
+	@Override
+	public GeneratedClass genBytecodeVecFunc(String className, List<Expr> exprs, List<Integer> outPos,
+			Expr[] args, JITOptions options) {
+		return toGeneratedClass(BytecodeUtils.genClassBytecodeVecFunc(className, exprs, outPos, args, options));
+	}
+
+	@Override
+	public GeneratedClass genBytecodeBatchFunc(String className, Expr expr, Expr[] args, JITOptions options) {
+		return toGeneratedClass(BytecodeUtils.genClassBytecodeBatchFunc(className, expr, args, options));
+	}
+
+	@Override
+	public GeneratedClass genBytecodeBatchVecFunc(String className, List<Expr> exprs, List<Integer> outPos,
+			Expr[] args, JITOptions options) {
+		return toGeneratedClass(BytecodeUtils.genClassBytecodeBatchVecFunc(className, exprs, outPos, args, options));
+	}
+
+	@Override
+	public GeneratedClass genFloatFunc(String className, Expr expr, Expr[] args, JITOptions options) {
+		return toGeneratedClass(FloatCodegen.genClassFloatFunc(className, expr, args, options));
+	}
+
+	@Override
+	public GeneratedClass genFloatBatchFunc(String className, Expr expr, Expr[] args, JITOptions options) {
+		return toGeneratedClass(FloatCodegen.genClassFloatBatchFunc(className, expr, args, options));
+	}
+
+	@Override
+	public GeneratedClass genForwardGradient(String className, Expr expr, Expr[] args, JITOptions options) {
+		return toGeneratedClass(GradientCodegen.genClassForwardGradient(className, expr, args, options));
+	}
+
+	@Override
+	public GeneratedClass genReverseGradient(String className, Expr expr, Expr[] args, JITOptions options) {
+		return toGeneratedClass(GradientCodegen.genClassReverseGradient(className, expr, args, options));
+	}
+
+	@Override
+	public GeneratedClass genJacobian(String className, Expr[] exprs, Expr[] args, JITOptions options) {
+		return toGeneratedClass(GradientCodegen.genClassJacobian(className, exprs, args, options));
+	}
+
+	public static GeneratedClass toGeneratedClass(ClassGen cg) {
+		JavaClass jc = cg.getJavaClass();
+		if(cg instanceof BytecodeUtils.FuncClassGen)
+			return new GeneratedClass(jc.getClassName(), jc.getBytes(), ((BytecodeUtils.FuncClassGen)cg).funcFields);
+		return new GeneratedClass(jc.getClassName(), jc.getBytes());
+	}
+}
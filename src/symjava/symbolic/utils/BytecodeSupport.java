@@ -1,8 +1,39 @@
 package symjava.symbolic.utils;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import symjava.bytecode.BytecodeFunc;
 
 public class BytecodeSupport {
+	/**
+	 * Return an instance of the class symjava.bytecode.name on the class path.
+	 * The generated code passes the integrands and the bounds of integrals 
+	 * as BytecodeFunc directly, this is used by the classes written by 
+	 * older versions which pass them by name.
+	 * 
+	 * @param name
+	 * @return
+	 * @throws Exception
+	 */
+	public static BytecodeFunc getFunc(String name) throws Exception {
+		Class<?> cls = BytecodeSupport.class.getClassLoader().loadClass("symjava.bytecode."+name);
+		final Method method = cls.getMethod("apply", double[].class);
+		if(!Modifier.isStatic(method.getModifiers()))
+			return (BytecodeFunc)cls.getDeclaredConstructor().newInstance();
+		//A class file written with a static method
+		return new BytecodeFunc() {
+			@Override
+			public double apply(double... args) {
+				try {
+					return (Double)method.invoke(null, args);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+	}
+	
 	public static double powi(double base, int exp) {
 		if(exp == 0) return 1.0;
 		else if(exp < 0) return 1.0/powi(base, -exp);
@@ -43,52 +74,22 @@ public class BytecodeSupport {
 	 */
 	public static double numIntegrate1D(double begin, double end, double step, 
 			String integrandFunc, double[] additionalParams) {
-
-		Method method;
 		try {
-			method = BytecodeSupport.class.getClassLoader().
-					loadClass("symjava.bytecode."+integrandFunc).
-					getMethod("apply", new Class[] {double[].class});
-			//additionalParams is always not null
-			double[] args = new double[additionalParams.length+1];
-			System.arraycopy(additionalParams, 0, args, 1, additionalParams.length);
-			double sum = 0.0;
-			
-//			for(double i=begin; i<=end; i+=step) {
-//				args[0] = i;
-//				Double val = (Double)method.invoke(null, args);
-//				//Double val = test_pdf(args);
-//				sum += val*step;
-//			}
-			
-			// Use trapezoid rule 
-			args[0] = begin;
-			Double val1 = (Double)method.invoke(null, args);
-			double i = begin + step;
-			for(; i<=end; i+=step) {
-				args[0] = i;
-				Double val2 = (Double)method.invoke(null, args);
-				sum += (val1+val2)*step/2.0;
-				val1 = val2;
-			}
-			if(i - end > 0.0) {
-				args[0] = end;
-				Double val2 = (Double)method.invoke(null, args);
-				sum += (val1+val2)*(step-(i-end))/2.0;
-			}
-			return sum;
+			return numIntegrate1D(begin, end, step, getFunc(integrandFunc), additionalParams);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-//		for (Method m : methods) {
-//		    if (methodName.equals(m.getName())) {
-//		        // for static methods we can use null as instance of class
-//		        m.invoke(null, new Object[] {args});
-//		        break;
-//		    }
-//		}
 		return 0.0;
 	}
+	
+	public static double numIntegrate1D(double begin, double end, double step, 
+			BytecodeFunc integrand, double[] additionalParams) {
+		if(additionalParams == null)
+			additionalParams = new double[0];
+		double[] args = new double[additionalParams.length+1];
+		System.arraycopy(additionalParams, 0, args, 1, additionalParams.length);
+		return trapezoid(begin, end, step, integrand, args, 0);
+	}
 
 	/**
 	 * 1D integration used in 2D integration
@@ -102,88 +103,102 @@ public class BytecodeSupport {
 	 */
 	public static double numIntegrate1D(double begin, double end, double step, 
 			String integrandFunc, double yParam, double[] additionalParams) {
-
-		Method method;
 		try {
-			method = BytecodeSupport.class.getClassLoader().
-					loadClass("symjava.bytecode."+integrandFunc).
-					getMethod("apply", new Class[] {double[].class});
-			//additionalParams is always not null
-			double[] args = new double[additionalParams.length+2];
-			System.arraycopy(additionalParams, 0, args, 2, additionalParams.length);
-			args[0] = 0.0;
-			args[1] = yParam;
-			double sum = 0.0;
-			
-			// Use trapezoid rule 
-			args[0] = begin;
-			Double val1 = (Double)method.invoke(null, args);
-			double i = begin + step;
-			for(; i<=end; i+=step) {
-				args[0] = i;
-				Double val2 = (Double)method.invoke(null, args);
-				sum += (val1+val2)*step/2.0;
-				val1 = val2;
-			}
-			if(i - end > 0.0) {
-				args[0] = end;
-				Double val2 = (Double)method.invoke(null, args);
-				sum += (val1+val2)*(step-(i-end))/2.0;
-			}
-			return sum;
+			return numIntegrate1D(begin, end, step, getFunc(integrandFunc), yParam, additionalParams);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		return 0.0;
 	}
 	
+	public static double numIntegrate1D(double begin, double end, double step, 
+			BytecodeFunc integrand, double yParam, double[] additionalParams) {
+		//additionalParams is always not null
+		double[] args = new double[additionalParams.length+2];
+		System.arraycopy(additionalParams, 0, args, 2, additionalParams.length);
+		args[1] = yParam;
+		return trapezoid(begin, end, step, integrand, args, 0);
+	}
+	
+	/**
+	 * Integrate func over args[idx] in [begin, end] with the trapezoid rule.
+	 * The other elements of args are not changed.
+	 * 
+	 * @param begin
+	 * @param end
+	 * @param step
+	 * @param func
+	 * @param args
+	 * @param idx
+	 * @return
+	 */
+	static double trapezoid(double begin, double end, double step, 
+			BytecodeFunc func, double[] args, int idx) {
+		double sum = 0.0;
+		args[idx] = begin;
+		double val1 = func.apply(args);
+		double i = begin + step;
+		for(; i<=end; i+=step) {
+			args[idx] = i;
+			double val2 = func.apply(args);
+			sum += (val1+val2)*step/2.0;
+			val1 = val2;
+		}
+		if(i - end > 0.0) {
+			args[idx] = end;
+			double val2 = func.apply(args);
+			sum += (val1+val2)*(step-(i-end))/2.0;
+		}
+		return sum;
+	}
+	
 	public static double numIntegrate2D(double begin, double end, double step, 
 			String lowerBoundFunc, String upperBoundFunc, double stepInner, 
 			String integrandFunc,
 			double[] additionalParams) {
-		Method mLower, mUpper;
 		try {
-			mLower = BytecodeSupport.class.getClassLoader().
-					loadClass("symjava.bytecode."+lowerBoundFunc).
-					getMethod("apply", new Class[] {double[].class});
-			mUpper = BytecodeSupport.class.getClassLoader().
-					loadClass("symjava.bytecode."+upperBoundFunc).
-					getMethod("apply", new Class[] {double[].class});
-			
-			//additionalParams is always not null
-			double[] args = new double[additionalParams.length+1];
-			System.arraycopy(additionalParams, 0, args, 1, additionalParams.length);
-			double sum = 0.0;
-			
-			// Use trapezoid rule 
-			args[0] = begin;
-			Double valLower = (Double)mLower.invoke(null, args);
-			Double valUpper = (Double)mUpper.invoke(null, args);
-			Double val1 = numIntegrate1D(valLower, valUpper, stepInner, integrandFunc, begin, additionalParams);
-			
-			double i = begin + step;
-			for(; i<=end; i+=step) {
-				args[0] = i;
-				valLower = (Double)mLower.invoke(null, args);
-				valUpper = (Double)mUpper.invoke(null, args);
-				Double val2 = numIntegrate1D(valLower, valUpper, stepInner, integrandFunc, i, additionalParams);
-				sum += (val1+val2)*step/2.0;
-				val1 = val2;
-			}
-			if(i - end > 0.0) {
-				args[0] = end;
-				valLower = (Double)mLower.invoke(null, args);
-				valUpper = (Double)mUpper.invoke(null, args);
-				Double val2 = numIntegrate1D(valLower, valUpper, stepInner, integrandFunc, step-(i-end), additionalParams);
-				sum += (val1+val2)*(step-(i-end))/2.0;
-			}
-			return sum;
+			return numIntegrate2D(begin, end, step, getFunc(lowerBoundFunc), getFunc(upperBoundFunc), 
+					stepInner, getFunc(integrandFunc), additionalParams);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		return 0.0;
 	}
 	
+	public static double numIntegrate2D(double begin, double end, double step, 
+			BytecodeFunc lowerBound, BytecodeFunc upperBound, double stepInner, 
+			BytecodeFunc integrand,
+			double[] additionalParams) {
+		//additionalParams is always not null
+		double[] args = new double[additionalParams.length+1];
+		System.arraycopy(additionalParams, 0, args, 1, additionalParams.length);
+		//args of the integrand: x, y, additionalParams
+		double[] innerArgs = new double[additionalParams.length+2];
+		System.arraycopy(additionalParams, 0, innerArgs, 2, additionalParams.length);
+		double sum = 0.0;
+		
+		// Use trapezoid rule 
+		args[0] = begin;
+		innerArgs[1] = begin;
+		double val1 = trapezoid(lowerBound.apply(args), upperBound.apply(args), stepInner, integrand, innerArgs, 0);
+		
+		double i = begin + step;
+		for(; i<=end; i+=step) {
+			args[0] = i;
+			innerArgs[1] = i;
+			double val2 = trapezoid(lowerBound.apply(args), upperBound.apply(args), stepInner, integrand, innerArgs, 0);
+			sum += (val1+val2)*step/2.0;
+			val1 = val2;
+		}
+		if(i - end > 0.0) {
+			args[0] = end;
+			innerArgs[1] = end;
+			double val2 = trapezoid(lowerBound.apply(args), upperBound.apply(args), stepInner, integrand, innerArgs, 0);
+			sum += (val1+val2)*(step-(i-end))/2.0;
+		}
+		return sum;
+	}
+	
 	public static double numIntegrateND(double begin, double end, double step, 
 			String[] lowerBoundFunc, String[] upperBoundFunc, double[] stepInner, 
 			String integrandFunc, int level) {
@@ -194,123 +209,104 @@ public class BytecodeSupport {
 		int idx = stepInner.length-level;
 		level--;
 		
-		Method mLower, mUpper;
+		BytecodeFunc mLower, mUpper;
 		try {
-			mLower = BytecodeSupport.class.getClassLoader().
-					loadClass("symjava.bytecode."+lowerBoundFunc).
-					getMethod("apply", new Class[] {double[].class});
-			mUpper = BytecodeSupport.class.getClassLoader().
-					loadClass("symjava.bytecode."+upperBoundFunc).
-					getMethod("apply", new Class[] {double[].class});
-			
-			double[] args = { 0 };
-			double sum = 0.0;
-			
-			// Use trapezoid rule 
-			args[0] = begin;
-			Double valLower = (Double)mLower.invoke(null, args);
-			Double valUpper = (Double)mUpper.invoke(null, args);
-			double valStep = stepInner[idx];
-			Double val1 = numIntegrateND(valLower, valUpper, valStep, 
-					lowerBoundFunc, upperBoundFunc, stepInner, integrandFunc, level);
-			
-			double i = begin + step;
-			for(; i<=end; i+=step) {
-				args[0] = i;
-				valLower = (Double)mLower.invoke(null, args);
-				valUpper = (Double)mUpper.invoke(null, args);
-				Double val2 = numIntegrateND(valLower, valUpper, valStep, 
-						lowerBoundFunc, upperBoundFunc, stepInner, integrandFunc, level);
-				sum += (val1+val2)*step/2.0;
-				val1 = val2;
-			}
-			if(i - end > 0.0) {
-				args[0] = end;
-				valLower = (Double)mLower.invoke(null, args);
-				valUpper = (Double)mUpper.invoke(null, args);
-				Double val2 = numIntegrateND(valLower, valUpper, valStep, 
-						lowerBoundFunc, upperBoundFunc, stepInner, integrandFunc, level);
-				sum += (val1+val2)*(step-(i-end))/2.0;
-			}
-			return sum;
+			mLower = getFunc(lowerBoundFunc[idx]);
+			mUpper = getFunc(upperBoundFunc[idx]);
 		} catch (Exception e) {
 			e.printStackTrace();
+			return 0.0;
 		}
-		return 0.0;
+		double[] args = { 0 };
+		double sum = 0.0;
+		
+		// Use trapezoid rule 
+		args[0] = begin;
+		double valStep = stepInner[idx];
+		double val1 = numIntegrateND(mLower.apply(args), mUpper.apply(args), valStep, 
+				lowerBoundFunc, upperBoundFunc, stepInner, integrandFunc, level);
+		
+		double i = begin + step;
+		for(; i<=end; i+=step) {
+			args[0] = i;
+			double val2 = numIntegrateND(mLower.apply(args), mUpper.apply(args), valStep, 
+					lowerBoundFunc, upperBoundFunc, stepInner, integrandFunc, level);
+			sum += (val1+val2)*step/2.0;
+			val1 = val2;
+		}
+		if(i - end > 0.0) {
+			args[0] = end;
+			double val2 = numIntegrateND(mLower.apply(args), mUpper.apply(args), valStep, 
+					lowerBoundFunc, upperBoundFunc, stepInner, integrandFunc, level);
+			sum += (val1+val2)*(step-(i-end))/2.0;
+		}
+		return sum;
 	}
 	
 	public static double numIntegrateMonteCarloND(String[] minBound, String[] maxBound,
 			String integrandFunc, String constraint,
 			double[] additionalParams) {
-		int dim = minBound.length;
 		try {
-			Method integrand = BytecodeSupport.class.getClassLoader().
-					loadClass("symjava.bytecode."+integrandFunc).
-					getMethod("apply", new Class[] {double[].class});
-			double[] args = new double[dim + additionalParams.length];
-			System.arraycopy(additionalParams, 0, args, dim, additionalParams.length);
-			
-			Method[] mLower = new Method[dim];
-			Method[] mUpper = new Method[dim];
+			int dim = minBound.length;
+			BytecodeFunc[] mLower = new BytecodeFunc[dim];
+			BytecodeFunc[] mUpper = new BytecodeFunc[dim];
 			for(int i=0; i<dim; i++) {
-				mLower[i] = BytecodeSupport.class.getClassLoader().
-						loadClass("symjava.bytecode."+minBound[i]).
-						getMethod("apply", new Class[] {double[].class});
-				mUpper[i] = BytecodeSupport.class.getClassLoader().
-						loadClass("symjava.bytecode."+maxBound[i]).
-						getMethod("apply", new Class[] {double[].class});
+				mLower[i] = getFunc(minBound[i]);
+				mUpper[i] = getFunc(maxBound[i]);
 			}
-			double[] minBd = new double[dim];
-			double[] maxBd = new double[dim];
-			Double val;
-			for(int i=0; i<dim; i++) {
-				val = (Double)mLower[i].invoke(null, args);
-				minBd[i] = val;
-				val = (Double)mUpper[i].invoke(null, args);
-				maxBd[i] = val;
-			}
-			Method constr = BytecodeSupport.class.getClassLoader().
-					loadClass("symjava.bytecode."+constraint).
-					getMethod("apply", new Class[] {double[].class});
-			double cubeVol = 1.0;
+			return numIntegrateMonteCarloND(mLower, mUpper, getFunc(integrandFunc), 
+					getFunc(constraint), additionalParams);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return 0.0;
+	}
+	
+	public static double numIntegrateMonteCarloND(BytecodeFunc[] mLower, BytecodeFunc[] mUpper,
+			BytecodeFunc integrand, BytecodeFunc constr,
+			double[] additionalParams) {
+		int dim = mLower.length;
+		double[] args = new double[dim + additionalParams.length];
+		System.arraycopy(additionalParams, 0, args, dim, additionalParams.length);
+		
+		double[] minBd = new double[dim];
+		double[] maxBd = new double[dim];
+		for(int i=0; i<dim; i++) {
+			minBd[i] = mLower[i].apply(args);
+			maxBd[i] = mUpper[i].apply(args);
+		}
+		double cubeVol = 1.0;
+		for(int i=0; i<dim; i++) {
+			cubeVol *= (maxBd[i] -minBd[i]);
+		}
+		
+		//Numerical intensive loop
+		double sum = 0.0;
+		int inAreaPointCount = 0;
+		int NN = 0;
+		double result = Double.MAX_VALUE;
+		double eps = 1e-8;
+		while(true) {
+			NN++;
 			for(int i=0; i<dim; i++) {
-				cubeVol *= (maxBd[i] -minBd[i]);
+				args[i] = minBd[i] + Math.random()*(maxBd[i] -minBd[i]);
 			}
 			
-			//Numerical intensive loop
-			double sum = 0.0;
-			int inAreaPointCount = 0;
-			int NN = 0;
-			double result = Double.MAX_VALUE;
-			double eps = 1e-8;
-			while(true) {
-				NN++;
-				for(int i=0; i<dim; i++) {
-					args[i] = minBd[i] + Math.random()*(maxBd[i] -minBd[i]);
-				}
-				
-				Double flag = (Double)constr.invoke(null, args);
-				if(flag > 0.5) { //The random point is in the domain
-					sum += (Double)integrand.invoke(null, args);
-					inAreaPointCount++;
-				}
-				//System.out.println("inAreaPointCount="+inAreaPointCount);
-				//System.out.println("cubeVol="+cubeVol);
-				//System.out.println("area="+area);
-				if(inAreaPointCount % 10000 == 1) {
-					double area = cubeVol*inAreaPointCount/(double)NN;
-					double curResult = (sum/inAreaPointCount)*area;
-					if(Math.abs(result - curResult) < eps) {
-						System.out.println("Monte Carlo evaluation times="+NN);
-						return curResult;
-					}
-					result = curResult;
+			double flag = constr.apply(args);
+			if(flag > 0.5) { //The random point is in the domain
+				sum += integrand.apply(args);
+				inAreaPointCount++;
+			}
+			if(inAreaPointCount % 10000 == 1) {
+				double area = cubeVol*inAreaPointCount/(double)NN;
+				double curResult = (sum/inAreaPointCount)*area;
+				if(Math.abs(result - curResult) < eps) {
+					System.out.println("Monte Carlo evaluation times="+NN);
+					return curResult;
 				}
+				result = curResult;
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
-		return 0.0;
 	}
 	
 	public static double test_pdf(double[] args) {
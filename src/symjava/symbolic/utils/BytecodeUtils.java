@@ -1,13 +1,16 @@
 package symjava.symbolic.utils;
 
-import static com.sun.org.apache.bcel.internal.Constants.*;
+import static org.apache.bcel.Const.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import symjava.bytecode.BytecodeFunc;
@@ -29,12 +32,14 @@ import symjava.relational.Relation;
 import symjava.symbolic.Add;
 import symjava.symbolic.Cos;
 import symjava.symbolic.Divide;
+import symjava.symbolic.Exp;
 import symjava.symbolic.Expr;
 import symjava.symbolic.Func;
 import symjava.symbolic.Infinity;
 import symjava.symbolic.Integrate;
 import symjava.symbolic.Log;
 import symjava.symbolic.Multiply;
+import symjava.symbolic.MultiplyAdd;
 import symjava.symbolic.Negate;
 import symjava.symbolic.Pow;
 import symjava.symbolic.Reciprocal;
@@ -51,97 +56,239 @@ import symjava.symbolic.arity.NaryOp;
 import symjava.symbolic.arity.TernaryOp;
 import symjava.symbolic.arity.UnaryOp;
 
-import com.sun.org.apache.bcel.internal.Constants;
-import com.sun.org.apache.bcel.internal.generic.AALOAD;
-import com.sun.org.apache.bcel.internal.generic.AASTORE;
-import com.sun.org.apache.bcel.internal.generic.ALOAD;
-import com.sun.org.apache.bcel.internal.generic.ANEWARRAY;
-import com.sun.org.apache.bcel.internal.generic.ARRAYLENGTH;
-import com.sun.org.apache.bcel.internal.generic.ASTORE;
-import com.sun.org.apache.bcel.internal.generic.ArrayType;
-import com.sun.org.apache.bcel.internal.generic.ClassGen;
-import com.sun.org.apache.bcel.internal.generic.ConstantPoolGen;
-import com.sun.org.apache.bcel.internal.generic.DADD;
-import com.sun.org.apache.bcel.internal.generic.DALOAD;
-import com.sun.org.apache.bcel.internal.generic.DASTORE;
-import com.sun.org.apache.bcel.internal.generic.DCMPL;
-import com.sun.org.apache.bcel.internal.generic.DDIV;
-import com.sun.org.apache.bcel.internal.generic.DLOAD;
-import com.sun.org.apache.bcel.internal.generic.DMUL;
-import com.sun.org.apache.bcel.internal.generic.DSTORE;
-import com.sun.org.apache.bcel.internal.generic.DSUB;
-import com.sun.org.apache.bcel.internal.generic.GOTO;
-import com.sun.org.apache.bcel.internal.generic.I2D;
-import com.sun.org.apache.bcel.internal.generic.IAND;
-import com.sun.org.apache.bcel.internal.generic.ICONST;
-import com.sun.org.apache.bcel.internal.generic.IFEQ;
-import com.sun.org.apache.bcel.internal.generic.IFGE;
-import com.sun.org.apache.bcel.internal.generic.IFGT;
-import com.sun.org.apache.bcel.internal.generic.IFLE;
-import com.sun.org.apache.bcel.internal.generic.IFLT;
-import com.sun.org.apache.bcel.internal.generic.IFNE;
-import com.sun.org.apache.bcel.internal.generic.IF_ICMPLT;
-import com.sun.org.apache.bcel.internal.generic.IINC;
-import com.sun.org.apache.bcel.internal.generic.ILOAD;
-import com.sun.org.apache.bcel.internal.generic.IOR;
-import com.sun.org.apache.bcel.internal.generic.ISTORE;
-import com.sun.org.apache.bcel.internal.generic.IXOR;
-import com.sun.org.apache.bcel.internal.generic.Instruction;
-import com.sun.org.apache.bcel.internal.generic.InstructionConstants;
-import com.sun.org.apache.bcel.internal.generic.InstructionFactory;
-import com.sun.org.apache.bcel.internal.generic.InstructionHandle;
-import com.sun.org.apache.bcel.internal.generic.InstructionList;
-import com.sun.org.apache.bcel.internal.generic.LocalVariableGen;
-import com.sun.org.apache.bcel.internal.generic.MethodGen;
-import com.sun.org.apache.bcel.internal.generic.NEWARRAY;
-import com.sun.org.apache.bcel.internal.generic.NOP;
-import com.sun.org.apache.bcel.internal.generic.POP2;
-import com.sun.org.apache.bcel.internal.generic.PUSH;
-import com.sun.org.apache.bcel.internal.generic.SASTORE;
-import com.sun.org.apache.bcel.internal.generic.Type;
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.AALOAD;
+import org.apache.bcel.generic.AASTORE;
+import org.apache.bcel.generic.ALOAD;
+import org.apache.bcel.generic.ANEWARRAY;
+import org.apache.bcel.generic.ASTORE;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.DADD;
+import org.apache.bcel.generic.DALOAD;
+import org.apache.bcel.generic.DASTORE;
+import org.apache.bcel.generic.DCMPL;
+import org.apache.bcel.generic.DDIV;
+import org.apache.bcel.generic.DLOAD;
+import org.apache.bcel.generic.DMUL;
+import org.apache.bcel.generic.DSTORE;
+import org.apache.bcel.generic.DSUB;
+import org.apache.bcel.generic.DUP;
+import org.apache.bcel.generic.DUP2;
+import org.apache.bcel.generic.FieldGen;
+import org.apache.bcel.generic.GOTO;
+import org.apache.bcel.generic.I2D;
+import org.apache.bcel.generic.IADD;
+import org.apache.bcel.generic.IAND;
+import org.apache.bcel.generic.IFEQ;
+import org.apache.bcel.generic.IFGE;
+import org.apache.bcel.generic.IFGT;
+import org.apache.bcel.generic.IFLE;
+import org.apache.bcel.generic.IFLT;
+import org.apache.bcel.generic.IFNE;
+import org.apache.bcel.generic.IF_ICMPLE;
+import org.apache.bcel.generic.IF_ICMPLT;
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.ILOAD;
+import org.apache.bcel.generic.IOR;
+import org.apache.bcel.generic.ISTORE;
+import org.apache.bcel.generic.ISUB;
+import org.apache.bcel.generic.IXOR;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LocalVariableGen;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.NEWARRAY;
+import org.apache.bcel.generic.NOP;
+import org.apache.bcel.generic.ObjectType;
+import org.apache.bcel.generic.POP2;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.SASTORE;
+import org.apache.bcel.generic.Type;
 
 public class BytecodeUtils {
+	/**
+	 * Version of the generated bytecode. Increase it whenever the generated
+	 * code changes so that classes stored by ClassCache are not reused.
+	 */
+	public static final int CODEGEN_VERSION = 8;
+
+	/**
+	 * The maximum size of the bytecode of a method allowed by the JVM
+	 */
+	public static final int MAX_METHOD_SIZE = 65535;
+	
+	/**
+	 * Methods larger than this are not compiled by the HotSpot JIT compiler
+	 */
+	public static final int HUGE_METHOD_LIMIT = 8000;
+	
+	static final ObjectType FUNC_TYPE = new ObjectType("symjava.bytecode.BytecodeFunc");
+	
+	static final String DOUBLE_VECTOR = "jdk.incubator.vector.DoubleVector";
+	static final ObjectType DOUBLE_VECTOR_TYPE = new ObjectType(DOUBLE_VECTOR);
+	static final ObjectType VECTOR_TYPE = new ObjectType("jdk.incubator.vector.Vector");
+	static final ObjectType SPECIES_TYPE = new ObjectType("jdk.incubator.vector.VectorSpecies");
+	
+	/**
+	 * A ConstantPoolGen which finds the index of a double or float constant 
+	 * with a hash lookup. ConstantPoolGen.lookupDouble() scans the whole pool, 
+	 * which makes the emission of a large expression with many distinct 
+	 * constants quadratic in the number of constants.
+	 */
+	static class ConstPoolGen extends ConstantPoolGen {
+		Map<Long, Integer> doubles = new HashMap<Long, Integer>();
+		Map<Integer, Integer> floats = new HashMap<Integer, Integer>();
+		
+		@Override
+		public int lookupDouble(double n) {
+			Integer idx = doubles.get(Double.doubleToLongBits(n));
+			return idx == null ? -1 : idx;
+		}
+		
+		@Override
+		public int addDouble(double n) {
+			int idx = super.addDouble(n);
+			doubles.put(Double.doubleToLongBits(n), idx);
+			return idx;
+		}
+		
+		@Override
+		public int lookupFloat(float n) {
+			Integer idx = floats.get(Float.floatToIntBits(n));
+			return idx == null ? -1 : idx;
+		}
+		
+		@Override
+		public int addFloat(float n) {
+			int idx = super.addFloat(n);
+			floats.put(Float.floatToIntBits(n), idx);
+			return idx;
+		}
+	}
+	
+	/**
+	 * Create a ClassGen of a generated class which uses a ConstPoolGen
+	 */
+	static ClassGen newClassGen(String className, String interfaceName) {
+		return new ClassGen(className, "java.lang.Object", "<generated>", 
+				ACC_PUBLIC | ACC_SUPER, new String[]{interfaceName}, new ConstPoolGen());
+	}
+	
+	/**
+	 * A ClassGen which keeps the functions called by the generated class, e.g. 
+	 * the integrands of integrals. Each of them is held by a public static field 
+	 * of the class, the fields are set when the class is defined by FuncLoader, 
+	 * so the functions live as long as the class.
+	 */
+	static class FuncClassGen extends ClassGen {
+		Map<String, BytecodeFunc> funcFields = new LinkedHashMap<String, BytecodeFunc>();
+		
+		FuncClassGen(String className, String interfaceName) {
+			super(className, "java.lang.Object", "<generated>", ACC_PUBLIC | ACC_SUPER, new String[]{interfaceName}, 
+					new ConstPoolGen());
+		}
+	}
+	
+	/**
+	 * An InstructionFactory of a FuncClassGen
+	 */
+	static class FuncFactory extends InstructionFactory {
+		FuncClassGen funcClass;
+		
+		FuncFactory(FuncClassGen cg) {
+			super(cg);
+			this.funcClass = cg;
+		}
+		
+		/**
+		 * Store func in the static field name of the generated class and 
+		 * push the value of the field onto the operand stack
+		 */
+		void pushFunc(InstructionList il, String name, BytecodeFunc func) {
+			if(!funcClass.funcFields.containsKey(name)) {
+				funcClass.addField(new FieldGen(ACC_PUBLIC | ACC_STATIC, FUNC_TYPE, name, 
+						funcClass.getConstantPool()).getField());
+				funcClass.funcFields.put(name, func);
+			}
+			il.append(createGetStatic(funcClass.getClassName(), name, FUNC_TYPE));
+		}
+	}
+	
 	public static void post_order(Expr e, List<Expr> outList) {
+		e = getEmitExpr(e);
 		if(e == null) return;
-		if(e instanceof BinaryOp) {
+		for(Expr arg : getOperands(e))
+			post_order(arg, outList);
+		outList.add(e);
+	}
+	
+	/**
+	 * A non-abstract Func and a Dot are not evaluated by themselves, 
+	 * return the expression which is evaluated for them
+	 * 
+	 * @param e
+	 * @return
+	 */
+	public static Expr getEmitExpr(Expr e) {
+		while(e != null) {
+			if(e instanceof Dot) {
+				e = ((Dot)e).getExpr();
+			} else if(e instanceof Func && !e.isAbstract()) {
+				e = ((Func)e).getExpr();
+			} else {
+				break;
+			}
+		}
+		return e;
+	}
+	
+	/**
+	 * Return the operands of e in the order they are pushed onto the 
+	 * operand stack before the instruction(s) of e
+	 * 
+	 * @param e
+	 * @return
+	 */
+	public static Expr[] getOperands(Expr e) {
+		if(e instanceof Exp) {
+			//Math.exp(x) instead of Math.pow(e, x)
+			return new Expr[] { ((Exp)e).arg2 };
+		} else if(e instanceof BinaryOp) {
 			BinaryOp be = (BinaryOp)e; 
-			post_order(be.arg1, outList);
-			post_order(be.arg2, outList);
+			return new Expr[] { be.arg1, be.arg2 };
 		} else if(e instanceof Reciprocal) {
 			Reciprocal ue = (Reciprocal)e;
-			outList.add(Symbol.C1);
-			post_order(ue.arg, outList);
+			return new Expr[] { Symbol.C1, ue.arg };
 		} else if(e instanceof UnaryOp) {
 			UnaryOp ue = (UnaryOp)e; 
-			post_order(ue.arg, outList);
+			return new Expr[] { ue.arg };
 		} else if(e instanceof Sum) {
 			Sum se = (Sum)e;
+			List<Expr> list = new ArrayList<Expr>();
 			for(int i=se.start; i<=se.end; i++)
-				post_order(se.getSummand(i), outList);
-		} else if(e instanceof Dot) {
-			Dot de = (Dot)e;
-			post_order(de.getExpr(), outList);
-			return;
+				list.add(se.getSummand(i));
+			return list.toArray(new Expr[0]);
 		} else if(e instanceof Func) {
-			Func f = (Func)e;
-			if(!f.isAbstract()) {
-				post_order(f.getExpr(), outList);
-				return;
-			}
+			//Abstract function
+			return new Expr[0];
 		} else if(e instanceof Integrate) {
 			Integrate INT = (Integrate)e;
 			if(INT.domain instanceof Interval) {
 				Interval I = (Interval)INT.domain;
-				post_order(I.getStart(), outList);
-				post_order(I.getEnd(), outList);
 				//Integrand will not be added to the outList since we don't want the dummy variable to be exposed
 				//outList.add(new Func("integrand"+java.util.UUID.randomUUID().toString().replaceAll("-", ""),INT.integrand));
+				return new Expr[] { I.getStart(), I.getEnd() };
 			} else if(INT.domain instanceof Domain2D) {
 				if(INT.isMultipleIntegral()) {
 					Expr[] coord = INT.domain.getCoordVars();
 					Expr lastVar = coord[coord.length-1];
-					post_order(INT.domain.getMinBound(lastVar), outList);
-					post_order(INT.domain.getMaxBound(lastVar), outList);
+					return new Expr[] { INT.domain.getMinBound(lastVar), INT.domain.getMaxBound(lastVar) };
 				} else {
 					//Monte Carlo integration on 2D domain
 					
@@ -151,11 +298,9 @@ public class BytecodeUtils {
 				
 			}
 		} else if(e instanceof NaryOp || e instanceof TernaryOp) {
-			Expr[] args = e.args();
-			for(int i=0; i<args.length; i++)
-				post_order(args[i], outList);
+			return e.args();
 		}
-		outList.add(e);
+		return new Expr[0];
 	}
 	
 	public static Expr[] extractArguments(Func func) {
@@ -188,14 +333,21 @@ public class BytecodeUtils {
 	}
 	
 	public static ClassGen genClassBytecodeFunc(Func fun, boolean writeClassFile, boolean staticMethod) {
+		JITOptions options = JITOptions.fromFlags(writeClassFile, staticMethod);
+		ClassGen cg = genClassBytecodeFunc(fun, options);
+		options.dump(BcelBackend.toGeneratedClass(cg));
+		return cg;
+	}
+	
+	public static ClassGen genClassBytecodeFunc(Func fun, JITOptions options) {
+		boolean staticMethod = options.isStaticMethod();
 		String packageName = "symjava.bytecode";
 		String clsName = fun.getName();
 		String fullClsName = packageName+"."+clsName;
-		ClassGen cg = new ClassGen(fullClsName, "java.lang.Object",
-				"<generated>", ACC_PUBLIC | ACC_SUPER, new String[]{"symjava.bytecode.BytecodeFunc"});
+		FuncClassGen cg = new FuncClassGen(fullClsName, "symjava.bytecode.BytecodeFunc");
 		ConstantPoolGen cp = cg.getConstantPool(); // cg creates constant pool
 		InstructionList il = new InstructionList();
-		InstructionFactory factory = new InstructionFactory(cg);
+		InstructionFactory factory = new FuncFactory(cg);
 		
 		short acc_flags = ACC_PUBLIC;
 		if(staticMethod)
@@ -229,7 +381,8 @@ public class BytecodeUtils {
 		} else {
 			fExprArgs = fun.args;
 		}
-		System.out.println(fun.getLabel()+": "+fun.getExpr());
+		if(options.isDebug())
+			System.out.println(fun.getLabel()+": "+fun.getExpr());
 		//System.out.println(Utils.joinLabels(fExprArgs, ","));
 		
 		HashMap<Expr, Integer> argsMap = new HashMap<Expr, Integer>();
@@ -239,46 +392,64 @@ public class BytecodeUtils {
 		int argsIndex = 1;
 		if(staticMethod)
 			argsIndex = 0;
-		addToInstructionList(mg, cp, factory, il, argsIndex, fun.getExpr(), fun.args, argsMap);
+		addToInstructionList(mg, cp, factory, il, argsIndex, CodegenRewriter.rewrite(fun.getExpr(), options), fun.args, argsMap);
 
-		il.append(InstructionConstants.DRETURN);
+		il.append(InstructionConst.DRETURN);
 		
 		mg.setMaxStack();
 		cg.addMethod(mg.getMethod());
 		il.dispose(); // Allow instruction handles to be reused
 		
 		cg.addEmptyConstructor(ACC_PUBLIC);
-		if(writeClassFile) {
-			try {
-				cg.getJavaClass().dump("bin/symjava/bytecode/"+clsName+".class");
-			} catch (java.io.IOException e) {
-				System.err.println(e);
-			}
-		}
 		return cg;
 	}
 	
+	/**
+	 * Generate a class implementing BytecodeVecFunc. Outputs are split into
+	 * private static methods apply0, apply1, ... each of them smaller than
+	 * HUGE_METHOD_LIMIT bytes, which are called from apply(). All the
+	 * outputs are compiled into apply() directly if they fit in one method.
+	 * 
+	 * @param className
+	 * @param exprs
+	 * @param outPos
+	 * @param args
+	 * @param writeClassFile
+	 * @param staticMethod
+	 * @return
+	 */
 	public static ClassGen genClassBytecodeVecFunc(String className, List<Expr> exprs, List<Integer> outPos, Expr[] args, 
 			boolean writeClassFile, boolean staticMethod) {
+		JITOptions options = JITOptions.fromFlags(writeClassFile, staticMethod);
+		ClassGen cg = genClassBytecodeVecFunc(className, exprs, outPos, args, options);
+		options.dump(BcelBackend.toGeneratedClass(cg));
+		return cg;
+	}
+	
+	public static ClassGen genClassBytecodeVecFunc(String className, List<Expr> exprs, List<Integer> outPos, Expr[] args, 
+			JITOptions options) {
+		boolean staticMethod = options.isStaticMethod();
+		exprs = CodegenRewriter.rewrite(exprs, options);
 		String packageName = "symjava.bytecode";
 		String fullClsName = packageName+"."+className;
-		ClassGen cg = new ClassGen(fullClsName, "java.lang.Object",
-				"<generated>", ACC_PUBLIC | ACC_SUPER, new String[]{"symjava.bytecode.BytecodeVecFunc"});
+		FuncClassGen cg = new FuncClassGen(fullClsName, "symjava.bytecode.BytecodeVecFunc");
 		ConstantPoolGen cp = cg.getConstantPool(); // cg creates constant pool
 		InstructionList il = new InstructionList();
-		InstructionFactory factory = new InstructionFactory(cg);
+		InstructionFactory factory = new FuncFactory(cg);
 		
 		short acc_flags = ACC_PUBLIC;
 		if(staticMethod)
 			acc_flags |= ACC_STATIC;
+		Type[] argTypes = new Type[] { // argument types
+				new ArrayType(Type.DOUBLE, 1),
+				Type.INT,
+				new ArrayType(Type.DOUBLE, 1) 
+			};
+		String[] argNames = new String[] { "outAry", "outPos", "args" }; // arg names
 		MethodGen mg = new MethodGen(acc_flags, // access flags
 				Type.VOID, // return type
-				new Type[] { // argument types
-					new ArrayType(Type.DOUBLE, 1),
-					Type.INT,
-					new ArrayType(Type.DOUBLE, 1) 
-				},
-				new String[] { "outAry", "outPos", "args" }, // arg names
+				argTypes,
+				argNames,
 				"apply", fullClsName, // method, class
 				il, cp);
 		
@@ -287,44 +458,721 @@ public class BytecodeUtils {
 			argsMap.put(args[i], i);
 		}
 
-//		LocalVariableGen lg;
-//		lg = mg.addLocalVariable("retArray",
-//				new ArrayType(Type.DOUBLE, 1), null, null);
-//		int retArray = lg.getIndex();
-//		il.append(InstructionConstants.ACONST_NULL);
-//		il.append(new PUSH(cp, exprs.length));
-//		il.append(new NEWARRAY(Type.DOUBLE));
-//		il.append(new ASTORE(retArray));
+		//ALOAD, PUSH, DASTORE for each output
+		List<List<Integer>> chunks = splitOutputs(exprs, 5);
+		
+		int outAryIndex = staticMethod ? 0 : 1;
+		if(chunks.size() == 1) {
+			addVecFuncOutputs(mg, cp, factory, il, outAryIndex, outAryIndex+2, exprs, outPos, chunks.get(0), 
+					args, argsMap, Collections.<Expr, Integer>emptyMap());
+		} else {
+			//The subexpressions used by several chunks are computed once by the first 
+			//methods, which store them in the array 'shared' passed to all the methods
+			List<Expr> shared = getCrossChunkSubExprs(exprs, chunks);
+			List<Integer> sharedPos = new ArrayList<Integer>();
+			for(int i=0; i<shared.size(); i++)
+				sharedPos.add(i);
+			Type[] chunkArgTypes = new Type[] {
+					new ArrayType(Type.DOUBLE, 1),
+					Type.INT,
+					new ArrayType(Type.DOUBLE, 1),
+					new ArrayType(Type.DOUBLE, 1)
+				};
+			String[] chunkArgNames = new String[] { "outAry", "outPos", "args", "shared" };
+			LocalVariableGen lg = mg.addLocalVariable("shared", new ArrayType(Type.DOUBLE, 1), null, null);
+			if(shared.size() > 0) {
+				il.append(new PUSH(cp, shared.size()));
+				il.append(new NEWARRAY(Type.DOUBLE));
+			} else {
+				il.append(InstructionConst.ACONST_NULL);
+			}
+			il.append(new ASTORE(lg.getIndex()));
+			
+			List<List<Integer>> sharedChunks = shared.size() > 0 ? 
+					splitOutputs(shared, 5) : new ArrayList<List<Integer>>();
+			Map<Expr, Integer> hoisted = new HashMap<Expr, Integer>();
+			for(int k=0; k<sharedChunks.size() + chunks.size(); k++) {
+				InstructionList ilChunk = new InstructionList();
+				MethodGen mgChunk = new MethodGen(ACC_PRIVATE | ACC_STATIC,
+						Type.VOID, chunkArgTypes, chunkArgNames,
+						"apply"+k, fullClsName,
+						ilChunk, cp);
+				if(k < sharedChunks.size()) {
+					//shared[i] = shared.get(i), the ones of the previous methods are loaded from the array
+					List<Integer> chunk = sharedChunks.get(k);
+					addVecFuncOutputs(mgChunk, cp, factory, ilChunk, 3, 2, shared, sharedPos, chunk, 
+							args, argsMap, new HashMap<Expr, Integer>(hoisted));
+					for(int i : chunk)
+						hoisted.put(shared.get(i), i);
+				} else {
+					addVecFuncOutputs(mgChunk, cp, factory, ilChunk, 0, 2, exprs, outPos, chunks.get(k - sharedChunks.size()), 
+							args, argsMap, hoisted);
+				}
+				ilChunk.append(InstructionConst.RETURN);
+				mgChunk.setMaxStack();
+				cg.addMethod(checkMethodSize(mgChunk.getMethod(), className));
+				ilChunk.dispose();
+				
+				//apply(): applyk(outAry, outPos, args, shared)
+				il.append(new ALOAD(outAryIndex));
+				il.append(new ILOAD(outAryIndex+1));
+				il.append(new ALOAD(outAryIndex+2));
+				il.append(new ALOAD(lg.getIndex()));
+				il.append(factory.createInvoke(fullClsName, "apply"+k,
+						Type.VOID, chunkArgTypes, Const.INVOKESTATIC));
+			}
+		}
+		il.append(InstructionConst.RETURN);
+		
+		mg.setMaxStack();
+		cg.addMethod(checkMethodSize(mg.getMethod(), className));
+		il.dispose(); // Allow instruction handles to be reused
+		
+		cg.addEmptyConstructor(ACC_PUBLIC);
+		return cg;
+	}
+	
+	/**
+	 * Split the non-zero outputs into chunks by the estimated size of their 
+	 * bytecode, each chunk is compiled into a method smaller than HUGE_METHOD_LIMIT
+	 * 
+	 * @param exprs
+	 * @param storeSize size of the instructions storing an output
+	 * @return indices of exprs in each chunk
+	 */
+	static List<List<Integer>> splitOutputs(List<Expr> exprs, int storeSize) {
+		List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+		List<Integer> chunk = new ArrayList<Integer>();
+		int chunkSize = 0;
 		for(int i=0; i<exprs.size(); i++) {
-			if(!Utils.symCompare(Symbol.C0, exprs[i])) {
-				il.append(new ALOAD(1));
-				il.append(new PUSH(cp,outPos.get(i)));
-				addToInstructionList(mg, cp, factory, il, 3, exprs.get(i), args, argsMap);
-				il.append(new DASTORE());
+			if(Utils.symCompare(Symbol.C0, exprs.get(i)))
+				continue;
+			int size = estimateCodeSize(exprs.get(i)) + storeSize;
+			if(chunk.size() > 0 && chunkSize + size > HUGE_METHOD_LIMIT) {
+				chunks.add(chunk);
+				chunk = new ArrayList<Integer>();
+				chunkSize = 0;
 			}
+			chunk.add(i);
+			chunkSize += size;
+		}
+		chunks.add(chunk);
+		return chunks;
+	}
+	
+	/**
+	 * Generate a class implementing BytecodeBatchVecFunc:
+	 * <pre>
+	 * public void apply(double[][] outAry, int start, int end, double[][] args) {
+	 *     for(int i=start; i&lt;end; i++) {
+	 *         outAry[outPos.get(0)][i] = exprs.get(0) at args[*][i];
+	 *         ...
+	 *     }
+	 * }
+	 * </pre>
+	 * Large outputs are split into private static methods apply0, apply1, ... 
+	 * like genClassBytecodeVecFunc(), each of them has its own loop.
+	 * 
+	 * @param className
+	 * @param exprs
+	 * @param outPos
+	 * @param args
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static ClassGen genClassBytecodeBatchVecFunc(String className, List<Expr> exprs, List<Integer> outPos, Expr[] args, 
+			JITOptions options) {
+		exprs = CodegenRewriter.rewrite(exprs, options);
+		String packageName = "symjava.bytecode";
+		String fullClsName = packageName+"."+className;
+		ClassGen cg = newClassGen(fullClsName, "symjava.bytecode.BytecodeBatchVecFunc");
+		ConstantPoolGen cp = cg.getConstantPool(); // cg creates constant pool
+		InstructionList il = new InstructionList();
+		InstructionFactory factory = new InstructionFactory(cg);
+		
+		Type[] argTypes = new Type[] { // argument types
+				new ArrayType(Type.DOUBLE, 2),
+				Type.INT,
+				Type.INT,
+				new ArrayType(Type.DOUBLE, 2) 
+			};
+		String[] argNames = new String[] { "outAry", "start", "end", "args" }; // arg names
+		MethodGen mg = new MethodGen(ACC_PUBLIC, // access flags
+				Type.VOID, // return type
+				argTypes,
+				argNames,
+				"apply", fullClsName, // method, class
+				il, cp);
+		
+		HashMap<Expr, Integer> argsMap = new HashMap<Expr, Integer>();
+		for(int i=0; i<args.length; i++) {
+			argsMap.put(args[i], i);
 		}
-//		il.append(new ALOAD(retArray));
-//		il.append(InstructionConstants.ARETURN);
-		il.append(InstructionConstants.RETURN);
 		
+		//ALOAD, PUSH, AALOAD, ILOAD, DASTORE for each output
+		List<List<Integer>> chunks = splitOutputs(exprs, 7);
+		if(chunks.size() == 1) {
+			addBatchVecFuncLoop(mg, cp, factory, il, 1, exprs, outPos, chunks.get(0), args, argsMap, options);
+		} else {
+			for(int k=0; k<chunks.size(); k++) {
+				InstructionList ilChunk = new InstructionList();
+				MethodGen mgChunk = new MethodGen(ACC_PRIVATE | ACC_STATIC,
+						Type.VOID, argTypes, argNames,
+						"apply"+k, fullClsName,
+						ilChunk, cp);
+				addBatchVecFuncLoop(mgChunk, cp, factory, ilChunk, 0, exprs, outPos, chunks.get(k), args, argsMap, options);
+				ilChunk.append(InstructionConst.RETURN);
+				mgChunk.setMaxStack();
+				cg.addMethod(checkMethodSize(mgChunk.getMethod(), className));
+				ilChunk.dispose();
+				
+				//apply(): applyk(outAry, start, end, args)
+				il.append(new ALOAD(1));
+				il.append(new ILOAD(2));
+				il.append(new ILOAD(3));
+				il.append(new ALOAD(4));
+				il.append(factory.createInvoke(fullClsName, "apply"+k,
+						Type.VOID, argTypes, Const.INVOKESTATIC));
+			}
+		}
+		il.append(InstructionConst.RETURN);
 		
 		mg.setMaxStack();
-		cg.addMethod(mg.getMethod());
+		cg.addMethod(checkMethodSize(mg.getMethod(), className));
 		il.dispose(); // Allow instruction handles to be reused
 		
 		cg.addEmptyConstructor(ACC_PUBLIC);
-		if(writeClassFile) {
-			try {
-				cg.getJavaClass().dump("bin/symjava/bytecode/"+className+".class");
-			} catch (java.io.IOException e) {
-				System.err.println(e);
+		return cg;
+	}
+	
+	/**
+	 * for(int i=start; i&lt;end; i++) outAry[outPos.get(k)][i] = exprs.get(k) for k in indices
+	 * 
+	 * @param outAryIndex index of the first parameter outAry, the others are start, end and args
+	 */
+	private static void addBatchVecFuncLoop(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int outAryIndex, List<Expr> exprs, List<Integer> outPos, List<Integer> indices, 
+			Expr[] args, HashMap<Expr, Integer> argsMap, JITOptions options) {
+		int argsIndex = outAryIndex + 3;
+		//int i = start;
+		LocalVariableGen lg = mg.addLocalVariable("i", Type.INT, null, null);
+		int idxI = lg.getIndex();
+		il.append(new ILOAD(outAryIndex+1));
+		lg.setStart(il.append(new ISTORE(idxI))); // "i" valid from here
+		
+		//for(; i<=end-lanes; i+=lanes) the points i, ..., i+lanes-1 lane by lane
+		int lanes = options.getLanes();
+		List<Expr> chunk = new ArrayList<Expr>();
+		for(int k : indices) {
+			chunk.add(exprs.get(k));
+		}
+		if(isVectorLoop(chunk, options)) {
+			//for(; i<=end-length; i+=length) the points i, ..., i+length-1 by the Vector API
+			CommonSubExprs vectorCse = new CommonSubExprs();
+			for(Expr e : chunk) {
+				vectorCse.add(e);
 			}
+			int[] species = addVectorSpecies(mg, factory, il);
+			InstructionHandle vectorStart = il.append(new NOP());
+			Map<Integer, Integer> values = addVectorBlock(mg, cp, factory, il, argsIndex, idxI, species[0], chunk, args, argsMap, vectorCse);
+			for(int k : indices) {
+				loadVector(mg, cp, factory, il, argsIndex, species[0], exprs.get(k), args, argsMap, vectorCse, values);
+				il.append(new ALOAD(outAryIndex));
+				il.append(new PUSH(cp, outPos.get(k)));
+				il.append(new AALOAD());
+				il.append(new ILOAD(idxI));
+				storeVector(factory, il); //into outAry[outPos], i
+			}
+			addVectorLoopEnd(il, idxI, outAryIndex+2, species[1], vectorStart);
+		} else if(isLaneLoop(chunk, lanes)) {
+			CommonSubExprs laneCse = new CommonSubExprs();
+			for(Expr e : chunk) {
+				laneCse.add(e);
+			}
+			InstructionHandle laneStart = il.append(new NOP());
+			Map<Integer, int[]> values = addLaneBlock(mg, cp, factory, il, argsIndex, idxI, lanes, chunk, args, argsMap, laneCse);
+			for(int k : indices) {
+				for(int l=0; l<lanes; l++) {
+					il.append(new ALOAD(outAryIndex));
+					il.append(new PUSH(cp, outPos.get(k)));
+					il.append(new AALOAD());
+					il.append(new ILOAD(idxI));
+					il.append(new PUSH(cp, l));
+					il.append(new IADD()); //outAry[outPos][i+l]
+					loadLane(mg, cp, factory, il, argsIndex, exprs.get(k), args, argsMap, laneCse, values, l);
+					il.append(new DASTORE());
+				}
+			}
+			addLaneLoopEnd(cp, il, idxI, outAryIndex+2, lanes, laneStart);
 		}
-		return cg;
+		
+		//Loop body:
+		CommonSubExprs cse = new CommonSubExprs();
+		for(int k : indices) {
+			cse.add(exprs.get(k));
+		}
+		InstructionHandle loopStart = il.append(new NOP());
+		addArgLocals(mg, cp, il, argsIndex, idxI, argsMap, cse);
+		for(int k : indices) {
+			il.append(new ALOAD(outAryIndex));
+			il.append(new PUSH(cp, outPos.get(k)));
+			il.append(new AALOAD());
+			il.append(new ILOAD(idxI)); //outAry[outPos][i]
+			addToInstructionList(mg, cp, factory, il, argsIndex, idxI, exprs.get(k), args, argsMap, cse);
+			il.append(new DASTORE());
+		}
+		
+		//i++
+		il.append(new IINC(idxI, 1));
+		
+		//Compare: i < end
+		InstructionHandle loopCmp = il.append(new ILOAD(idxI));
+		il.append(new ILOAD(outAryIndex+2));
+		il.append(new IF_ICMPLT(loopStart));
+		
+		il.insert(loopStart, new GOTO(loopCmp));
 	}
 	
+	/**
+	 * Return true if the lane loop of addLaneBlock() is generated for exprs:
+	 * all of them are arithmetic expressions and the lane loop is small enough
+	 * to be compiled by the JIT compiler
+	 * 
+	 * @param exprs
+	 * @param lanes
+	 * @return
+	 */
+	static boolean isLaneLoop(List<Expr> exprs, int lanes) {
+		if(lanes <= 1)
+			return false;
+		int size = 0;
+		for(Expr e : exprs) {
+			if(!isLaneWise(e))
+				return false;
+			size += estimateCodeSize(e);
+		}
+		//DLOAD the operands and DSTORE the value of each operation in each lane
+		return 3*lanes*size < HUGE_METHOD_LIMIT;
+	}
+	
+	private static boolean isLaneWise(Expr e) {
+		e = getEmitExpr(e);
+		if(e == null)
+			return false;
+		if(!(e instanceof Symbol || e instanceof SymReal<?> || e instanceof SymConst || 
+				e instanceof Add || e instanceof Subtract || e instanceof Multiply || 
+				e instanceof Divide || e instanceof Reciprocal || e instanceof Negate || 
+				e instanceof MultiplyAdd))
+			return false;
+		for(Expr arg : getOperands(e)) {
+			if(!isLaneWise(arg))
+				return false;
+		}
+		return true;
+	}
 	
 	/**
+	 * Evaluate exprs at the points i, i+1, ..., i+lanes-1. Each distinct
+	 * subexpression is computed for all the lanes one after another and 
+	 * the values are stored in local variables. The isomorphic operations
+	 * on adjacent array elements are packed into SIMD instructions by the 
+	 * superword optimization of the C2 compiler. 
+	 * 
+	 * @param argsIndex index of double[][] args
+	 * @param idxI index of the loop variable
+	 * @param lanes
+	 * @param exprs arithmetic expressions, see isLaneLoop()
+	 * @param cse exprs must have been added to it
+	 * @return the local variables of each value number, see loadLane()
+	 */
+	private static Map<Integer, int[]> addLaneBlock(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int argsIndex, int idxI, int lanes, List<Expr> exprs, Expr[] args, HashMap<Expr, Integer> argsMap, CommonSubExprs cse) {
+		Map<Integer, int[]> values = new HashMap<Integer, int[]>();
+		for(Expr e : exprs)
+			addLaneExpr(mg, cp, factory, il, argsIndex, idxI, lanes, getEmitExpr(e), e, args, argsMap, cse, values);
+		return values;
+	}
+	
+	private static void addLaneExpr(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int argsIndex, int idxI, int lanes, Expr ins, Expr expr, Expr[] args, HashMap<Expr, Integer> argsMap, 
+			CommonSubExprs cse, Map<Integer, int[]> values) {
+		//Constants are pushed where they are used
+		if(ins instanceof SymReal<?> || ins instanceof SymConst || values.containsKey(cse.getNumber(ins)))
+			return;
+		Expr[] operands = getOperands(ins);
+		for(Expr arg : operands)
+			addLaneExpr(mg, cp, factory, il, argsIndex, idxI, lanes, getEmitExpr(arg), expr, args, argsMap, cse, values);
+		int[] locals = new int[lanes];
+		for(int l=0; l<lanes; l++) {
+			if(ins instanceof Symbol) {
+				Integer argIdx = argsMap.get(ins);
+				if(argIdx == null) {
+					throw new IllegalArgumentException(ins+" is not in the argument list of "+expr.getLabel());
+				}
+				il.append(new ALOAD(argsIndex));
+				il.append(new PUSH(cp, argIdx));
+				il.append(new AALOAD());
+				il.append(new ILOAD(idxI));
+				il.append(new PUSH(cp, l));
+				il.append(new IADD());
+				il.append(new DALOAD()); //args[argIdx][i+l]
+			} else {
+				for(Expr arg : operands)
+					loadLane(mg, cp, factory, il, argsIndex, arg, args, argsMap, cse, values, l);
+				addOthers(mg, cp, factory, il, argsIndex, ins, args, argsMap);
+			}
+			LocalVariableGen lg = mg.addLocalVariable("lane"+cse.getNumber(ins)+"_"+l, Type.DOUBLE, null, null);
+			il.append(new DSTORE(lg.getIndex()));
+			locals[l] = lg.getIndex();
+		}
+		values.put(cse.getNumber(ins), locals);
+	}
+	
+	/**
+	 * Push the value of e in lane l computed by addLaneBlock()
+	 */
+	private static void loadLane(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int argsIndex, Expr e, Expr[] args, HashMap<Expr, Integer> argsMap, 
+			CommonSubExprs cse, Map<Integer, int[]> values, int l) {
+		e = getEmitExpr(e);
+		if(e instanceof SymReal<?> || e instanceof SymConst)
+			addOthers(mg, cp, factory, il, argsIndex, e, args, argsMap);
+		else
+			il.append(new DLOAD(values.get(cse.getNumber(e))[l]));
+	}
+	
+	/**
+	 * i += lanes; loop to laneStart while i &lt;= end-lanes
+	 */
+	private static void addLaneLoopEnd(ConstantPoolGen cp, InstructionList il, int idxI, int endIndex, int lanes, 
+			InstructionHandle laneStart) {
+		il.append(new IINC(idxI, lanes));
+		InstructionHandle laneCmp = il.append(new ILOAD(idxI));
+		il.append(new ILOAD(endIndex));
+		il.append(new PUSH(cp, lanes));
+		il.append(new ISUB());
+		il.append(new IF_ICMPLE(laneStart));
+		il.insert(laneStart, new GOTO(laneCmp));
+	}
+	
+	/**
+	 * Return true if the vector loop of addVectorBlock() is generated for exprs:
+	 * the Vector API is used, see JITOptions.useVectorApi(), all of them are 
+	 * arithmetic expressions and the loop is small enough to be compiled by
+	 * the JIT compiler
+	 * 
+	 * @param exprs
+	 * @param options
+	 * @return
+	 */
+	static boolean isVectorLoop(List<Expr> exprs, JITOptions options) {
+		if(!options.useVectorApi())
+			return false;
+		int size = 0;
+		for(Expr e : exprs) {
+			if(!isLaneWise(e))
+				return false;
+			size += estimateCodeSize(e);
+		}
+		//ALOAD the operands, INVOKEVIRTUAL and ASTORE the vector of each operation
+		return 8*size < HUGE_METHOD_LIMIT;
+	}
+	
+	/**
+	 * VectorSpecies species = DoubleVector.SPECIES_PREFERRED; 
+	 * int length = species.length();
+	 * 
+	 * @return the local variables of species and length
+	 */
+	private static int[] addVectorSpecies(MethodGen mg, InstructionFactory factory, InstructionList il) {
+		LocalVariableGen lgSpecies = mg.addLocalVariable("species", SPECIES_TYPE, null, null);
+		LocalVariableGen lgLength = mg.addLocalVariable("length", Type.INT, null, null);
+		il.append(factory.createGetStatic(DOUBLE_VECTOR, "SPECIES_PREFERRED", SPECIES_TYPE));
+		il.append(new DUP());
+		il.append(new ASTORE(lgSpecies.getIndex()));
+		il.append(factory.createInvoke(SPECIES_TYPE.getClassName(), "length",
+				Type.INT, Type.NO_ARGS, Const.INVOKEINTERFACE));
+		il.append(new ISTORE(lgLength.getIndex()));
+		return new int[] { lgSpecies.getIndex(), lgLength.getIndex() };
+	}
+	
+	/**
+	 * Evaluate exprs at the points i, i+1, ..., i+length-1 with the Vector API.
+	 * Each distinct subexpression is computed by one lane-wise operation of
+	 * DoubleVector and the vector is stored in a local variable. The lane-wise
+	 * operations round like the scalar ones, so the results are the same as
+	 * the scalar loop.
+	 * 
+	 * @param argsIndex index of double[][] args
+	 * @param idxI index of the loop variable
+	 * @param idxSpecies index of the VectorSpecies, see addVectorSpecies()
+	 * @param exprs arithmetic expressions, see isVectorLoop()
+	 * @param cse exprs must have been added to it
+	 * @return the local variable of each value number, see loadVector()
+	 */
+	private static Map<Integer, Integer> addVectorBlock(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int argsIndex, int idxI, int idxSpecies, List<Expr> exprs, Expr[] args, HashMap<Expr, Integer> argsMap, CommonSubExprs cse) {
+		Map<Integer, Integer> values = new HashMap<Integer, Integer>();
+		for(Expr e : exprs)
+			addVectorExpr(mg, cp, factory, il, argsIndex, idxI, idxSpecies, getEmitExpr(e), e, args, argsMap, cse, values);
+		return values;
+	}
+	
+	private static void addVectorExpr(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int argsIndex, int idxI, int idxSpecies, Expr ins, Expr expr, Expr[] args, HashMap<Expr, Integer> argsMap, 
+			CommonSubExprs cse, Map<Integer, Integer> values) {
+		//Constants are broadcast where they are used
+		if(ins instanceof SymReal<?> || ins instanceof SymConst || values.containsKey(cse.getNumber(ins)))
+			return;
+		Expr[] operands = getOperands(ins);
+		for(Expr arg : operands)
+			addVectorExpr(mg, cp, factory, il, argsIndex, idxI, idxSpecies, getEmitExpr(arg), expr, args, argsMap, cse, values);
+		if(ins instanceof Symbol) {
+			Integer argIdx = argsMap.get(ins);
+			if(argIdx == null) {
+				throw new IllegalArgumentException(ins+" is not in the argument list of "+expr.getLabel());
+			}
+			il.append(new ALOAD(idxSpecies));
+			il.append(new ALOAD(argsIndex));
+			il.append(new PUSH(cp, argIdx));
+			il.append(new AALOAD());
+			il.append(new ILOAD(idxI));
+			il.append(factory.createInvoke(DOUBLE_VECTOR, "fromArray", DOUBLE_VECTOR_TYPE, 
+					new Type[] { SPECIES_TYPE, new ArrayType(Type.DOUBLE, 1), Type.INT }, 
+					Const.INVOKESTATIC)); //DoubleVector.fromArray(species, args[argIdx], i)
+		} else {
+			for(Expr arg : operands)
+				loadVector(mg, cp, factory, il, argsIndex, idxSpecies, arg, args, argsMap, cse, values);
+			String op;
+			if(ins instanceof Add)
+				op = "add";
+			else if(ins instanceof Subtract)
+				op = "sub";
+			else if(ins instanceof Multiply)
+				op = "mul";
+			else if(ins instanceof Divide || ins instanceof Reciprocal)
+				op = "div";
+			else if(ins instanceof Negate)
+				op = "neg";
+			else
+				op = "fma"; //MultiplyAdd
+			Type[] opTypes = new Type[operands.length - 1];
+			Arrays.fill(opTypes, VECTOR_TYPE);
+			il.append(factory.createInvoke(DOUBLE_VECTOR, op, DOUBLE_VECTOR_TYPE, opTypes, Const.INVOKEVIRTUAL));
+		}
+		LocalVariableGen lg = mg.addLocalVariable("vector"+cse.getNumber(ins), DOUBLE_VECTOR_TYPE, null, null);
+		il.append(new ASTORE(lg.getIndex()));
+		values.put(cse.getNumber(ins), lg.getIndex());
+	}
+	
+	/**
+	 * Push the vector of e computed by addVectorBlock(), a constant is broadcast
+	 */
+	private static void loadVector(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int argsIndex, int idxSpecies, Expr e, Expr[] args, HashMap<Expr, Integer> argsMap, 
+			CommonSubExprs cse, Map<Integer, Integer> values) {
+		e = getEmitExpr(e);
+		if(e instanceof SymReal<?> || e instanceof SymConst) {
+			il.append(new ALOAD(idxSpecies));
+			addOthers(mg, cp, factory, il, argsIndex, e, args, argsMap);
+			il.append(factory.createInvoke(DOUBLE_VECTOR, "broadcast", DOUBLE_VECTOR_TYPE, 
+					new Type[] { SPECIES_TYPE, Type.DOUBLE }, Const.INVOKESTATIC));
+		} else {
+			il.append(new ALOAD(values.get(cse.getNumber(e))));
+		}
+	}
+	
+	/**
+	 * vector.intoArray(array, index), the vector is on the operand stack 
+	 * followed by the array and the index
+	 */
+	private static void storeVector(InstructionFactory factory, InstructionList il) {
+		il.append(factory.createInvoke(DOUBLE_VECTOR, "intoArray", Type.VOID, 
+				new Type[] { new ArrayType(Type.DOUBLE, 1), Type.INT }, Const.INVOKEVIRTUAL));
+	}
+	
+	/**
+	 * i += length; loop to vectorStart while i &lt;= end-length
+	 */
+	private static void addVectorLoopEnd(InstructionList il, int idxI, int endIndex, int idxLength, 
+			InstructionHandle vectorStart) {
+		il.append(new ILOAD(idxI));
+		il.append(new ILOAD(idxLength));
+		il.append(new IADD());
+		il.append(new ISTORE(idxI));
+		InstructionHandle vectorCmp = il.append(new ILOAD(idxI));
+		il.append(new ILOAD(endIndex));
+		il.append(new ILOAD(idxLength));
+		il.append(new ISUB());
+		il.append(new IF_ICMPLE(vectorStart));
+		il.insert(vectorStart, new GOTO(vectorCmp));
+	}
+	
+	/**
+	 * outAry[outPos.get(i)] = exprs.get(i) for i in indices
+	 * 
+	 * Common subexpressions are shared by all the outputs in the same method,
+	 * they are computed once and reused by every DASTORE that needs them.
+	 * The subexpressions in hoisted are loaded from the array in local 3
+	 * (see genClassBytecodeVecFunc)
+	 */
+	private static void addVecFuncOutputs(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int outAryIndex, int argsIndex, List<Expr> exprs, List<Integer> outPos, List<Integer> indices, 
+			Expr[] args, HashMap<Expr, Integer> argsMap, Map<Expr, Integer> hoisted) {
+		CommonSubExprs cse = new CommonSubExprs();
+		cse.setHoisted(hoisted, 3);
+		for(int i : indices) {
+			cse.add(exprs.get(i));
+		}
+		addArgLocals(mg, cp, il, argsIndex, -1, argsMap, cse);
+		for(int i : indices) {
+			il.append(new ALOAD(outAryIndex));
+			il.append(new PUSH(cp,outPos.get(i)));
+			addToInstructionList(mg, cp, factory, il, argsIndex, -1, exprs.get(i), args, argsMap, cse);
+			il.append(new DASTORE());
+		}
+	}
+	
+	/**
+	 * Return the subexpressions of the outputs which are used by more than one
+	 * chunk, the operands of a subexpression come before it. A subexpression 
+	 * used by the chunks only inside another returned one is not returned, 
+	 * e.g. x*y if all the chunks use it in exp(x*y).
+	 * 
+	 * Every chunk computes them again otherwise. Hoisting them costs a DASTORE 
+	 * for each of them and a DALOAD for each use, plus a new double[] per call.
+	 * 
+	 * @param exprs
+	 * @param chunks
+	 * @return
+	 */
+	static List<Expr> getCrossChunkSubExprs(List<Expr> exprs, List<List<Integer>> chunks) {
+		Set<Expr> candidates = countChunks(exprs, chunks, Collections.<Expr>emptySet());
+		if(candidates.isEmpty())
+			return new ArrayList<Expr>();
+		//Count again, stop at the candidates
+		Set<Expr> hoisted = countChunks(exprs, chunks, candidates);
+		List<Expr> rlt = new ArrayList<Expr>();
+		Set<Expr> visited = new HashSet<Expr>();
+		for(Expr e : exprs)
+			postOrder(e, hoisted, visited, rlt);
+		return rlt;
+	}
+	
+	/**
+	 * Return the subexpressions used by more than one chunk, the operands of
+	 * a subexpression in stops are not visited
+	 */
+	private static Set<Expr> countChunks(List<Expr> exprs, List<List<Integer>> chunks, Set<Expr> stops) {
+		Map<Expr, Integer> counts = new HashMap<Expr, Integer>();
+		Set<Expr> rlt = new HashSet<Expr>();
+		for(List<Integer> chunk : chunks) {
+			Set<Expr> used = new HashSet<Expr>();
+			for(int i : chunk)
+				collectSubExprs(exprs.get(i), stops, used);
+			for(Expr e : used) {
+				Integer count = counts.get(e);
+				counts.put(e, count == null ? 1 : count + 1);
+				if(count != null)
+					rlt.add(e);
+			}
+		}
+		return rlt;
+	}
+	
+	private static boolean isHoistable(Expr e, Expr[] operands) {
+		return operands.length > 0 && 
+				!(e instanceof Relation || e instanceof Logic || e instanceof Integrate);
+	}
+	
+	private static void collectSubExprs(Expr e, Set<Expr> stops, Set<Expr> used) {
+		e = getEmitExpr(e);
+		if(e == null) return;
+		Expr[] operands = getOperands(e);
+		if(isHoistable(e, operands)) {
+			if(!used.add(e) || stops.contains(e))
+				return;
+		}
+		for(Expr arg : operands)
+			collectSubExprs(arg, stops, used);
+	}
+	
+	private static void postOrder(Expr e, Set<Expr> hoisted, Set<Expr> visited, List<Expr> outList) {
+		e = getEmitExpr(e);
+		if(e == null) return;
+		Expr[] operands = getOperands(e);
+		if(operands.length == 0 || !visited.add(e))
+			return;
+		for(Expr arg : operands)
+			postOrder(arg, hoisted, visited, outList);
+		if(hoisted.contains(e))
+			outList.add(e);
+	}
+	
+	/**
+	 * Methods larger than HUGE_METHOD_LIMIT bytes are not compiled by the JIT compiler
+	 * of HotSpot (see -XX:-DontCompileHugeMethods) and the size of a method must be 
+	 * less than MAX_METHOD_SIZE
+	 */
+	static Method checkMethodSize(Method m, String className) {
+		int size = m.getCode().getCode().length;
+		if(size > MAX_METHOD_SIZE) {
+			throw new RuntimeException("The bytecode of "+className+"."+m.getName()+
+					"() is too large ("+size+" bytes). Please split the expression.");
+		} else if(size > HUGE_METHOD_LIMIT) {
+			System.err.println("Warning: the bytecode of "+className+"."+m.getName()+
+					"() has "+size+" bytes and will not be compiled by the JIT compiler");
+		}
+		return m;
+	}
+	
+	/**
+	 * Return an upper bound of the number of bytes of the instructions 
+	 * generated for expr by addToInstructionList() with double[] args
+	 * 
+	 * @param expr
+	 * @return
+	 */
+	public static int estimateCodeSize(Expr expr) {
+		Expr e = getEmitExpr(expr);
+		if(e == null)
+			return 0;
+		CommonSubExprs cse = new CommonSubExprs();
+		cse.add(e);
+		return estimateCodeSize(e, cse, new HashSet<Integer>()) + 1; //I2D
+	}
+	
+	private static int estimateCodeSize(Expr e, CommonSubExprs cse, Set<Integer> computed) {
+		boolean shared = cse.isShared(e);
+		if(shared && !computed.add(cse.getNumber(e)))
+			return 4; //DLOAD
+		int size = shared ? 5 : 0; //DUP2, DSTORE
+		for(Expr arg : getOperands(e)) {
+			arg = getEmitExpr(arg);
+			if(arg != null)
+				size += estimateCodeSize(arg, cse, computed);
+		}
+		if(e instanceof Symbol)
+			size += 5; //ALOAD, PUSH, DALOAD
+		else if(e instanceof SymReal<?> || e instanceof SymConst)
+			size += 3; //LDC2_W
+		else if(e instanceof Add || e instanceof Subtract || e instanceof Multiply || 
+				e instanceof Divide || e instanceof Reciprocal || e instanceof Logic)
+			size += 1;
+		else if(e instanceof Negate)
+			size += 4; //LDC2_W, DMUL
+		else if(e instanceof Relation)
+			size += 12;
+		else if(e instanceof Integrate)
+			size += 64;
+		else
+			size += 7; //[POP2, PUSH,] INVOKESTATIC
+		return size;
+	}
+	
+	/**
+	 * Generate a class implementing BytecodeBatchFunc with
+	 * apply(double[] outAry, int outPos, int from, int to, double[][] args)
 	 * 
 	 * @param className
 	 * @param expr
@@ -336,24 +1184,35 @@ public class BytecodeUtils {
 	 */
 	public static ClassGen genClassBytecodeBatchFunc(String className, Expr expr, Expr[] args,
 			boolean writeClassFile, boolean staticMethod) {
+		JITOptions options = JITOptions.fromFlags(writeClassFile, staticMethod);
+		ClassGen cg = genClassBytecodeBatchFunc(className, expr, args, options);
+		options.dump(BcelBackend.toGeneratedClass(cg));
+		return cg;
+	}
+	
+	public static ClassGen genClassBytecodeBatchFunc(String className, Expr expr, Expr[] args,
+			JITOptions options) {
+		expr = CodegenRewriter.rewrite(expr, options);
 		String packageName = "symjava.bytecode";
 		String fullClsName = packageName+"."+className;
-		ClassGen cg = new ClassGen(fullClsName, "java.lang.Object",
-				"<generated>", ACC_PUBLIC | ACC_SUPER, new String[]{"symjava.bytecode.BytecodeBatchFunc"});
+		ClassGen cg = newClassGen(fullClsName, "symjava.bytecode.BytecodeBatchFunc");
 		ConstantPoolGen cp = cg.getConstantPool(); // cg creates constant pool
 		InstructionList il = new InstructionList();
 		InstructionFactory factory = new InstructionFactory(cg);
 		LocalVariableGen lg;
 		
+		//apply(outAry, outPos, args) is a default method of BytecodeBatchFunc
 		short acc_flags = ACC_PUBLIC;
 		MethodGen mg = new MethodGen(acc_flags, // access flags
 				Type.VOID, // return type
 				new Type[] { // argument types
 					new ArrayType(Type.DOUBLE, 1),
 					Type.INT,
+					Type.INT,
+					Type.INT,
 					new ArrayType(Type.DOUBLE, 2) 
 				},
-				new String[] { "outAry", "outPos", "args" }, // arg names
+				new String[] { "outAry", "outPos", "from", "to", "args" }, // arg names
 				"apply", fullClsName, // method, class
 				il, cp);
 		
@@ -363,77 +1222,85 @@ public class BytecodeUtils {
 		}
 		
 		//////////////////////////////////////////////////////////////
-		//	for(int i=0; i<args.length; i++) {
-		//		Compute the expression
+		//	for(int i=from; i<to; i++) {
+		//		outAry[outPos+i] = the expression at args[*][i]
 		//	}
 		/////////////////////////////////////////////////////////////
-		//int i = 0;
+		//int i = from;
 		lg = mg.addLocalVariable("i",
 				Type.INT, null, null);
 		int idxI = lg.getIndex();
-		il.append(InstructionConstants.ICONST_0);
+		il.append(new ILOAD(3));
 		lg.setStart(il.append(new ISTORE(idxI))); // "i" valid from here
 		
-		lg = mg.addLocalVariable("N",
-				Type.INT, null, null);
-		int idxN = lg.getIndex();
-		il.append(new ALOAD(3));
-		il.append(new ICONST(0));
-		il.append(new AALOAD());
-		il.append(new ARRAYLENGTH());
-		lg.setStart(il.append(new ISTORE(idxN))); // "N" valid from here
+		//for(; i<=to-lanes; i+=lanes) the points i, ..., i+lanes-1 lane by lane
+		int lanes = options.getLanes();
+		List<Expr> exprs = new ArrayList<Expr>();
+		exprs.add(expr);
+		if(isVectorLoop(exprs, options)) {
+			//for(; i<=to-length; i+=length) the points i, ..., i+length-1 by the Vector API
+			CommonSubExprs vectorCse = new CommonSubExprs();
+			vectorCse.add(expr);
+			int[] species = addVectorSpecies(mg, factory, il);
+			InstructionHandle vectorStart = il.append(new NOP());
+			Map<Integer, Integer> values = addVectorBlock(mg, cp, factory, il, 5, idxI, species[0], exprs, args, argsMap, vectorCse);
+			loadVector(mg, cp, factory, il, 5, species[0], expr, args, argsMap, vectorCse, values);
+			il.append(new ALOAD(1));
+			il.append(new ILOAD(2));
+			il.append(new ILOAD(idxI));
+			il.append(new IADD());
+			storeVector(factory, il); //into outAry, outPos+i
+			addVectorLoopEnd(il, idxI, 4, species[1], vectorStart);
+		} else if(isLaneLoop(exprs, lanes)) {
+			CommonSubExprs laneCse = new CommonSubExprs();
+			laneCse.add(expr);
+			InstructionHandle laneStart = il.append(new NOP());
+			Map<Integer, int[]> values = addLaneBlock(mg, cp, factory, il, 5, idxI, lanes, exprs, args, argsMap, laneCse);
+			for(int l=0; l<lanes; l++) {
+				il.append(new ALOAD(1));
+				il.append(new ILOAD(2));
+				il.append(new ILOAD(idxI));
+				il.append(new IADD());
+				il.append(new PUSH(cp, l));
+				il.append(new IADD()); //outAry[outPos+i+l]
+				loadLane(mg, cp, factory, il, 5, expr, args, argsMap, laneCse, values, l);
+				il.append(new DASTORE());
+			}
+			addLaneLoopEnd(cp, il, idxI, 4, lanes, laneStart);
+		}
 		
 		//Loop body:
-		InstructionHandle loopStart = il.append(new ALOAD(1)); 
-		il.append(new ILOAD(idxI)); //outAry[i]
+		CommonSubExprs cse = new CommonSubExprs();
+		cse.add(expr);
+		//The arguments used more than once are loaded at the beginning of each iteration
+		InstructionHandle loopStart = il.append(new NOP());
+		addArgLocals(mg, cp, il, 5, idxI, argsMap, cse);
+		il.append(new ALOAD(1)); 
+		il.append(new ILOAD(2));
+		il.append(new ILOAD(idxI));
+		il.append(new IADD()); //outAry[outPos+i]
 		
 		//Traverse the expression tree
-		List<Expr> insList = new ArrayList<Expr>();
-		post_order(expr, insList);
-		if(insList.size() == 0) {
-			throw new RuntimeException("Expressionis empty. Nothing to generate!");
-		}
-		for(int insIndex=0; insIndex<insList.size(); insIndex++) {
-			Expr ins = insList.get(insIndex);
-			if(ins instanceof Symbol) {
-				Integer argIdx = argsMap.get(ins);
-				if(argIdx == null) {
-					throw new IllegalArgumentException(ins+" is not in the argument list of "+expr.getLabel());
-				}
-				pushBatchSymbol(cp, il, 3, argIdx, idxI);
-			} else {
-				addOthers(mg, cp, factory, il, 3, ins, args, argsMap);
-			}
-		}
-		if(expr instanceof Relation || expr instanceof Logic) {
-			il.append(new I2D());
-		}
-		il.append(new DASTORE()); //outAry[i] = the value of the expression
+		addToInstructionList(mg, cp, factory, il, 5, idxI, expr, args, argsMap, cse);
+		il.append(new DASTORE()); //outAry[outPos+i] = the value of the expression
 		
 		//i++
 		il.append(new IINC(idxI, 1));
 
-		//Compare: i < 10
+		//Compare: i < to
 		InstructionHandle loopCmp = il.append(new ILOAD(idxI));
-		il.append(new ILOAD(idxN));
+		il.append(new ILOAD(4));
 		il.append(new IF_ICMPLT(loopStart));
 		
 		il.insert(loopStart, new GOTO(loopCmp));
 		/////////////////////////////////////////////////////////////
 
-		il.append(InstructionConstants.RETURN);
+		il.append(InstructionConst.RETURN);
 		
 		mg.setMaxStack();
 		cg.addMethod(mg.getMethod());
 		il.dispose(); // Allow instruction handles to be reused
 		cg.addEmptyConstructor(ACC_PUBLIC);
-		if(writeClassFile) {
-			try {
-				cg.getJavaClass().dump("bin/symjava/bytecode/"+className+".class");
-			} catch (java.io.IOException e) {
-				System.err.println(e);
-			}
-		}
 		return cg;
 	}
 
@@ -474,6 +1341,22 @@ public class BytecodeUtils {
 		il.append(new DALOAD()); //args[idxSymbol][idxLocalVar]
 	}
 	
+	/**
+	 * Compile the integrand or a bound of an integral and push it onto the 
+	 * operand stack, it is held by a static field of the generated class
+	 * 
+	 * @param mg
+	 * @param factory
+	 * @param il
+	 * @param f
+	 */
+	private static void pushIntegralFunc(MethodGen mg, InstructionFactory factory, InstructionList il, Func f) {
+		if(!(factory instanceof FuncFactory))
+			throw new RuntimeException("Integrate is not supported in "+mg.getClassName());
+		BytecodeFunc func = f.toBytecodeFunc(new JITOptions(JIT.getOptions()).setStaticMethod(false));
+		((FuncFactory)factory).pushFunc(il, f.getName(), func);
+	}
+	
 	public static void addOthers(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
 			int argsIndex, Expr ins, Expr[] args, HashMap<Expr, Integer> argsMap) {
 		if(ins instanceof SymReal<?>) {
@@ -489,6 +1372,9 @@ public class BytecodeUtils {
 			il.append(new DMUL());
 		} else if(ins instanceof Divide) {
 			il.append(new DDIV());
+		} else if(ins instanceof Exp) {
+			il.append(factory.createInvoke("java.lang.Math", "exp",
+					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
 		} else if(ins instanceof Pow) {
 			Pow p = (Pow)ins;
 			if(p.arg2 instanceof SymReal<?>) {
@@ -497,12 +1383,12 @@ public class BytecodeUtils {
 					il.append(new POP2()); //Replace double value to integer
 					il.append(new PUSH(cp, realExp.getIntValue()));
 					il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "powi",
-							Type.DOUBLE, new Type[] { Type.DOUBLE, Type.INT }, Constants.INVOKESTATIC));
+							Type.DOUBLE, new Type[] { Type.DOUBLE, Type.INT }, Const.INVOKESTATIC));
 					return;
 				}
 			}
 			il.append(factory.createInvoke("java.lang.Math", "pow",
-					Type.DOUBLE, new Type[] { Type.DOUBLE, Type.DOUBLE }, Constants.INVOKESTATIC));
+					Type.DOUBLE, new Type[] { Type.DOUBLE, Type.DOUBLE }, Const.INVOKESTATIC));
 		} else if(ins instanceof Sqrt) {
 			Sqrt p = (Sqrt)ins;
 			if(p.arg2 instanceof SymReal<?>) {
@@ -510,33 +1396,36 @@ public class BytecodeUtils {
 				if(realRoot.getIntValue() == 2) {
 					il.append(new POP2());
 					il.append(factory.createInvoke("java.lang.Math", "sqrt",
-							Type.DOUBLE, new Type[] { Type.DOUBLE }, Constants.INVOKESTATIC));
+							Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
 					return;
 				}
 			}
 			il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "sqrt",
-					Type.DOUBLE, new Type[] { Type.DOUBLE, Type.DOUBLE }, Constants.INVOKESTATIC));
+					Type.DOUBLE, new Type[] { Type.DOUBLE, Type.DOUBLE }, Const.INVOKESTATIC));
+		} else if(ins instanceof MultiplyAdd) {
+			il.append(factory.createInvoke("java.lang.Math", "fma",
+					Type.DOUBLE, new Type[] { Type.DOUBLE, Type.DOUBLE, Type.DOUBLE }, Const.INVOKESTATIC));
 		} else if(ins instanceof Sin) {
 			il.append(factory.createInvoke("java.lang.Math", "sin",
-					Type.DOUBLE, new Type[] { Type.DOUBLE }, Constants.INVOKESTATIC));
+					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
 		} else if(ins instanceof Cos) {
 			il.append(factory.createInvoke("java.lang.Math", "cos",
-					Type.DOUBLE, new Type[] { Type.DOUBLE }, Constants.INVOKESTATIC));
+					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
 		} else if(ins instanceof Tan) {
 			il.append(factory.createInvoke("java.lang.Math", "tan",
-					Type.DOUBLE, new Type[] { Type.DOUBLE }, Constants.INVOKESTATIC));
+					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
 //		} else if(ins instanceof Log10) {
 //			il.append(factory.createInvoke("java.lang.Math", "log10",
-//					Type.DOUBLE, new Type[] { Type.DOUBLE }, Constants.INVOKESTATIC));
+//					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
 //			il.append(new POP2()); //this pop out the result of log10, not the base
 		} else if(ins instanceof Log) {
 //			if(Utils.symCompare(((Log) ins).arg1, Exp.E)) {
 //				il.append(factory.createInvoke("java.lang.Math", "log",
-//						Type.DOUBLE, new Type[] { Type.DOUBLE }, Constants.INVOKESTATIC));
+//						Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
 //				il.append(new POP2());
 //			} else {
 				il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "log",
-						Type.DOUBLE, new Type[] { Type.DOUBLE,  Type.DOUBLE }, Constants.INVOKESTATIC));
+						Type.DOUBLE, new Type[] { Type.DOUBLE,  Type.DOUBLE }, Const.INVOKESTATIC));
 //			}
 		} else if(ins instanceof Reciprocal) {
 			il.append(new DDIV());
@@ -557,7 +1446,6 @@ public class BytecodeUtils {
 			//Compile the integrand
 			Func integrand = new Func("integrand_"+java.util.UUID.randomUUID().toString().replaceAll("-", ""),INT.integrand, integrandArgs);
 			//System.out.println(f);
-			integrand.toBytecodeFunc(true, true); //Load class, could be better method to load a class
 
 			if(INT.domain instanceof Interval) {
 				//TODO read this: http://stackoverflow.com/questions/19119702/injecting-code-in-an-existing-method-using-bcel/19219759#19219759
@@ -566,14 +1454,14 @@ public class BytecodeUtils {
 				}
 				//We have begin,end parameters on the top of the VM stack
 				il.append(new PUSH(cp, INT.domain.getStepSize()));
-				il.append(new PUSH(cp, integrand.getName()));
-				il.append((new ALOAD(1))); //additional parameters from user's call
+				pushIntegralFunc(mg, factory, il, integrand);
+				il.append(new ALOAD(argsIndex)); //additional parameters from user's call
 				il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "numIntegrate1D",
 						Type.DOUBLE, new Type[] { 
 						Type.DOUBLE, Type.DOUBLE, Type.DOUBLE, 
-						Type.STRING, 
+						FUNC_TYPE, 
 						new ArrayType(Type.DOUBLE, 1) 
-						}, Constants.INVOKESTATIC));
+						}, Const.INVOKESTATIC));
 			} else if(INT.domain instanceof Domain2D && INT.isMultipleIntegral()) {
 				Expr[] coord = INT.domain.getCoordVars();
 				Expr x = coord[0];
@@ -589,8 +1477,6 @@ public class BytecodeUtils {
 				//System.out.println("integrand="+f);
 				//System.out.println("fxMin="+fxMin);
 				//System.out.println("fxMax="+fxMax);
-				fxMin.toBytecodeFunc(true, true);
-				fxMax.toBytecodeFunc(true, true);
 				//fyMin.toBytecodeFunc(true, true);
 				//fyMax.toBytecodeFunc(true, true);
 				//We have begin,end parameters on the top of the VM stack
@@ -601,41 +1487,41 @@ public class BytecodeUtils {
 					throw new RuntimeException("Please specify step size for "+y);
 				}
 				il.append(new PUSH(cp, INT.domain.getStepSize(y)));
-				il.append(new PUSH(cp, fxMin.getName()));
-				il.append(new PUSH(cp, fxMax.getName()));
+				pushIntegralFunc(mg, factory, il, fxMin);
+				pushIntegralFunc(mg, factory, il, fxMax);
 				il.append(new PUSH(cp, INT.domain.getStepSize(x)));
-				il.append(new PUSH(cp, integrand.getName()));
-				il.append((new ALOAD(1))); //additional parameters from user's call
+				pushIntegralFunc(mg, factory, il, integrand);
+				il.append(new ALOAD(argsIndex)); //additional parameters from user's call
 				//Now the paramters are ready, call the function
 				il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "numIntegrate2D",
 						Type.DOUBLE, new Type[] { 
 						Type.DOUBLE, Type.DOUBLE, Type.DOUBLE, 
-						Type.STRING, Type.STRING, Type.DOUBLE, 
-						Type.STRING,
+						FUNC_TYPE, FUNC_TYPE, Type.DOUBLE, 
+						FUNC_TYPE,
 						new ArrayType(Type.DOUBLE, 1)
-				}, Constants.INVOKESTATIC));
+				}, Const.INVOKESTATIC));
 			} else if(!INT.isMultipleIntegral()) {
 				Expr[] coords = INT.domain.getCoordVars();
 				LocalVariableGen lg;
 				
 				lg = mg.addLocalVariable("minBound",
-					new ArrayType(Type.STRING, 1), null, null);
+					new ArrayType(FUNC_TYPE, 1), null, null);
 				int idxMinBound = lg.getIndex();
-				il.append(InstructionConstants.ACONST_NULL);
+				il.append(InstructionConst.ACONST_NULL);
 				lg.setStart(il.append(new ASTORE(idxMinBound))); // "minBound" valid from here
 				
 				lg = mg.addLocalVariable("maxBound",
-					new ArrayType(Type.STRING, 1), null, null);
+					new ArrayType(FUNC_TYPE, 1), null, null);
 				int idxMaxBound = lg.getIndex();
-				il.append(InstructionConstants.ACONST_NULL);
+				il.append(InstructionConst.ACONST_NULL);
 				lg.setStart(il.append(new ASTORE(idxMaxBound))); // "maxBound" valid from here
 				
 				il.append(new PUSH(cp, coords.length));
-				il.append(new ANEWARRAY(cp.addClass(Type.STRING)));
+				il.append(new ANEWARRAY(cp.addClass(FUNC_TYPE)));
 				il.append(new ASTORE(idxMinBound));
 				
 				il.append(new PUSH(cp, coords.length));
-				il.append(new ANEWARRAY(cp.addClass(Type.STRING)));
+				il.append(new ANEWARRAY(cp.addClass(FUNC_TYPE)));
 				il.append(new ASTORE(idxMaxBound));
 				
 				for(int i=0; i<coords.length; i++) {
@@ -644,37 +1530,35 @@ public class BytecodeUtils {
 					Expr xMax = INT.domain.getMaxBound(x);
 					Func fxMin = new Func("integrate_bound_"+x+"Min_"+java.util.UUID.randomUUID().toString().replaceAll("-", ""), xMin);
 					Func fxMax = new Func("integrate_bound_"+x+"Max_"+java.util.UUID.randomUUID().toString().replaceAll("-", ""), xMax);
-					System.out.println("min bound="+fxMin);
-					System.out.println("max bound="+fxMax);
+					if(JIT.getOptions().isDebug()) {
+						System.out.println("min bound="+fxMin);
+						System.out.println("max bound="+fxMax);
+					}
 					il.append(new ALOAD(idxMinBound));
 					il.append(new PUSH(cp,i));
-					il.append(new PUSH(cp, fxMin.getName()));
+					pushIntegralFunc(mg, factory, il, fxMin);
 					il.append(new AASTORE());
 
 					il.append(new ALOAD(idxMaxBound));
 					il.append(new PUSH(cp,i));
-					il.append(new PUSH(cp, fxMax.getName()));
+					pushIntegralFunc(mg, factory, il, fxMax);
 					il.append(new AASTORE());
-
-					fxMin.toBytecodeFunc(true, true);
-					fxMax.toBytecodeFunc(true, true);
 				}
 				
 				Func constr = new Func("constr_"+java.util.UUID.randomUUID().toString().replaceAll("-", ""), INT.domain.getConstraint(), integrandArgs);
-				constr.toBytecodeFunc(true, true);
 				
 				il.append(new ALOAD(idxMinBound));
 				il.append(new ALOAD(idxMaxBound));
-				il.append(new PUSH(cp, integrand.getName()));
-				il.append(new PUSH(cp, constr.getName()));
-				il.append((new ALOAD(1))); //additional parameters from user's call
+				pushIntegralFunc(mg, factory, il, integrand);
+				pushIntegralFunc(mg, factory, il, constr);
+				il.append(new ALOAD(argsIndex)); //additional parameters from user's call
 				//Now the paramters are ready, call the function
 				il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "numIntegrateMonteCarloND",
 						Type.DOUBLE, new Type[] { 
-						new ArrayType(Type.STRING,1),new ArrayType(Type.STRING,1), 
-						Type.STRING,Type.STRING,
+						new ArrayType(FUNC_TYPE,1),new ArrayType(FUNC_TYPE,1), 
+						FUNC_TYPE,FUNC_TYPE,
 						new ArrayType(Type.DOUBLE, 1)
-				}, Constants.INVOKESTATIC));
+				}, Const.INVOKESTATIC));
 			} else {
 				//TODO
 				throw new RuntimeException("Unsupported Integrate: "+INT);
@@ -747,32 +1631,110 @@ public class BytecodeUtils {
 	 */
 	public static void addToInstructionList(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
 			int argsIndex, Expr expr, Expr[] args, HashMap<Expr, Integer> argsMap) {
-		//Traverse the expression tree
-		List<Expr> insList = new ArrayList<Expr>();
-		post_order(expr, insList);
-		if(insList.size() == 0) {
+		CommonSubExprs cse = new CommonSubExprs();
+		cse.add(expr);
+		addArgLocals(mg, cp, il, argsIndex, -1, argsMap, cse);
+		addToInstructionList(mg, cp, factory, il, argsIndex, -1, expr, args, argsMap, cse);
+	}
+	
+	/**
+	 * Load each argument which is used more than once into a local variable,
+	 * the uses of it in addToInstructionList() are DLOAD instead of loading 
+	 * it from the argument array again
+	 * 
+	 * @param mg
+	 * @param cp
+	 * @param il
+	 * @param argsIndex
+	 * @param idxI index of the loop variable for batch functions (double[][] args), -1 for double[] args
+	 * @param argsMap
+	 * @param cse all the expressions of the method must have been added to it
+	 */
+	public static void addArgLocals(MethodGen mg, ConstantPoolGen cp, InstructionList il, 
+			int argsIndex, int idxI, HashMap<Expr, Integer> argsMap, CommonSubExprs cse) {
+		for(Expr arg : cse.getRepeatedArgs(argsMap)) {
+			LocalVariableGen lg = mg.addLocalVariable("arg"+argsMap.get(arg), Type.DOUBLE, null, null);
+			if(idxI < 0)
+				pushSymbol(cp, il, argsIndex, argsMap.get(arg));
+			else
+				pushBatchSymbol(cp, il, argsIndex, argsMap.get(arg), idxI);
+			il.append(new DSTORE(lg.getIndex()));
+			cse.setLocal(arg, lg.getIndex());
+		}
+	}
+	
+	/**
+	 * Generate instructions for expr. A subexpression shared in cse is computed 
+	 * only once and stored in a local variable, DLOAD is used for the other uses.
+	 * 
+	 * @param mg
+	 * @param cp
+	 * @param factory
+	 * @param il
+	 * @param argsIndex a number indicates the index of the arguments in the generated function 'apply()'
+	 * @param idxI index of the loop variable for batch functions (double[][] args), -1 for double[] args
+	 * @param expr
+	 * @param args
+	 * @param argsMap
+	 * @param cse expr must have been added to it
+	 */
+	public static void addToInstructionList(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int argsIndex, int idxI, Expr expr, Expr[] args, HashMap<Expr, Integer> argsMap, CommonSubExprs cse) {
+		Expr e = getEmitExpr(expr);
+		if(e == null) {
 			throw new RuntimeException("Expressionis empty. Nothing to generate!");
 		}
-
-		for(int insIndex=0; insIndex<insList.size(); insIndex++) {
-			Expr ins = insList.get(insIndex);
-			if(ins instanceof Symbol) {
-				Integer argIdx = argsMap.get(ins);
-				if(argIdx == null) {
-					throw new IllegalArgumentException(ins+" is not in the argument list of "+expr.getLabel());
-				}
-				//0 for static method
-				//1 for BytecodeFunc
-				//3 for BytecodeVecFunc
-				il.append(new ALOAD(argsIndex)); 
-				il.append(new PUSH(cp, argIdx));
-				il.append(new DALOAD());
-			} else {
-				addOthers(mg, cp, factory, il, argsIndex, ins, args, argsMap);
+		addSubExpr(mg, cp, factory, il, argsIndex, idxI, e, expr, args, argsMap, cse);
+		if(e instanceof Relation || e instanceof Logic) {
+			il.append(new I2D());
+		}
+	}
+	
+	private static void addSubExpr(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il, 
+			int argsIndex, int idxI, Expr ins, Expr expr, Expr[] args, HashMap<Expr, Integer> argsMap, CommonSubExprs cse) {
+		Integer slot = cse.getHoisted(ins);
+		if(slot != null) {
+			il.append(new ALOAD(cse.hoistedArray));
+			il.append(new PUSH(cp, slot));
+			il.append(new DALOAD());
+			return;
+		}
+		boolean shared = cse.isShared(ins);
+		if(shared) {
+			Integer local = cse.getLocal(ins);
+			if(local != null) {
+				il.append(new DLOAD(local));
+				return;
 			}
 		}
-		if(expr instanceof Relation || expr instanceof Logic) {
-			il.append(new I2D());
+		for(Expr arg : getOperands(ins)) {
+			arg = getEmitExpr(arg);
+			if(arg != null)
+				addSubExpr(mg, cp, factory, il, argsIndex, idxI, arg, expr, args, argsMap, cse);
+		}
+		if(ins instanceof Symbol) {
+			Integer argIdx = argsMap.get(ins);
+			if(argIdx == null) {
+				throw new IllegalArgumentException(ins+" is not in the argument list of "+expr.getLabel());
+			}
+			//0 for static method
+			//1 for BytecodeFunc
+			//3 for BytecodeVecFunc and BytecodeBatchFunc
+			Integer local = cse.getLocal(ins);
+			if(local != null)
+				il.append(new DLOAD(local));
+			else if(idxI < 0)
+				pushSymbol(cp, il, argsIndex, argIdx);
+			else
+				pushBatchSymbol(cp, il, argsIndex, argIdx, idxI);
+		} else {
+			addOthers(mg, cp, factory, il, argsIndex, ins, args, argsMap);
+		}
+		if(shared) {
+			LocalVariableGen lg = mg.addLocalVariable("cse"+cse.getNumber(ins), Type.DOUBLE, null, null);
+			il.append(new DUP2());
+			il.append(new DSTORE(lg.getIndex()));
+			cse.setLocal(ins, lg.getIndex());
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,221 @@
+package symjava.symbolic.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A directory of compiled classes which is kept between runs of the JVM.
+ *
+ * A class is stored in a file named by the SHA-256 hash of the key of the
+ * compiled function (see FuncCache.getKey()) and BytecodeUtils.CODEGEN_VERSION.
+ * The file contains the key, the class name and the bytes of the class 
+ * followed by the hash of them. A file which can not be read, belongs to another key
+ * or version, or whose hash does not match is deleted.
+ *
+ * The least recently used files are deleted when the total size of the
+ * directory is larger than maxBytes.
+ */
+public class ClassCache {
+	static final int MAGIC = 0x53594D4A; //"SYMJ"
+	static final String SUFFIX = ".symclass";
+	static final int DIGEST_LENGTH = 32;
+
+	File dir;
+	long maxBytes;
+
+	/**
+	 *
+	 * @param dir the directory of the stored classes, it is created if it does not exist
+	 * @param maxBytes the maximum total size of the stored classes
+	 */
+	public ClassCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		dir.mkdirs();
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Return the class stored for key or null if there is no valid one
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized GeneratedClass get(String key) {
+		if(key == null)
+			return null;
+		File file = getFile(key);
+		if(!file.exists())
+			return null;
+		GeneratedClass entry = null;
+		try {
+			byte[] data = readFile(file);
+			//The last bytes are the hash of the others
+			int len = data.length - DIGEST_LENGTH;
+			if(len < 0 || !Arrays.equals(Arrays.copyOfRange(data, len, data.length), 
+					sha256(Arrays.copyOf(data, len))))
+				throw new IOException("Corrupted class file "+file);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, len));
+			if(in.readInt() != MAGIC || in.readInt() != BytecodeUtils.CODEGEN_VERSION)
+				throw new IOException("Unknown format of "+file);
+			String storedKey = new String(readBytes(in, len), "UTF-8");
+			String className = in.readUTF();
+			byte[] bytes = readBytes(in, len);
+			if(!key.equals(storedKey))
+				throw new IOException("Hash collision of "+file);
+			entry = new GeneratedClass(className, bytes);
+		} catch (IOException e) {
+			System.err.println(e);
+		}
+		if(entry == null)
+			file.delete();
+		else
+			file.setLastModified(System.currentTimeMillis());
+		return entry;
+	}
+
+	/**
+	 * Store the class for key
+	 *
+	 * @param key
+	 * @param className
+	 * @param bytes
+	 */
+	public synchronized void put(String key, String className, byte[] bytes) {
+		if(key == null)
+			return;
+		File file = getFile(key);
+		File tmp = new File(dir, file.getName()+".tmp");
+		try {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(bytes.length + 256);
+			DataOutputStream out = new DataOutputStream(buf);
+			out.writeInt(MAGIC);
+			out.writeInt(BytecodeUtils.CODEGEN_VERSION);
+			//The key of a large function is longer than writeUTF() allows
+			byte[] keyBytes = key.getBytes("UTF-8");
+			out.writeInt(keyBytes.length);
+			out.write(keyBytes);
+			out.writeUTF(className);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.write(sha256(buf.toByteArray()));
+			out.close();
+			//Write to a temporary file first, a reader never sees a partial file
+			FileOutputStream fos = new FileOutputStream(tmp);
+			try {
+				buf.writeTo(fos);
+			} finally {
+				fos.close();
+			}
+			file.delete();
+			if(!tmp.renameTo(file))
+				throw new IOException("Can not rename "+tmp+" to "+file);
+		} catch (Exception e) {
+			System.err.println(e);
+			tmp.delete();
+			return;
+		}
+		evict();
+	}
+
+	/**
+	 * Delete the least recently used classes until the total size is not larger than maxBytes
+	 */
+	public synchronized void evict() {
+		File[] files = dir.listFiles();
+		if(files == null)
+			return;
+		long total = 0;
+		for(File f : files) {
+			if(f.getName().endsWith(SUFFIX))
+				total += f.length();
+		}
+		if(total <= maxBytes)
+			return;
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for(File f : files) {
+			if(total <= maxBytes)
+				break;
+			if(!f.getName().endsWith(SUFFIX))
+				continue;
+			long len = f.length();
+			if(f.delete())
+				total -= len;
+		}
+	}
+
+	/**
+	 * Delete all the stored classes
+	 */
+	public synchronized void clear() {
+		File[] files = dir.listFiles();
+		if(files == null)
+			return;
+		for(File f : files) {
+			if(f.getName().endsWith(SUFFIX))
+				f.delete();
+		}
+	}
+
+	File getFile(String key) {
+		try {
+			byte[] hash = sha256((BytecodeUtils.CODEGEN_VERSION+":"+key).getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for(byte b : hash)
+				sb.append(String.format("%02x", b));
+			return new File(dir, sb.append(SUFFIX).toString());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static byte[] sha256(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	static byte[] readBytes(DataInputStream in, long maxLength) throws IOException {
+		int len = in.readInt();
+		if(len < 0 || len > maxLength)
+			throw new IOException("Invalid length "+len);
+		byte[] bytes = new byte[len];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,118 @@
+package symjava.symbolic.utils;
+
+import java.util.List;
+
+import symjava.symbolic.Expr;
+import symjava.symbolic.Func;
+
+/**
+ * A generator of the classes of the compiled functions, see JITOptions.setBackend()
+ *
+ */
+public interface CodegenBackend {
+	/**
+	 * Generate a class implementing symjava.bytecode.BytecodeFunc
+	 *
+	 * @param fun
+	 * @param options
+	 * @return
+	 */
+	GeneratedClass genBytecodeFunc(Func fun, JITOptions options);
+
+	/**
+	 * Generate a class implementing symjava.bytecode.BytecodeVecFunc
+	 * which computes outAry[outPos.get(i)] = exprs.get(i)
+	 *
+	 * @param className
+	 * @param exprs
+	 * @param outPos
+	 * @param args
+	 * @param options
+	 * @return
+	 */
+	GeneratedClass genBytecodeVecFunc(String className, List<Expr> exprs, List<Integer> outPos,
+			Expr[] args, JITOptions options);
+
+	/**
+	 * Generate a class implementing symjava.bytecode.BytecodeBatchFunc
+	 *
+	 * @param className
+	 * @param expr
+	 * @param args
+	 * @param options
+	 * @return
+	 */
+	GeneratedClass genBytecodeBatchFunc(String className, Expr expr, Expr[] args, JITOptions options);
+
+	/**
+	 * Generate a class implementing symjava.bytecode.BytecodeBatchVecFunc
+	 * which computes outAry[outPos.get(k)][i] = exprs.get(k) for each point i
+	 *
+	 * @param className
+	 * @param exprs
+	 * @param outPos
+	 * @param args
+	 * @param options
+	 * @return
+	 */
+	GeneratedClass genBytecodeBatchVecFunc(String className, List<Expr> exprs, List<Integer> outPos,
+			Expr[] args, JITOptions options);
+
+	/**
+	 * Generate a class implementing symjava.bytecode.FloatFunc
+	 *
+	 * @param className
+	 * @param expr
+	 * @param args
+	 * @param options
+	 * @return
+	 */
+	GeneratedClass genFloatFunc(String className, Expr expr, Expr[] args, JITOptions options);
+
+	/**
+	 * Generate a class implementing symjava.bytecode.FloatBatchFunc
+	 *
+	 * @param className
+	 * @param expr
+	 * @param args
+	 * @param options
+	 * @return
+	 */
+	GeneratedClass genFloatBatchFunc(String className, Expr expr, Expr[] args, JITOptions options);
+
+	/**
+	 * Generate a class implementing symjava.bytecode.BytecodeVecFunc
+	 * which computes outAry[outPos] = expr and outAry[outPos+1+j] = d(expr)/d(args[j])
+	 *
+	 * @param className
+	 * @param expr
+	 * @param args
+	 * @param options
+	 * @return
+	 */
+	GeneratedClass genForwardGradient(String className, Expr expr, Expr[] args, JITOptions options);
+
+	/**
+	 * Generate a class implementing symjava.bytecode.BytecodeVecFunc
+	 * which computes outAry[outPos+j] = d(expr)/d(args[j]) by reverse mode
+	 *
+	 * @param className
+	 * @param expr
+	 * @param args
+	 * @param options
+	 * @return
+	 */
+	GeneratedClass genReverseGradient(String className, Expr expr, Expr[] args, JITOptions options);
+
+	/**
+	 * Generate a class implementing symjava.bytecode.BytecodeVecFunc
+	 * which computes the non-zero entries of the Jacobian of exprs in CSR order
+	 *
+	 * @param className
+	 * @param exprs
+	 * @param args
+	 * @param options
+	 * @return
+	 */
+	GeneratedClass genJacobian(String className, Expr[] exprs, Expr[] args, JITOptions options);
+}
@@ -0,0 +1,436 @@
+package symjava.symbolic.utils;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import symjava.math.SymMath;
+import symjava.symbolic.Add;
+import symjava.symbolic.Cos;
+import symjava.symbolic.Divide;
+import symjava.symbolic.Exp;
+import symjava.symbolic.Expr;
+import symjava.symbolic.Log;
+import symjava.symbolic.Multiply;
+import symjava.symbolic.MultiplyAdd;
+import symjava.symbolic.Negate;
+import symjava.symbolic.Pow;
+import symjava.symbolic.Reciprocal;
+import symjava.symbolic.Sin;
+import symjava.symbolic.Sqrt;
+import symjava.symbolic.Subtract;
+import symjava.symbolic.SymDouble;
+import symjava.symbolic.SymReal;
+import symjava.symbolic.Symbol;
+import symjava.symbolic.Tan;
+
+/**
+ * Rewrite the expressions before they are compiled by BytecodeUtils,
+ * see setInlinePow(), setRelaxedMath(), setHorner() and setFma() of
+ * JITOptions. Exp is compiled to Math.exp(x) if relaxedMath is on,
+ * otherwise it is rewritten to a power Math.pow(e, x).
+ *
+ * Only the arithmetic operations and the elementary functions are rebuilt,
+ * the other expressions (e.g. integrals and relations) are compiled as they are.
+ * The rewritten expressions are used for the code generation only, they are
+ * not simplified and the sharing of the subexpressions is found again by
+ * CommonSubExprs.
+ *
+ */
+public class CodegenRewriter {
+	/**
+	 * Polynomials of higher degree are not rewritten into Horner form
+	 */
+	public static final int MAX_HORNER_DEGREE = 64;
+
+	/**
+	 * Powers with a larger exponent are computed by BytecodeSupport.powi()
+	 */
+	public static final int MAX_INLINE_POW = 16;
+
+	boolean inlinePow;
+	boolean relaxedMath;
+	boolean horner;
+	boolean fma;
+	Map<Expr, Expr> done = new IdentityHashMap<Expr, Expr>();
+
+	public CodegenRewriter(JITOptions options) {
+		this.inlinePow = options.isInlinePow();
+		this.relaxedMath = options.isRelaxedMath();
+		this.horner = options.isHorner();
+		this.fma = options.isFma() && JITOptions.isFmaSupported();
+	}
+
+	public static Expr rewrite(Expr expr, JITOptions options) {
+		return new CodegenRewriter(options).apply(expr);
+	}
+
+	public static List<Expr> rewrite(List<Expr> exprs, JITOptions options) {
+		CodegenRewriter r = new CodegenRewriter(options);
+		List<Expr> rlt = new ArrayList<Expr>();
+		for(Expr e : exprs)
+			rlt.add(r.apply(e));
+		return rlt;
+	}
+
+	public Expr apply(Expr expr) {
+		return apply(expr, false);
+	}
+
+	/**
+	 * @param expr
+	 * @param inSum true if expr is a term of a sum, which has been
+	 * checked for a polynomial as a whole
+	 * @return
+	 */
+	Expr apply(Expr expr, boolean inSum) {
+		Expr e = BytecodeUtils.getEmitExpr(expr);
+		if(e == null)
+			return expr;
+		Expr rlt = done.get(e);
+		if(rlt != null)
+			return rlt;
+		boolean isSum = e instanceof Add || e instanceof Subtract;
+		if(horner && isSum && !inSum)
+			rlt = toHorner(e);
+		if(rlt == null) {
+			Expr[] operands = BytecodeUtils.getOperands(e);
+			Expr[] newOperands = new Expr[operands.length];
+			boolean changed = false;
+			for(int i=0; i<operands.length; i++) {
+				newOperands[i] = apply(operands[i], isSum || (inSum && e instanceof Negate));
+				changed |= newOperands[i] != operands[i];
+			}
+			rlt = changed ? rebuild(e, newOperands) : e;
+			if(inlinePow)
+				rlt = reducePow(rlt);
+			if(relaxedMath)
+				rlt = foldReciprocal(rlt);
+			else if(rlt instanceof Exp)
+				rlt = new Pow(SymMath.E, ((Exp)rlt).arg2);
+			if(fma)
+				rlt = fuse(rlt);
+		}
+		done.put(e, rlt);
+		return rlt;
+	}
+
+	/**
+	 * Return a new expression of the same operation as e on the given operands
+	 * (see BytecodeUtils.getOperands()) or e if the operation is not rebuilt
+	 */
+	static Expr rebuild(Expr e, Expr[] ops) {
+		if(e instanceof Add)
+			return new Add(ops[0], ops[1]);
+		else if(e instanceof Subtract)
+			return new Subtract(ops[0], ops[1]);
+		else if(e instanceof Multiply)
+			return new Multiply(ops[0], ops[1]);
+		else if(e instanceof Divide)
+			return new Divide(ops[0], ops[1]);
+		else if(e instanceof Exp)
+			return new Exp(ops[0]);
+		else if(e instanceof Pow)
+			return new Pow(ops[0], ops[1]);
+		else if(e instanceof Sqrt)
+			return new Sqrt(ops[0], ops[1]);
+		else if(e instanceof Log)
+			return new Log(ops[0], ops[1]);
+		else if(e instanceof Negate)
+			return new Negate(ops[0]);
+		else if(e instanceof Reciprocal)
+			return new Reciprocal(ops[1]);
+		else if(e instanceof Sin)
+			return new Sin(ops[0]);
+		else if(e instanceof Cos)
+			return new Cos(ops[0]);
+		else if(e instanceof Tan)
+			return new Tan(ops[0]);
+		else if(e instanceof MultiplyAdd)
+			return new MultiplyAdd(ops[0], ops[1], ops[2]);
+		return e;
+	}
+
+	/**
+	 * Strength reduction of the powers with a constant exponent n, |n| &lt;= MAX_INLINE_POW:
+	 * <pre>
+	 * x^n         -&gt; multiplications of x, x^2, x^4, ... (see pow())
+	 * x^-n        -&gt; 1/x^n
+	 * </pre>
+	 * The other exponents are left to Math.pow(). x^(n+1/2) is not rewritten
+	 * to x^n*sqrt(x) since it is not the same for x = -Infinity (NaN instead
+	 * of Infinity) and x = -0.0.
+	 */
+	static Expr reducePow(Expr e) {
+		if(e instanceof Pow && !(e instanceof Exp) && ((Pow)e).arg2 instanceof SymReal<?>) {
+			Pow p = (Pow)e;
+			double n = ((SymReal<?>)p.arg2).getDoubleValue();
+			double absN = Math.abs(n);
+			if(absN > MAX_INLINE_POW)
+				return e;
+			if(absN != Math.floor(absN))
+				return e;
+			if(absN == 0.0)
+				return new SymDouble(1.0);
+			Expr rlt = pow(p.arg1, (int)absN);
+			return n < 0 ? new Reciprocal(rlt) : rlt;
+		}
+		return e;
+	}
+
+	/**
+	 * a*(1/b) -&gt; a/b, one division instead of a division and a multiplication.
+	 * The result may differ in the last bit, it is done only if relaxedMath is on.
+	 */
+	static Expr foldReciprocal(Expr e) {
+		if(e instanceof Multiply) {
+			Multiply m = (Multiply)e;
+			if(m.arg2 instanceof Reciprocal)
+				return new Divide(m.arg1, ((Reciprocal)m.arg2).arg);
+			if(m.arg1 instanceof Reciprocal)
+				return new Divide(m.arg2, ((Reciprocal)m.arg1).arg);
+		}
+		return e;
+	}
+
+	/**
+	 * base^n by the multiplications in BytecodeSupport.powi(): the squares
+	 * base^2, base^4, ... for the bits of n are multiplied from the lowest bit,
+	 * so the value is the same as powi(). The squares are shared by CommonSubExprs.
+	 * 
+	 * @param base
+	 * @param n &gt; 0
+	 * @return
+	 */
+	static Expr pow(Expr base, int n) {
+		Expr rlt = null;
+		Expr square = base;
+		for(int mask = n; mask > 0; mask >>>= 1) {
+			if(mask != n)
+				square = new Multiply(square, square);
+			if((mask & 0x1) > 0)
+				rlt = rlt == null ? square : new Multiply(rlt, square);
+		}
+		return rlt;
+	}
+
+	/**
+	 * a*b + c -&gt; fma(a, b, c) and a*b - r -&gt; fma(a, b, -r) for a constant r
+	 */
+	static Expr fuse(Expr e) {
+		if(e instanceof Add) {
+			Add add = (Add)e;
+			if(add.arg1 instanceof Multiply) {
+				Multiply m = (Multiply)add.arg1;
+				return new MultiplyAdd(m.arg1, m.arg2, add.arg2);
+			} else if(add.arg2 instanceof Multiply) {
+				Multiply m = (Multiply)add.arg2;
+				return new MultiplyAdd(m.arg1, m.arg2, add.arg1);
+			}
+		} else if(e instanceof Subtract) {
+			Subtract sub = (Subtract)e;
+			if(sub.arg1 instanceof Multiply && sub.arg2 instanceof SymReal<?>) {
+				Multiply m = (Multiply)sub.arg1;
+				return new MultiplyAdd(m.arg1, m.arg2, new SymDouble(-((SymReal<?>)sub.arg2).getDoubleValue()));
+			} else if(sub.arg2 instanceof Multiply) {
+				Multiply m = (Multiply)sub.arg2;
+				if(m.arg1 instanceof SymReal<?>)
+					return new MultiplyAdd(new SymDouble(-((SymReal<?>)m.arg1).getDoubleValue()), m.arg2, sub.arg1);
+				if(m.arg2 instanceof SymReal<?>)
+					return new MultiplyAdd(m.arg1, new SymDouble(-((SymReal<?>)m.arg2).getDoubleValue()), sub.arg1);
+			}
+		}
+		return e;
+	}
+
+	/**
+	 * c*x^k with c free of x, c = num * mul[0] * ... / (div[0] * ...)
+	 */
+	static class Monomial {
+		int degree = 0;
+		double num = 1.0;
+		List<Expr> mul = new ArrayList<Expr>();
+		List<Expr> div = new ArrayList<Expr>();
+	}
+
+	/**
+	 * Rewrite a sum which is a polynomial in a symbol x of degree 2 or higher
+	 * into the Horner form (((c_n*x + c_{n-1})*x + ...)*x + c_0, or return null.
+	 * The symbol giving the highest degree is chosen.
+	 */
+	Expr toHorner(Expr sum) {
+		List<Expr> terms = new ArrayList<Expr>();
+		List<Boolean> negs = new ArrayList<Boolean>();
+		addTerms(sum, false, terms, negs);
+		if(terms.size() < 2)
+			return null;
+		List<Symbol> candidates = new ArrayList<Symbol>();
+		for(Expr term : terms)
+			addCandidates(term, candidates);
+		Symbol bestX = null;
+		List<Monomial> best = null;
+		int bestDegree = 1;
+		for(Symbol x : candidates) {
+			List<Monomial> monos = new ArrayList<Monomial>();
+			int degree = 0;
+			for(int i=0; i<terms.size(); i++) {
+				Monomial m = new Monomial();
+				if(negs.get(i))
+					m.num = -1.0;
+				if(!addFactors(terms.get(i), x, m, false)) {
+					monos = null;
+					break;
+				}
+				monos.add(m);
+				degree = Math.max(degree, m.degree);
+			}
+			if(monos != null && degree > bestDegree && degree <= MAX_HORNER_DEGREE) {
+				bestX = x;
+				best = monos;
+				bestDegree = degree;
+			}
+		}
+		if(best == null)
+			return null;
+
+		//Sum up the coefficients of each degree, the constant parts are added up
+		double[] nums = new double[bestDegree+1];
+		Expr[] syms = new Expr[bestDegree+1];
+		for(Monomial m : best) {
+			if(m.mul.isEmpty() && m.div.isEmpty()) {
+				nums[m.degree] += m.num;
+			} else {
+				Expr c = toCoefficient(m);
+				syms[m.degree] = syms[m.degree] == null ? c : new Add(syms[m.degree], c);
+			}
+		}
+		int nonZero = 0;
+		for(int k=0; k<=bestDegree; k++) {
+			if(syms[k] != null || nums[k] != 0.0)
+				nonZero++;
+		}
+		if(nonZero < 2)
+			return null;
+
+		//acc == null stands for 1
+		Expr acc = syms[bestDegree] == null && nums[bestDegree] == 1.0 ? null :
+				getCoefficient(nums[bestDegree], syms[bestDegree]);
+		for(int k=bestDegree-1; k>=0; k--) {
+			Expr c = getCoefficient(nums[k], syms[k]);
+			if(acc == null)
+				acc = c == null ? bestX : new Add(bestX, c);
+			else if(c == null)
+				acc = new Multiply(acc, bestX);
+			else if(fma)
+				acc = new MultiplyAdd(acc, bestX, c);
+			else
+				acc = new Add(new Multiply(acc, bestX), c);
+		}
+		return acc;
+	}
+
+	static void addTerms(Expr e, boolean neg, List<Expr> terms, List<Boolean> negs) {
+		e = BytecodeUtils.getEmitExpr(e);
+		if(e instanceof Add) {
+			addTerms(((Add)e).arg1, neg, terms, negs);
+			addTerms(((Add)e).arg2, neg, terms, negs);
+		} else if(e instanceof Subtract) {
+			addTerms(((Subtract)e).arg1, neg, terms, negs);
+			addTerms(((Subtract)e).arg2, !neg, terms, negs);
+		} else if(e instanceof Negate) {
+			addTerms(((Negate)e).arg, !neg, terms, negs);
+		} else {
+			terms.add(e);
+			negs.add(neg);
+		}
+	}
+
+	/**
+	 * Add the symbols which are factors of term or bases of integer powers in term
+	 */
+	static void addCandidates(Expr term, List<Symbol> candidates) {
+		term = BytecodeUtils.getEmitExpr(term);
+		if(term instanceof Multiply) {
+			addCandidates(((Multiply)term).arg1, candidates);
+			addCandidates(((Multiply)term).arg2, candidates);
+		} else if(term instanceof Divide) {
+			addCandidates(((Divide)term).arg1, candidates);
+		} else if(term instanceof Negate) {
+			addCandidates(((Negate)term).arg, candidates);
+		} else if(term instanceof Pow) {
+			addCandidates(((Pow)term).arg1, candidates);
+		} else if(term instanceof Symbol) {
+			for(Symbol s : candidates) {
+				if(s.symEquals(term))
+					return;
+			}
+			candidates.add((Symbol)term);
+		}
+	}
+
+	/**
+	 * Add the factors of e to m, return false if e is not a monomial in x
+	 */
+	boolean addFactors(Expr e, Symbol x, Monomial m, boolean divide) {
+		e = BytecodeUtils.getEmitExpr(e);
+		if(e instanceof Multiply) {
+			return addFactors(((Multiply)e).arg1, x, m, divide) &&
+					addFactors(((Multiply)e).arg2, x, m, divide);
+		} else if(e instanceof Divide) {
+			return addFactors(((Divide)e).arg1, x, m, divide) &&
+					addFactors(((Divide)e).arg2, x, m, !divide);
+		} else if(e instanceof Reciprocal) {
+			return addFactors(((Reciprocal)e).arg, x, m, !divide);
+		} else if(e instanceof Negate) {
+			m.num = -m.num;
+			return addFactors(((Negate)e).arg, x, m, divide);
+		} else if(e instanceof SymReal<?> && !((SymReal<?>)e).isZero()) {
+			double v = ((SymReal<?>)e).getDoubleValue();
+			m.num = divide ? m.num/v : m.num*v;
+			return true;
+		} else if(e instanceof Symbol && e.symEquals(x)) {
+			m.degree++;
+			return !divide;
+		} else if(e instanceof Pow && ((Pow)e).arg1 instanceof Symbol && ((Pow)e).arg1.symEquals(x)) {
+			Expr exponent = ((Pow)e).arg2;
+			if(divide || !(exponent instanceof SymReal<?>) || !((SymReal<?>)exponent).isInteger())
+				return false;
+			int k = ((SymReal<?>)exponent).getIntValue();
+			m.degree += k;
+			return k > 0;
+		} else if(Utils.containSymbol(e, x)) {
+			return false;
+		}
+		if(divide)
+			m.div.add(apply(e));
+		else
+			m.mul.add(apply(e));
+		return true;
+	}
+
+	static Expr toCoefficient(Monomial m) {
+		Expr rlt = null;
+		for(Expr e : m.mul)
+			rlt = rlt == null ? e : new Multiply(rlt, e);
+		if(rlt == null)
+			rlt = new SymDouble(m.num);
+		else if(m.num == -1.0)
+			rlt = new Negate(rlt);
+		else if(m.num != 1.0)
+			rlt = new Multiply(new SymDouble(m.num), rlt);
+		Expr den = null;
+		for(Expr e : m.div)
+			den = den == null ? e : new Multiply(den, e);
+		return den == null ? rlt : new Divide(rlt, den);
+	}
+
+	/**
+	 * Return num + sym, or null if it is zero
+	 */
+	static Expr getCoefficient(double num, Expr sym) {
+		if(sym == null)
+			return num == 0.0 ? null : new SymDouble(num);
+		return num == 0.0 ? sym : new Add(sym, new SymDouble(num));
+	}
+}
@@ -0,0 +1,226 @@
+package symjava.symbolic.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import symjava.logic.Logic;
+import symjava.relational.Relation;
+import symjava.symbolic.Expr;
+import symjava.symbolic.Integrate;
+import symjava.symbolic.Symbol;
+
+/**
+ * Common subexpression elimination for the generated bytecode.
+ *
+ * Each subexpression gets a value number. Two subexpressions have the same
+ * number if they are the same operation on operands with the same numbers,
+ * so structurally equal subtrees are found without comparing their labels.
+ * A subexpression which is used more than once is computed only once by
+ * the generated code, stored in a local variable and loaded from it afterwards.
+ *
+ * Usage: call add() for every expression compiled into the same method
+ * before generating any instruction for them.
+ */
+public class CommonSubExprs {
+	/**
+	 * Value numbers of the visited expression objects
+	 */
+	Map<Expr, Integer> numbers = new IdentityHashMap<Expr, Integer>();
+
+	/**
+	 * Value number of each operation key
+	 */
+	Map<String, Integer> keys = new HashMap<String, Integer>();
+
+	/**
+	 * Operation key of each value number
+	 */
+	List<String> numKeys = new ArrayList<String>();
+	
+	boolean hasIntegrate = false;
+
+	/**
+	 * Number of uses of each value number after the elimination
+	 */
+	List<Integer> refCount = new ArrayList<Integer>();
+
+	/**
+	 * Index of the local variable holding the value of a value number
+	 */
+	Map<Integer, Integer> locals = new HashMap<Integer, Integer>();
+
+	/**
+	 * Subexpressions computed by another method of the generated class and
+	 * their indices in the double[] array held by the local variable hoistedArray
+	 */
+	Map<Expr, Integer> hoisted = Collections.emptyMap();
+	int hoistedArray = -1;
+
+	/**
+	 * Count the uses of the subexpressions of expr
+	 * @param expr
+	 */
+	public void add(Expr expr) {
+		expr = BytecodeUtils.getEmitExpr(expr);
+		if(expr == null) return;
+		int num = getNumber(expr);
+		int count = refCount.get(num) + 1;
+		refCount.set(num, count);
+		//The operands of a repeated subexpression are evaluated only once
+		//and the operands of a hoisted one are not evaluated at all
+		if(count == 1 && !hoisted.containsKey(expr)) {
+			for(Expr arg : BytecodeUtils.getOperands(expr))
+				add(arg);
+		}
+	}
+
+	/**
+	 * Return the value number of expr
+	 * @param expr
+	 * @return
+	 */
+	public int getNumber(Expr expr) {
+		Integer num = numbers.get(expr);
+		if(num != null)
+			return num;
+		Expr[] operands = BytecodeUtils.getOperands(expr);
+		StringBuilder sb = new StringBuilder();
+		sb.append(expr.getClass().getName());
+		if(operands.length == 0)
+			sb.append(':').append(expr.getLabel());
+		sb.append('(');
+		for(Expr arg : operands) {
+			arg = BytecodeUtils.getEmitExpr(arg);
+			sb.append(arg == null ? -1 : getNumber(arg)).append(',');
+		}
+		sb.append(')');
+		String key = sb.toString();
+		if(expr instanceof Integrate) {
+			//The operands of an integral are only the bounds, never share it
+			num = refCount.size();
+			hasIntegrate = true;
+		} else {
+			num = keys.get(key);
+			if(num == null) {
+				num = refCount.size();
+				keys.put(key, num);
+			}
+		}
+		if(num == refCount.size()) {
+			refCount.add(0);
+			numKeys.add(key);
+		}
+		numbers.put(expr, num);
+		return num;
+	}
+
+	/**
+	 * Return true if the value of expr should be kept in a local variable.
+	 * Only operations returning a double value and used more than once are kept.
+	 * @param expr
+	 * @return
+	 */
+	public boolean isShared(Expr expr) {
+		if(expr instanceof Relation || expr instanceof Logic || expr instanceof Integrate)
+			return false;
+		if(BytecodeUtils.getOperands(expr).length == 0)
+			return false;
+		return refCount.get(getNumber(expr)) > 1;
+	}
+
+	/**
+	 * Return the arguments in argsMap which are used more than once, 
+	 * ordered by their index in the argument array
+	 * 
+	 * @param argsMap
+	 * @return
+	 */
+	public List<Expr> getRepeatedArgs(Map<Expr, Integer> argsMap) {
+		Map<Integer, Expr> args = new TreeMap<Integer, Expr>();
+		for(Map.Entry<Expr, Integer> e : numbers.entrySet()) {
+			Integer argIdx = argsMap.get(e.getKey());
+			if(e.getKey() instanceof Symbol && argIdx != null && refCount.get(e.getValue()) > 1)
+				args.put(argIdx, e.getKey());
+		}
+		return new ArrayList<Expr>(args.values());
+	}
+
+	/**
+	 * Return the index of the local variable holding the value of expr
+	 * or null if it has not been computed yet
+	 * @param expr
+	 * @return
+	 */
+	public Integer getLocal(Expr expr) {
+		return locals.get(getNumber(expr));
+	}
+
+	public void setLocal(Expr expr, int localIndex) {
+		locals.put(getNumber(expr), localIndex);
+	}
+
+	/**
+	 * Load the subexpressions in slots (structurally equal keys) from the 
+	 * double[] array in the local variable arrayIndex instead of computing them.
+	 * It must be called before add().
+	 * 
+	 * @param slots
+	 * @param arrayIndex
+	 */
+	public void setHoisted(Map<Expr, Integer> slots, int arrayIndex) {
+		this.hoisted = slots;
+		this.hoistedArray = arrayIndex;
+	}
+
+	/**
+	 * Return the index of expr in the array of hoisted subexpressions
+	 * or null if it is not hoisted
+	 * @param expr
+	 * @return
+	 */
+	public Integer getHoisted(Expr expr) {
+		return hoisted.get(expr);
+	}
+
+	/**
+	 * Return a string which is the same for structurally equal expressions.
+	 * The value numbers of exprs are followed by the operation keys listed
+	 * by value number, so shared subexpressions are written only once.
+	 * 
+	 * @param exprs
+	 * @return
+	 */
+	public String getCanonicalKey(Expr ...exprs) {
+		StringBuilder sb = new StringBuilder();
+		for(Expr e : exprs) {
+			e = BytecodeUtils.getEmitExpr(e);
+			sb.append(e == null ? -1 : getNumber(e)).append(';');
+		}
+		for(String key : numKeys) {
+			sb.append(key).append(';');
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Return true if an integral has been numbered. An integral is not 
+	 * identified by its operands, see getNumber()
+	 * @return
+	 */
+	public boolean hasIntegrate() {
+		return hasIntegrate;
+	}
+
+	/**
+	 * Number of distinct subexpressions
+	 * @return
+	 */
+	public int size() {
+		return refCount.size();
+	}
+}
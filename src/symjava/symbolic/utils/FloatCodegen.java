@@ -0,0 +1,400 @@
+package symjava.symbolic.utils;
+
+import static org.apache.bcel.Const.*;
+
+import java.util.HashMap;
+
+import symjava.logic.And;
+import symjava.logic.Logic;
+import symjava.logic.Not;
+import symjava.logic.Or;
+import symjava.logic.Xor;
+import symjava.relational.Eq;
+import symjava.relational.Ge;
+import symjava.relational.Gt;
+import symjava.relational.Le;
+import symjava.relational.Lt;
+import symjava.relational.Relation;
+import symjava.symbolic.Add;
+import symjava.symbolic.Cos;
+import symjava.symbolic.Divide;
+import symjava.symbolic.Exp;
+import symjava.symbolic.Expr;
+import symjava.symbolic.Log;
+import symjava.symbolic.Multiply;
+import symjava.symbolic.MultiplyAdd;
+import symjava.symbolic.Negate;
+import symjava.symbolic.Pow;
+import symjava.symbolic.Reciprocal;
+import symjava.symbolic.Sin;
+import symjava.symbolic.Sqrt;
+import symjava.symbolic.Subtract;
+import symjava.symbolic.SymConst;
+import symjava.symbolic.SymReal;
+import symjava.symbolic.Symbol;
+import symjava.symbolic.Tan;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.AALOAD;
+import org.apache.bcel.generic.ALOAD;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.D2F;
+import org.apache.bcel.generic.DUP;
+import org.apache.bcel.generic.F2D;
+import org.apache.bcel.generic.FADD;
+import org.apache.bcel.generic.FALOAD;
+import org.apache.bcel.generic.FASTORE;
+import org.apache.bcel.generic.FCMPL;
+import org.apache.bcel.generic.FDIV;
+import org.apache.bcel.generic.FLOAD;
+import org.apache.bcel.generic.FMUL;
+import org.apache.bcel.generic.FNEG;
+import org.apache.bcel.generic.FSTORE;
+import org.apache.bcel.generic.FSUB;
+import org.apache.bcel.generic.GOTO;
+import org.apache.bcel.generic.I2F;
+import org.apache.bcel.generic.IADD;
+import org.apache.bcel.generic.IAND;
+import org.apache.bcel.generic.IFEQ;
+import org.apache.bcel.generic.IFGE;
+import org.apache.bcel.generic.IFGT;
+import org.apache.bcel.generic.IFLE;
+import org.apache.bcel.generic.IFLT;
+import org.apache.bcel.generic.IFNE;
+import org.apache.bcel.generic.IF_ICMPLT;
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.ILOAD;
+import org.apache.bcel.generic.IOR;
+import org.apache.bcel.generic.ISTORE;
+import org.apache.bcel.generic.IXOR;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LocalVariableGen;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.NOP;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.Type;
+
+/**
+ * Generate the classes of the functions compiled in single precision,
+ * see JIT.compileFloat() and JIT.compileFloatBatchFunc().
+ *
+ * The arguments, the local variables and the arithmetic operations are float
+ * (FALOAD, FADD, FMUL, ...). The elementary functions are computed by the
+ * double methods of Math with F2D and D2F around them. Integrals are not
+ * supported.
+ *
+ */
+public class FloatCodegen {
+
+	private FloatCodegen() {}
+
+	/**
+	 * Generate a class implementing FloatFunc:
+	 * public float apply(float[] args)
+	 *
+	 * @param className
+	 * @param expr
+	 * @param args
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static ClassGen genClassFloatFunc(String className, Expr expr, Expr[] args, JITOptions options) {
+		expr = CodegenRewriter.rewrite(expr, options);
+		String fullClsName = "symjava.bytecode."+className;
+		ClassGen cg = BytecodeUtils.newClassGen(fullClsName, "symjava.bytecode.FloatFunc");
+		ConstantPoolGen cp = cg.getConstantPool();
+		InstructionList il = new InstructionList();
+		InstructionFactory factory = new InstructionFactory(cg);
+		MethodGen mg = new MethodGen(ACC_PUBLIC,
+				Type.FLOAT,
+				new Type[] { new ArrayType(Type.FLOAT, 1) },
+				new String[] { "args" },
+				"apply", fullClsName,
+				il, cp);
+		if(options.isDebug())
+			System.out.println(className+": "+expr);
+
+		HashMap<Expr, Integer> argsMap = getArgsMap(args);
+		CommonSubExprs cse = new CommonSubExprs();
+		cse.add(expr);
+		addArgLocals(mg, cp, il, 1, -1, argsMap, cse);
+		addToInstructionList(mg, cp, factory, il, 1, -1, expr, argsMap, cse);
+		il.append(InstructionConst.FRETURN);
+
+		mg.setMaxStack();
+		cg.addMethod(mg.getMethod());
+		il.dispose();
+		cg.addEmptyConstructor(ACC_PUBLIC);
+		return cg;
+	}
+
+	/**
+	 * Generate a class implementing FloatBatchFunc:
+	 * <pre>
+	 * public void apply(float[] outAry, int outPos, int from, int to, float[][] args) {
+	 *     for(int i=from; i&lt;to; i++)
+	 *         outAry[outPos+i] = expr at args[*][i];
+	 * }
+	 * </pre>
+	 *
+	 * @param className
+	 * @param expr
+	 * @param args
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static ClassGen genClassFloatBatchFunc(String className, Expr expr, Expr[] args, JITOptions options) {
+		expr = CodegenRewriter.rewrite(expr, options);
+		String fullClsName = "symjava.bytecode."+className;
+		ClassGen cg = BytecodeUtils.newClassGen(fullClsName, "symjava.bytecode.FloatBatchFunc");
+		ConstantPoolGen cp = cg.getConstantPool();
+		InstructionList il = new InstructionList();
+		InstructionFactory factory = new InstructionFactory(cg);
+		MethodGen mg = new MethodGen(ACC_PUBLIC,
+				Type.VOID,
+				new Type[] {
+					new ArrayType(Type.FLOAT, 1),
+					Type.INT,
+					Type.INT,
+					Type.INT,
+					new ArrayType(Type.FLOAT, 2)
+				},
+				new String[] { "outAry", "outPos", "from", "to", "args" },
+				"apply", fullClsName,
+				il, cp);
+		if(options.isDebug())
+			System.out.println(className+": "+expr);
+
+		HashMap<Expr, Integer> argsMap = getArgsMap(args);
+		//int i = from;
+		LocalVariableGen lg = mg.addLocalVariable("i", Type.INT, null, null);
+		int idxI = lg.getIndex();
+		il.append(new ILOAD(3));
+		lg.setStart(il.append(new ISTORE(idxI)));
+
+		//Loop body: outAry[outPos+i] = expr
+		CommonSubExprs cse = new CommonSubExprs();
+		cse.add(expr);
+		InstructionHandle loopStart = il.append(new NOP());
+		addArgLocals(mg, cp, il, 5, idxI, argsMap, cse);
+		il.append(new ALOAD(1));
+		il.append(new ILOAD(2));
+		il.append(new ILOAD(idxI));
+		il.append(new IADD());
+		addToInstructionList(mg, cp, factory, il, 5, idxI, expr, argsMap, cse);
+		il.append(new FASTORE());
+
+		//i++; while(i < to)
+		il.append(new IINC(idxI, 1));
+		InstructionHandle loopCmp = il.append(new ILOAD(idxI));
+		il.append(new ILOAD(4));
+		il.append(new IF_ICMPLT(loopStart));
+		il.insert(loopStart, new GOTO(loopCmp));
+		il.append(InstructionConst.RETURN);
+
+		mg.setMaxStack();
+		cg.addMethod(mg.getMethod());
+		il.dispose();
+		cg.addEmptyConstructor(ACC_PUBLIC);
+		return cg;
+	}
+
+	private static HashMap<Expr, Integer> getArgsMap(Expr[] args) {
+		HashMap<Expr, Integer> argsMap = new HashMap<Expr, Integer>();
+		for(int i=0; i<args.length; i++) {
+			argsMap.put(args[i], i);
+		}
+		return argsMap;
+	}
+
+	/**
+	 * args[idx] or args[idx][i] for batch functions (idxI &gt;= 0)
+	 */
+	private static void pushSymbol(ConstantPoolGen cp, InstructionList il, int argsIndex, int idx, int idxI) {
+		il.append(new ALOAD(argsIndex));
+		il.append(new PUSH(cp, idx));
+		if(idxI >= 0) {
+			il.append(new AALOAD());
+			il.append(new ILOAD(idxI));
+		}
+		il.append(new FALOAD());
+	}
+
+	/**
+	 * Load each argument which is used more than once into a float local variable,
+	 * see BytecodeUtils.addArgLocals()
+	 */
+	private static void addArgLocals(MethodGen mg, ConstantPoolGen cp, InstructionList il,
+			int argsIndex, int idxI, HashMap<Expr, Integer> argsMap, CommonSubExprs cse) {
+		for(Expr arg : cse.getRepeatedArgs(argsMap)) {
+			LocalVariableGen lg = mg.addLocalVariable("arg"+argsMap.get(arg), Type.FLOAT, null, null);
+			pushSymbol(cp, il, argsIndex, argsMap.get(arg), idxI);
+			il.append(new FSTORE(lg.getIndex()));
+			cse.setLocal(arg, lg.getIndex());
+		}
+	}
+
+	private static void addToInstructionList(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il,
+			int argsIndex, int idxI, Expr expr, HashMap<Expr, Integer> argsMap, CommonSubExprs cse) {
+		Expr e = BytecodeUtils.getEmitExpr(expr);
+		if(e == null) {
+			throw new RuntimeException("Expressionis empty. Nothing to generate!");
+		}
+		addSubExpr(mg, cp, factory, il, argsIndex, idxI, e, expr, argsMap, cse);
+		if(e instanceof Relation || e instanceof Logic) {
+			il.append(new I2F());
+		}
+	}
+
+	private static void addSubExpr(MethodGen mg, ConstantPoolGen cp, InstructionFactory factory, InstructionList il,
+			int argsIndex, int idxI, Expr ins, Expr expr, HashMap<Expr, Integer> argsMap, CommonSubExprs cse) {
+		boolean shared = cse.isShared(ins);
+		if(shared) {
+			Integer local = cse.getLocal(ins);
+			if(local != null) {
+				il.append(new FLOAD(local));
+				return;
+			}
+		}
+		if(ins instanceof Symbol) {
+			Integer argIdx = argsMap.get(ins);
+			if(argIdx == null) {
+				throw new IllegalArgumentException(ins+" is not in the argument list of "+expr.getLabel());
+			}
+			Integer local = cse.getLocal(ins);
+			if(local != null)
+				il.append(new FLOAD(local));
+			else
+				pushSymbol(cp, il, argsIndex, argIdx, idxI);
+		} else if(ins instanceof SymReal<?>) {
+			il.append(new PUSH(cp, ((SymReal<?>)ins).getFloatValue()));
+		} else if(ins instanceof SymConst) {
+			il.append(new PUSH(cp, (float)((SymConst)ins).getValue()));
+		} else if(ins instanceof Pow && ((Pow)ins).arg2 instanceof SymReal<?> &&
+				((SymReal<?>)((Pow)ins).arg2).isInteger()) {
+			//powi(double, int), the exponent is not pushed
+			addSubExpr(mg, cp, factory, il, argsIndex, idxI, BytecodeUtils.getEmitExpr(((Pow)ins).arg1), expr, argsMap, cse);
+			il.append(new F2D());
+			il.append(new PUSH(cp, ((SymReal<?>)((Pow)ins).arg2).getIntValue()));
+			il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "powi",
+					Type.DOUBLE, new Type[] { Type.DOUBLE, Type.INT }, Const.INVOKESTATIC));
+			il.append(new D2F());
+		} else if(ins instanceof Sqrt && ((Sqrt)ins).arg2 instanceof SymReal<?> &&
+				((SymReal<?>)((Sqrt)ins).arg2).getIntValue() == 2) {
+			addSubExpr(mg, cp, factory, il, argsIndex, idxI, BytecodeUtils.getEmitExpr(((Sqrt)ins).arg1), expr, argsMap, cse);
+			il.append(new F2D());
+			il.append(factory.createInvoke("java.lang.Math", "sqrt",
+					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
+			il.append(new D2F());
+		} else {
+			boolean toDouble = isDoubleFunc(ins);
+			for(Expr arg : BytecodeUtils.getOperands(ins)) {
+				arg = BytecodeUtils.getEmitExpr(arg);
+				if(arg != null)
+					addSubExpr(mg, cp, factory, il, argsIndex, idxI, arg, expr, argsMap, cse);
+				if(toDouble)
+					il.append(new F2D());
+			}
+			addOp(cp, factory, il, ins);
+			if(toDouble)
+				il.append(new D2F());
+		}
+		if(shared) {
+			LocalVariableGen lg = mg.addLocalVariable("cse"+cse.getNumber(ins), Type.FLOAT, null, null);
+			il.append(new DUP());
+			il.append(new FSTORE(lg.getIndex()));
+			cse.setLocal(ins, lg.getIndex());
+		}
+	}
+
+	/**
+	 * Return true if ins is computed by a double method, its operands
+	 * are converted by F2D and the result by D2F
+	 */
+	private static boolean isDoubleFunc(Expr ins) {
+		return ins instanceof Pow || ins instanceof Sqrt || ins instanceof Log ||
+				ins instanceof Sin || ins instanceof Cos || ins instanceof Tan;
+	}
+
+	private static void addOp(ConstantPoolGen cp, InstructionFactory factory, InstructionList il, Expr ins) {
+		if(ins instanceof Add) {
+			il.append(new FADD());
+		} else if(ins instanceof Subtract) {
+			il.append(new FSUB());
+		} else if(ins instanceof Multiply) {
+			il.append(new FMUL());
+		} else if(ins instanceof Divide || ins instanceof Reciprocal) {
+			il.append(new FDIV());
+		} else if(ins instanceof Negate) {
+			il.append(new FNEG());
+		} else if(ins instanceof MultiplyAdd) {
+			il.append(factory.createInvoke("java.lang.Math", "fma",
+					Type.FLOAT, new Type[] { Type.FLOAT, Type.FLOAT, Type.FLOAT }, Const.INVOKESTATIC));
+		} else if(ins instanceof Exp) {
+			il.append(factory.createInvoke("java.lang.Math", "exp",
+					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
+		} else if(ins instanceof Pow) {
+			il.append(factory.createInvoke("java.lang.Math", "pow",
+					Type.DOUBLE, new Type[] { Type.DOUBLE, Type.DOUBLE }, Const.INVOKESTATIC));
+		} else if(ins instanceof Sqrt) {
+			il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "sqrt",
+					Type.DOUBLE, new Type[] { Type.DOUBLE, Type.DOUBLE }, Const.INVOKESTATIC));
+		} else if(ins instanceof Log) {
+			il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "log",
+					Type.DOUBLE, new Type[] { Type.DOUBLE, Type.DOUBLE }, Const.INVOKESTATIC));
+		} else if(ins instanceof Sin) {
+			il.append(factory.createInvoke("java.lang.Math", "sin",
+					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
+		} else if(ins instanceof Cos) {
+			il.append(factory.createInvoke("java.lang.Math", "cos",
+					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
+		} else if(ins instanceof Tan) {
+			il.append(factory.createInvoke("java.lang.Math", "tan",
+					Type.DOUBLE, new Type[] { Type.DOUBLE }, Const.INVOKESTATIC));
+		} else if(ins instanceof Relation) {
+			addRelation(cp, il, ins);
+		} else if(ins instanceof And) {
+			il.append(new IAND());
+		} else if(ins instanceof Or) {
+			il.append(new IOR());
+		} else if(ins instanceof Xor) {
+			il.append(new IXOR());
+		} else if(ins instanceof Not) {
+			il.append(new PUSH(cp, 1));
+			il.append(new IXOR());
+		} else {
+			throw new RuntimeException(ins.getClass() + " is not supported in this version when generating float function!");
+		}
+	}
+
+	/**
+	 * Compare the two float values on the stack, push 1 if the relation holds, otherwise 0
+	 */
+	private static void addRelation(ConstantPoolGen cp, InstructionList il, Expr ins) {
+		il.append(new FCMPL());
+		InstructionHandle iconst1 = il.append(new PUSH(cp, 1));
+		InstructionHandle iconst0 = il.append(new PUSH(cp, 0));
+		InstructionHandle nop = il.append(new NOP());
+		BranchInstruction ifNot;
+		if(ins instanceof Gt)
+			ifNot = new IFLE(iconst0);
+		else if(ins instanceof Ge)
+			ifNot = new IFLT(iconst0);
+		else if(ins instanceof Lt)
+			ifNot = new IFGE(iconst0);
+		else if(ins instanceof Le)
+			ifNot = new IFGT(iconst0);
+		else if(ins instanceof Eq)
+			ifNot = new IFNE(iconst0);
+		else
+			ifNot = new IFEQ(iconst0); //Neq
+		il.insert(iconst1, ifNot);
+		il.insert(iconst0, new GOTO(nop));
+	}
+}
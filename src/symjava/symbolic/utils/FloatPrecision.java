@@ -0,0 +1,124 @@
+package symjava.symbolic.utils;
+
+import java.util.Random;
+
+import symjava.bytecode.BytecodeFunc;
+import symjava.bytecode.FloatFunc;
+import symjava.symbolic.Expr;
+
+/**
+ * Compare a function compiled in single precision with the double one
+ * on sample points, e.g. before switching a kernel to JIT.compileFloat().
+ *
+ * The double function is evaluated at the points rounded to float, so the
+ * errors are the errors of the float evaluation, not of the rounding of
+ * the arguments.
+ *
+ */
+public class FloatPrecision {
+	int points = 0;
+	double maxAbsError = 0.0;
+	double maxRelError = 0.0;
+	double[] worstPoint = null;
+
+	public int getPoints() {
+		return points;
+	}
+
+	public double getMaxAbsError() {
+		return maxAbsError;
+	}
+
+	/**
+	 * |float - double| / |double|, the denominator is at least Float.MIN_NORMAL
+	 *
+	 * @return
+	 */
+	public double getMaxRelError() {
+		return maxRelError;
+	}
+
+	/**
+	 * The point of the largest relative error
+	 *
+	 * @return
+	 */
+	public double[] getWorstPoint() {
+		return worstPoint;
+	}
+
+	public boolean isWithin(double relTolerance) {
+		return maxRelError <= relTolerance;
+	}
+
+	/**
+	 * Compile expr in double and in single precision and compare them
+	 *
+	 * @param args
+	 * @param expr
+	 * @param points points[i] is the arguments of the point i
+	 * @return
+	 */
+	public static FloatPrecision check(Expr[] args, Expr expr, double[][] points) {
+		return check(JIT.compileFloat(args, expr), JIT.compile(args, expr), points);
+	}
+
+	/**
+	 * Compare the functions at random points with each argument uniformly
+	 * distributed in [min, max)
+	 *
+	 * @param args
+	 * @param expr
+	 * @param min
+	 * @param max
+	 * @param n number of points
+	 * @param seed
+	 * @return
+	 */
+	public static FloatPrecision check(Expr[] args, Expr expr, double min, double max, int n, long seed) {
+		Random rand = new Random(seed);
+		double[][] points = new double[n][args.length];
+		for(int i=0; i<n; i++) {
+			for(int j=0; j<args.length; j++)
+				points[i][j] = min + rand.nextDouble()*(max - min);
+		}
+		return check(args, expr, points);
+	}
+
+	public static FloatPrecision check(FloatFunc f, BytecodeFunc d, double[][] points) {
+		FloatPrecision rlt = new FloatPrecision();
+		for(double[] point : points) {
+			float[] fArgs = new float[point.length];
+			double[] dArgs = new double[point.length];
+			for(int j=0; j<point.length; j++) {
+				fArgs[j] = (float)point[j];
+				dArgs[j] = fArgs[j];
+			}
+			double expected = d.apply(dArgs);
+			double actual = f.apply(fArgs);
+			double absError, relError;
+			if(Double.compare(expected, actual) == 0) {
+				absError = relError = 0.0;
+			} else if(Double.isNaN(expected) || Double.isInfinite(expected) ||
+					Double.isNaN(actual) || Double.isInfinite(actual)) {
+				//e.g. overflow of float
+				absError = relError = Double.POSITIVE_INFINITY;
+			} else {
+				absError = Math.abs(actual - expected);
+				relError = absError / Math.max(Math.abs(expected), Float.MIN_NORMAL);
+			}
+			rlt.points++;
+			rlt.maxAbsError = Math.max(rlt.maxAbsError, absError);
+			if(rlt.worstPoint == null || relError > rlt.maxRelError) {
+				rlt.maxRelError = relError;
+				rlt.worstPoint = dArgs;
+			}
+		}
+		return rlt;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("points=%d maxAbsError=%g maxRelError=%g", points, maxAbsError, maxRelError);
+	}
+}
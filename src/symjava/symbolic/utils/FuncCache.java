@@ -0,0 +1,174 @@
+package symjava.symbolic.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import symjava.symbolic.Expr;
+
+/**
+ * A bounded cache of compiled functions (BytecodeFunc, BytecodeVecFunc,
+ * BytecodeBatchFunc) keyed by the structure of the compiled expressions.
+ *
+ * The least recently used function is evicted when the cache is full.
+ * The classes are defined by FuncLoader, so the generated class can be 
+ * unloaded once an evicted function is no longer used.
+ * 
+ * If a ClassCache is set, the classes are also stored on disk and a function 
+ * not found in memory is loaded from the ClassCache before it is compiled.
+ */
+public class FuncCache {
+	int maxSize;
+	long hits = 0;
+	long misses = 0;
+	long diskHits = 0;
+	ClassCache classCache = null;
+
+	LinkedHashMap<String, Object> funcs = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+			return size() > maxSize;
+		}
+	};
+
+	/**
+	 *
+	 * @param maxSize the maximum number of functions in the cache, 0 disables the cache
+	 */
+	public FuncCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Return a key for the function of the given type which evaluates exprs
+	 * with arguments args, or null if the function should not be cached
+	 *
+	 * @param type
+	 * @param args
+	 * @param exprs
+	 * @return
+	 */
+	public static String getKey(String type, Expr[] args, Expr ...exprs) {
+		CommonSubExprs cse = new CommonSubExprs();
+		String key = cse.getCanonicalKey(exprs);
+		//The integrands of an integral are held in static fields, which are not stored by ClassCache
+		if(cse.hasIntegrate())
+			return null;
+		return type + "(" + Utils.joinLabels(args, ",") + ")" + exprs.length + ":" + key;
+	}
+
+	/**
+	 * Return the cached function for key or null if there is no such function
+	 *
+	 * @param key
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> T get(String key) {
+		if(key == null || (maxSize <= 0 && classCache == null))
+			return null;
+		Object func = funcs.get(key);
+		if(func == null && classCache != null) {
+			GeneratedClass entry = classCache.get(key);
+			if(entry != null) {
+				try {
+					func = FuncLoader.newInstance(entry.className, entry.bytes);
+				} catch (LinkageError e) {
+					//Compile it again if the stored class is not valid
+					System.err.println(e);
+				}
+			}
+			if(func != null) {
+				funcs.put(key, func);
+				diskHits++;
+			}
+		}
+		if(func == null)
+			misses++;
+		else
+			hits++;
+		return (T)func;
+	}
+
+	/**
+	 * Return an instance of the class generated for key and cache it
+	 *
+	 * @param key
+	 * @param gc
+	 * @param options the class file is written as set in it, see JITOptions.dump()
+	 * @return
+	 */
+	public <T> T newInstance(String key, GeneratedClass gc, JITOptions options) {
+		options.dump(gc);
+		T func;
+		try {
+			func = FuncLoader.newInstance(gc);
+		} catch (LinkageError e) {
+			options.dumpOnError(gc);
+			throw e;
+		}
+		put(key, func);
+		ClassCache cc = getClassCache();
+		if(cc != null && key != null && func != null)
+			cc.put(key, gc.className, gc.bytes);
+		return func;
+	}
+
+	public synchronized void put(String key, Object func) {
+		if(key == null || func == null || maxSize <= 0)
+			return;
+		funcs.put(key, func);
+	}
+
+	/**
+	 * Set the ClassCache on disk, null disables it
+	 * 
+	 * @param classCache
+	 */
+	public synchronized void setClassCache(ClassCache classCache) {
+		this.classCache = classCache;
+	}
+
+	public synchronized ClassCache getClassCache() {
+		return classCache;
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		while(funcs.size() > maxSize) {
+			funcs.remove(funcs.keySet().iterator().next());
+		}
+	}
+
+	public synchronized int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized int size() {
+		return funcs.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Number of hits which are loaded from the ClassCache
+	 * @return
+	 */
+	public synchronized long getDiskHits() {
+		return diskHits;
+	}
+
+	public synchronized void clear() {
+		funcs.clear();
+		hits = 0;
+		misses = 0;
+		diskHits = 0;
+	}
+}
@@ -2,7 +2,7 @@ package symjava.symbolic.utils;
 
 import symjava.bytecode.BytecodeFunc;
 
-import com.sun.org.apache.bcel.internal.generic.ClassGen;
+import org.apache.bcel.generic.ClassGen;
 
 public class FuncClassLoader<T> extends ClassLoader {
 	
@@ -21,18 +21,31 @@ public class FuncClassLoader<T> extends ClassLoader {
 	 * Return an instance from a ClassGen object 
 	 *
 	 */
-	@SuppressWarnings("unchecked")
 	public T newInstance(ClassGen cg) {
-        byte[] bytes  = cg.getJavaClass().getBytes();
+		return newInstance(cg.getJavaClass().getClassName(), cg.getJavaClass().getBytes());
+	}
+	
+	/**
+	 * Return an instance from the bytes of a class, see ClassCache
+	 *
+	 */
+	@SuppressWarnings("unchecked")
+	public T newInstance(String className, byte[] bytes) {
         Class<T> cl = null;
-        cl = (Class<T>) defineClass(cg.getJavaClass().getClassName(), bytes, 0, bytes.length);
+        cl = (Class<T>) define(className, bytes);
 		try {
-			return cl.newInstance();
-		} catch (InstantiationException e) {
-			e.printStackTrace();
-		} catch (IllegalAccessException e) {
+			return cl.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		return null;
 	}
+	
+	/**
+	 * Define a class by this loader, see FuncLoader
+	 *
+	 */
+	Class<?> define(String className, byte[] bytes) {
+		return defineClass(className, bytes, 0, bytes.length);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+package symjava.symbolic.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import symjava.bytecode.BytecodeFunc;
+
+/**
+ * Define the generated classes and return instances of them.
+ *
+ * On a JVM supporting hidden classes (Java 15 or later) every class is defined
+ * by MethodHandles.Lookup.defineHiddenClass() in the package symjava.bytecode.
+ * A hidden class can be unloaded as soon as it is unreachable without a
+ * class loader of its own. The method is called by reflection so that the
+ * code still runs on Java 8.
+ *
+ * On older JVMs the classes are defined by a pool of FuncClassLoaders, each
+ * of them defines up to POOL_SIZE classes. A loader and its classes are
+ * unloaded once all the classes of the loader are unreachable.
+ *
+ */
+public class FuncLoader {
+	/**
+	 * Number of classes defined by one FuncClassLoader
+	 */
+	public static final int POOL_SIZE = 32;
+
+	static MethodHandles.Lookup lookup = null;
+	static Method defineHiddenClass = null;
+	static Object hiddenClassOptions = null;
+	static boolean hiddenClassEnabled;
+
+	static {
+		try {
+			Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			hiddenClassOptions = Array.newInstance(optionClass, 0);
+			defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+					byte[].class, boolean.class, hiddenClassOptions.getClass());
+			//The hidden classes are in the package of BytecodeFunc
+			Method privateLookupIn = MethodHandles.class.getMethod("privateLookupIn",
+					Class.class, MethodHandles.Lookup.class);
+			lookup = (MethodHandles.Lookup)privateLookupIn.invoke(null, BytecodeFunc.class, MethodHandles.lookup());
+		} catch (Exception e) {
+			//Java 14 or earlier
+			defineHiddenClass = null;
+		}
+		hiddenClassEnabled = defineHiddenClass != null &&
+				!"false".equals(System.getProperty("symjava.hiddenclass"));
+	}
+
+	static FuncClassLoader<Object> currentLoader = null;
+	static Set<String> currentNames = new HashSet<String>();
+
+	private FuncLoader() {}
+
+	public static boolean isHiddenClassSupported() {
+		return defineHiddenClass != null;
+	}
+
+	public static boolean isHiddenClassEnabled() {
+		return hiddenClassEnabled;
+	}
+
+	/**
+	 * Use hidden classes if they are supported, otherwise (or if enabled is false)
+	 * the pooled FuncClassLoaders are used
+	 *
+	 * @param enabled
+	 */
+	public static void setHiddenClassEnabled(boolean enabled) {
+		hiddenClassEnabled = enabled && defineHiddenClass != null;
+	}
+
+	/**
+	 * Define a class from its bytes and return an instance of it
+	 *
+	 * @param className
+	 * @param bytes
+	 * @return
+	 */
+	public static <T> T newInstance(String className, byte[] bytes) {
+		return newInstance(new GeneratedClass(className, bytes));
+	}
+
+	/**
+	 * Define a generated class, set its static fields to gc.funcFields and 
+	 * return an instance of it
+	 *
+	 * @param gc
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T newInstance(GeneratedClass gc) {
+		Class<?> cls = hiddenClassEnabled ? defineHidden(gc.bytes) : definePooled(gc.className, gc.bytes);
+		try {
+			for(Map.Entry<String, BytecodeFunc> e : gc.funcFields.entrySet())
+				cls.getField(e.getKey()).set(null, e.getValue());
+			return (T)cls.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static Class<?> defineHidden(byte[] bytes) {
+		try {
+			MethodHandles.Lookup hidden = (MethodHandles.Lookup)defineHiddenClass.invoke(
+					lookup, bytes, true, hiddenClassOptions);
+			return hidden.lookupClass();
+		} catch (java.lang.reflect.InvocationTargetException e) {
+			//e.g. VerifyError or ClassFormatError
+			if(e.getCause() instanceof LinkageError)
+				throw (LinkageError)e.getCause();
+			throw new RuntimeException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static synchronized Class<?> definePooled(String className, byte[] bytes) {
+		//A class name can be defined only once by a loader,
+		//e.g. a Func with the same name is compiled again
+		if(currentLoader == null || currentNames.size() >= POOL_SIZE || currentNames.contains(className)) {
+			currentLoader = new FuncClassLoader<Object>();
+			currentNames = new HashSet<String>();
+		}
+		Class<?> cls = currentLoader.define(className, bytes);
+		currentNames.add(className);
+		return cls;
+	}
+}
@@ -0,0 +1,30 @@
+package symjava.symbolic.utils;
+
+import java.util.Collections;
+import java.util.Map;
+
+import symjava.bytecode.BytecodeFunc;
+
+/**
+ * The name and the bytes of a class generated by a CodegenBackend
+ *
+ */
+public class GeneratedClass {
+	public String className;
+	public byte[] bytes;
+	/**
+	 * Values of the public static fields of the class, e.g. the integrands
+	 * of integrals, which are set by FuncLoader when the class is defined
+	 */
+	public Map<String, BytecodeFunc> funcFields;
+
+	public GeneratedClass(String className, byte[] bytes) {
+		this(className, bytes, Collections.<String, BytecodeFunc>emptyMap());
+	}
+
+	public GeneratedClass(String className, byte[] bytes, Map<String, BytecodeFunc> funcFields) {
+		this.className = className;
+		this.bytes = bytes;
+		this.funcFields = funcFields;
+	}
+}
@@ -0,0 +1,828 @@
+package symjava.symbolic.utils;
+
+import static org.apache.bcel.Const.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import symjava.logic.Logic;
+import symjava.relational.Relation;
+import symjava.symbolic.Add;
+import symjava.symbolic.Cos;
+import symjava.symbolic.Divide;
+import symjava.symbolic.Exp;
+import symjava.symbolic.Expr;
+import symjava.symbolic.Log;
+import symjava.symbolic.Multiply;
+import symjava.symbolic.MultiplyAdd;
+import symjava.symbolic.Negate;
+import symjava.symbolic.Pow;
+import symjava.symbolic.Reciprocal;
+import symjava.symbolic.Sin;
+import symjava.symbolic.Sqrt;
+import symjava.symbolic.Subtract;
+import symjava.symbolic.Sum;
+import symjava.symbolic.SymConst;
+import symjava.symbolic.SymReal;
+import symjava.symbolic.Symbol;
+import symjava.symbolic.Tan;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.ALOAD;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.D2I;
+import org.apache.bcel.generic.DADD;
+import org.apache.bcel.generic.DALOAD;
+import org.apache.bcel.generic.DASTORE;
+import org.apache.bcel.generic.DDIV;
+import org.apache.bcel.generic.DLOAD;
+import org.apache.bcel.generic.DMUL;
+import org.apache.bcel.generic.DNEG;
+import org.apache.bcel.generic.DSTORE;
+import org.apache.bcel.generic.DSUB;
+import org.apache.bcel.generic.DUP2;
+import org.apache.bcel.generic.I2D;
+import org.apache.bcel.generic.IADD;
+import org.apache.bcel.generic.ILOAD;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.Type;
+
+/**
+ * Generate the classes of the functions returning the value and the gradient
+ * of an expression in one pass, see JIT.compileWithGradient(), JIT.compileGradient()
+ * and JIT.compileJacobian().
+ *
+ * Forward mode: each node of the expression is evaluated with its value and
+ * its tangents (the partial derivatives with respect to the arguments) in
+ * local variables, like dual numbers with one dual part per argument.
+ * Only the tangents of the arguments a node depends on are kept, a tangent
+ * which is the same as the one of an operand (e.g. x+c) reuses its local
+ * variable. No symbolic derivative is built.
+ *
+ * Reverse mode: the values of the nodes are computed first, then the adjoints
+ * (the partial derivatives of the expression with respect to the nodes) are
+ * propagated from the expression to the arguments in the reverse order of the
+ * nodes. The gradient costs a small multiple of the evaluation, independent
+ * of the number of arguments.
+ *
+ * Jacobian: forward mode with one tangent per color of the arguments, see
+ * genClassJacobian().
+ *
+ * The top level terms of a sum are accumulated into the output one by one,
+ * so the gradient of an objective like sum_i f_i(x_i, x_i+1) costs a few
+ * operations per term instead of one per argument and term. The terms are
+ * split into static methods of at most BytecodeUtils.HUGE_METHOD_LIMIT bytes.
+ *
+ */
+public class GradientCodegen {
+	/**
+	 * A tangent which is exactly 1.0 (the tangent of an argument)
+	 */
+	static final int ONE = -1;
+
+	/**
+	 * Value and tangents of a node in the generated method
+	 */
+	static class Dual {
+		/**
+		 * Local variable of the value, -1 for a constant
+		 */
+		int value = -1;
+		Expr constant;
+		/**
+		 * Index (or color) of an argument -> local variable of the tangent or ONE,
+		 * the tangents of the other arguments are zero
+		 */
+		TreeMap<Integer, Integer> tangents = new TreeMap<Integer, Integer>();
+		/**
+		 * True if the node depends on an argument
+		 */
+		boolean active;
+		/**
+		 * The partial derivatives with respect to the operands, see addPartials()
+		 */
+		Dual[] coefs;
+		boolean[] negs;
+
+		Dual() {}
+
+		Dual(int value) {
+			this.value = value;
+		}
+	}
+
+	boolean reverse;
+	/**
+	 * The tangents of args[j] are kept in the slot colors[j] if it is not null,
+	 * see genClassJacobian()
+	 */
+	int[] colors;
+	/**
+	 * The terms of a sum and their signs, or the outputs of a Jacobian with
+	 * the pattern of it
+	 */
+	List<Expr> items;
+	List<Boolean> negs;
+	int[][] pattern;
+	int[] rowPtr;
+	Expr[] args;
+	HashMap<Expr, Integer> argsMap;
+
+	MethodGen mg;
+	ConstantPoolGen cp;
+	InstructionFactory factory;
+	InstructionList il;
+	int argsIndex;
+	CommonSubExprs cse = new CommonSubExprs();
+	Map<Integer, Dual> duals = new HashMap<Integer, Dual>();
+
+	GradientCodegen(Expr[] args) {
+		this.args = args;
+		this.argsMap = new HashMap<Expr, Integer>();
+		for(int i=0; i<args.length; i++) {
+			argsMap.put(args[i], i);
+		}
+	}
+
+	/**
+	 * A generator of the items of config in another method
+	 */
+	GradientCodegen(GradientCodegen config, MethodGen mg, ConstantPoolGen cp, InstructionFactory factory,
+			InstructionList il, int argsIndex) {
+		this.reverse = config.reverse;
+		this.colors = config.colors;
+		this.items = config.items;
+		this.negs = config.negs;
+		this.pattern = config.pattern;
+		this.rowPtr = config.rowPtr;
+		this.args = config.args;
+		this.argsMap = config.argsMap;
+		this.mg = mg;
+		this.cp = cp;
+		this.factory = factory;
+		this.il = il;
+		this.argsIndex = argsIndex;
+	}
+
+	/**
+	 * Generate a class implementing BytecodeVecFunc:
+	 * <pre>
+	 * public void apply(double[] outAry, int outPos, double[] args) {
+	 *     outAry[outPos] = expr;
+	 *     outAry[outPos+1+j] = d(expr)/d(args[j]); //j=0..args.length-1
+	 * }
+	 * </pre>
+	 *
+	 * @param className
+	 * @param expr
+	 * @param args
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static ClassGen genClassForwardGradient(String className, Expr expr, Expr[] args, JITOptions options) {
+		return genClassGradient(className, expr, args, options, false);
+	}
+
+	/**
+	 * Generate a class implementing BytecodeVecFunc by reverse mode:
+	 * <pre>
+	 * public void apply(double[] outAry, int outPos, double[] args) {
+	 *     outAry[outPos+j] = d(expr)/d(args[j]); //j=0..args.length-1
+	 * }
+	 * </pre>
+	 *
+	 * @param className
+	 * @param expr
+	 * @param args
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static ClassGen genClassReverseGradient(String className, Expr expr, Expr[] args, JITOptions options) {
+		return genClassGradient(className, expr, args, options, true);
+	}
+
+	private static ClassGen genClassGradient(String className, Expr expr, Expr[] args, JITOptions options,
+			boolean reverse) {
+		expr = CodegenRewriter.rewrite(expr, options);
+		if(BytecodeUtils.getEmitExpr(expr) == null) {
+			throw new RuntimeException("Expressionis empty. Nothing to generate!");
+		}
+		if(options.isDebug())
+			System.out.println(className+": "+expr);
+		GradientCodegen config = new GradientCodegen(args);
+		config.reverse = reverse;
+		config.items = new ArrayList<Expr>();
+		config.negs = new ArrayList<Boolean>();
+		addTerms(expr, false, config.items, config.negs, options);
+		return genClass(className, config, reverse ? args.length : args.length+1);
+	}
+
+	/**
+	 * Generate a class implementing BytecodeVecFunc which computes the Jacobian
+	 * of exprs with respect to args in the CSR order of the pattern 
+	 * Utils.getDependencies(exprs, args):
+	 * <pre>
+	 * public void apply(double[] outAry, int outPos, double[] args) {
+	 *     outAry[outPos+k] = d(exprs[i])/d(args[j]); //the k-th entry (i, j) of the pattern
+	 * }
+	 * </pre>
+	 * Forward mode, the arguments are colored by Utils.colorColumns() and the
+	 * arguments of the same color share one tangent. No output depends on two
+	 * arguments of the same color, so a node has at most one tangent per color.
+	 *
+	 * @param className
+	 * @param exprs
+	 * @param args
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static ClassGen genClassJacobian(String className, Expr[] exprs, Expr[] args, JITOptions options) {
+		GradientCodegen config = new GradientCodegen(args);
+		config.pattern = Utils.getDependencies(exprs, args);
+		config.colors = Utils.colorColumns(config.pattern, args.length);
+		config.rowPtr = new int[exprs.length+1];
+		for(int i=0; i<exprs.length; i++)
+			config.rowPtr[i+1] = config.rowPtr[i] + config.pattern[i].length;
+		config.items = CodegenRewriter.rewrite(Arrays.asList(exprs), options);
+		if(options.isDebug())
+			System.out.println(className+": "+config.items);
+		return genClass(className, config, 0);
+	}
+
+	/**
+	 * Generate the class of the items of config, apply() sets the first fillLength
+	 * elements of the output to zero and then adds the items
+	 */
+	private static ClassGen genClass(String className, GradientCodegen config, int fillLength) {
+		String fullClsName = "symjava.bytecode."+className;
+		ClassGen cg = BytecodeUtils.newClassGen(fullClsName, "symjava.bytecode.BytecodeVecFunc");
+		ConstantPoolGen cp = cg.getConstantPool();
+		InstructionList il = new InstructionList();
+		InstructionFactory factory = new InstructionFactory(cg);
+		Type[] argTypes = new Type[] {
+				new ArrayType(Type.DOUBLE, 1),
+				Type.INT,
+				new ArrayType(Type.DOUBLE, 1)
+		};
+		String[] argNames = new String[] { "outAry", "outPos", "args" };
+		MethodGen mg = new MethodGen(ACC_PUBLIC,
+				Type.VOID, argTypes, argNames,
+				"apply", fullClsName,
+				il, cp);
+
+		if(fillLength > 0) {
+			//java.util.Arrays.fill(outAry, outPos, outPos+fillLength, 0.0)
+			il.append(new ALOAD(1));
+			il.append(new ILOAD(2));
+			il.append(new ILOAD(2));
+			il.append(new PUSH(cp, fillLength));
+			il.append(new IADD());
+			il.append(new PUSH(cp, 0.0));
+			il.append(factory.createInvoke("java.util.Arrays", "fill",
+					Type.VOID, new Type[] { new ArrayType(Type.DOUBLE, 1), Type.INT, Type.INT, Type.DOUBLE },
+					Const.INVOKESTATIC));
+		}
+
+		//Items are added to a method until its size would exceed HUGE_METHOD_LIMIT,
+		//twice the size of the last item is kept as a margin for the next one
+		List<MethodGen> chunks = new ArrayList<MethodGen>();
+		GradientCodegen gen = null;
+		int size = 0, itemSize = 0;
+		for(int i=0; i<config.items.size(); i++) {
+			if(gen != null && size + 2*itemSize > BytecodeUtils.HUGE_METHOD_LIMIT) {
+				chunks.add(gen.mg);
+				gen = null;
+			}
+			if(gen == null) {
+				InstructionList ilChunk = new InstructionList();
+				MethodGen mgChunk = new MethodGen(ACC_PRIVATE | ACC_STATIC,
+						Type.VOID, argTypes, argNames,
+						"apply"+chunks.size(), fullClsName,
+						ilChunk, cp);
+				gen = new GradientCodegen(config, mgChunk, cp, factory, ilChunk, 2);
+				size = 0;
+			}
+			InstructionHandle last = gen.il.getEnd();
+			gen.addItem(0, 1, i);
+			itemSize = 0;
+			for(InstructionHandle ih = last == null ? gen.il.getStart() : last.getNext(); ih != null; ih = ih.getNext())
+				itemSize += ih.getInstruction().getLength();
+			size += itemSize;
+		}
+		if(gen != null)
+			chunks.add(gen.mg);
+
+		if(chunks.size() <= 1) {
+			//Generate the items in apply() instead
+			for(MethodGen mgChunk : chunks)
+				mgChunk.getInstructionList().dispose();
+			gen = new GradientCodegen(config, mg, cp, factory, il, 3);
+			for(int i=0; i<config.items.size(); i++)
+				gen.addItem(1, 2, i);
+		} else {
+			for(MethodGen mgChunk : chunks) {
+				mgChunk.getInstructionList().append(InstructionConst.RETURN);
+				mgChunk.setMaxStack();
+				cg.addMethod(BytecodeUtils.checkMethodSize(mgChunk.getMethod(), className));
+				mgChunk.getInstructionList().dispose();
+
+				//apply(): applyk(outAry, outPos, args)
+				il.append(new ALOAD(1));
+				il.append(new ILOAD(2));
+				il.append(new ALOAD(3));
+				il.append(factory.createInvoke(fullClsName, mgChunk.getName(),
+						Type.VOID, argTypes, Const.INVOKESTATIC));
+			}
+		}
+		il.append(InstructionConst.RETURN);
+
+		mg.setMaxStack();
+		cg.addMethod(BytecodeUtils.checkMethodSize(mg.getMethod(), className));
+		il.dispose();
+
+		cg.addEmptyConstructor(ACC_PUBLIC);
+		return cg;
+	}
+
+	/**
+	 * The terms of a sum, a summation is expanded. The summands are rewritten 
+	 * by CodegenRewriter here since the rewriting of expr does not go into a summation.
+	 */
+	static void addTerms(Expr e, boolean neg, List<Expr> terms, List<Boolean> negs, JITOptions options) {
+		e = BytecodeUtils.getEmitExpr(e);
+		if(e instanceof Add) {
+			addTerms(((Add)e).arg1, neg, terms, negs, options);
+			addTerms(((Add)e).arg2, neg, terms, negs, options);
+		} else if(e instanceof Subtract) {
+			addTerms(((Subtract)e).arg1, neg, terms, negs, options);
+			addTerms(((Subtract)e).arg2, !neg, terms, negs, options);
+		} else if(e instanceof Negate) {
+			addTerms(((Negate)e).arg, !neg, terms, negs, options);
+		} else if(e instanceof Sum) {
+			for(Expr arg : BytecodeUtils.getOperands(e))
+				addTerms(CodegenRewriter.rewrite(arg, options), neg, terms, negs, options);
+		} else {
+			terms.add(e);
+			negs.add(neg);
+		}
+	}
+
+	void addItem(int outAryIndex, int outPosIndex, int i) {
+		if(pattern != null)
+			addJacobianRow(outAryIndex, outPosIndex, i);
+		else if(reverse)
+			addAdjoints(outAryIndex, outPosIndex, items.get(i), negs.get(i));
+		else
+			addTerm(outAryIndex, outPosIndex, items.get(i), negs.get(i));
+	}
+
+	/**
+	 * Forward mode: outAry[outPos] += term and outAry[outPos+1+j] += tangent j of term
+	 */
+	private void addTerm(int outAryIndex, int outPosIndex, Expr term, boolean neg) {
+		Dual d = eval(term);
+		addToOutput(outAryIndex, outPosIndex, 0, d.value, d.constant, neg);
+		for(Map.Entry<Integer, Integer> t : d.tangents.entrySet()) {
+			addToOutput(outAryIndex, outPosIndex, t.getKey()+1, t.getValue(), null, neg);
+		}
+	}
+
+	/**
+	 * outAry[outPos+rowPtr[i]+k] = the tangent of the color of the argument pattern[i][k]
+	 */
+	private void addJacobianRow(int outAryIndex, int outPosIndex, int i) {
+		if(pattern[i].length == 0)
+			return;
+		Dual d = eval(items.get(i));
+		for(int k=0; k<pattern[i].length; k++) {
+			il.append(new ALOAD(outAryIndex));
+			il.append(new ILOAD(outPosIndex));
+			il.append(new PUSH(cp, rowPtr[i]+k));
+			il.append(new IADD());
+			Integer t = d.tangents.get(colors[pattern[i][k]]);
+			if(t == null)
+				il.append(new PUSH(cp, 0.0));
+			else
+				loadTangent(t);
+			il.append(new DASTORE());
+		}
+	}
+
+	private void addToOutput(int outAryIndex, int outPosIndex, int offset, int local, Expr constant, boolean neg) {
+		il.append(new ALOAD(outAryIndex));
+		il.append(new ILOAD(outPosIndex));
+		if(offset != 0) {
+			il.append(new PUSH(cp, offset));
+			il.append(new IADD());
+		}
+		il.append(new DUP2());
+		il.append(new DALOAD());
+		if(constant != null)
+			BytecodeUtils.addOthers(mg, cp, factory, il, argsIndex, constant, args, argsMap);
+		else
+			loadTangent(local);
+		il.append(neg ? new DSUB() : new DADD());
+		il.append(new DASTORE());
+	}
+
+	/**
+	 * Generate the value and, in forward mode, the tangents of e. 
+	 * Each distinct node is generated only once
+	 *
+	 * @param e
+	 * @return
+	 */
+	Dual eval(Expr e) {
+		e = BytecodeUtils.getEmitExpr(e);
+		int num = cse.getNumber(e);
+		Dual d = duals.get(num);
+		if(d != null)
+			return d;
+		d = new Dual();
+		if(e instanceof SymReal<?> || e instanceof SymConst) {
+			d.constant = e;
+		} else if(e instanceof Symbol) {
+			Integer argIdx = argsMap.get(e);
+			if(argIdx == null) {
+				throw new IllegalArgumentException(e+" is not in the argument list");
+			}
+			BytecodeUtils.pushSymbol(cp, il, argsIndex, argIdx);
+			d.value = store("arg"+argIdx);
+			d.active = true;
+			if(!reverse)
+				d.tangents.put(colors == null ? argIdx : colors[argIdx], ONE);
+		} else {
+			Expr[] ops = BytecodeUtils.getOperands(e);
+			Dual[] ds = new Dual[ops.length];
+			for(int i=0; i<ops.length; i++)
+				ds[i] = eval(ops[i]);
+			if(e instanceof Relation || e instanceof Logic) {
+				//Piecewise constant, the tangents are zero
+				for(int i=0; i<ops.length; i++) {
+					load(ds[i]);
+					if(e instanceof Logic)
+						il.append(new D2I());
+				}
+				BytecodeUtils.addOthers(mg, cp, factory, il, argsIndex, e, args, argsMap);
+				il.append(new I2D());
+				d.value = store("v"+num);
+			} else if(isSupported(e)) {
+				for(int i=0; i<ops.length; i++)
+					load(ds[i]);
+				BytecodeUtils.addOthers(mg, cp, factory, il, argsIndex, e, args, argsMap);
+				d.value = store("v"+num);
+				for(Dual op : ds)
+					d.active |= op.active;
+				if(!reverse && d.active)
+					addTangents(e, num, d, ds);
+			} else {
+				throw new RuntimeException(e.getClass().getSimpleName()+
+						" is not supported in this version when generating gradient!");
+			}
+		}
+		duals.put(num, d);
+		return d;
+	}
+
+	static boolean isSupported(Expr e) {
+		return e instanceof Add || e instanceof Subtract || e instanceof Multiply ||
+				e instanceof Divide || e instanceof Reciprocal || e instanceof Negate ||
+				e instanceof MultiplyAdd || e instanceof Pow || e instanceof Sqrt ||
+				e instanceof Log || e instanceof Sin || e instanceof Cos || e instanceof Tan;
+	}
+
+	/**
+	 * Reverse mode: compute the values of term, then propagate the adjoints from
+	 * term to the arguments in the reverse order of the nodes of term. The adjoint 
+	 * of an operand is the sum of coef*adjoint over the nodes using it, see addPartials().
+	 */
+	private void addAdjoints(int outAryIndex, int outPosIndex, Expr term, boolean neg) {
+		Dual root = eval(term);
+		if(!root.active)
+			return;
+		List<Expr> nodes = new ArrayList<Expr>();
+		addActiveNodes(term, new HashSet<Integer>(), nodes);
+		//Value number of a node -> local variable of its adjoint or ONE
+		Map<Integer, Integer> adjoints = new HashMap<Integer, Integer>();
+		//The adjoints in a local variable of their own, which can be updated in place
+		Set<Integer> owned = new HashSet<Integer>();
+		adjoints.put(cse.getNumber(nodes.get(nodes.size()-1)), ONE);
+		for(int k=nodes.size()-1; k>=0; k--) {
+			Expr e = nodes.get(k);
+			int num = cse.getNumber(e);
+			int a = adjoints.get(num);
+			if(e instanceof Symbol) {
+				addToOutput(outAryIndex, outPosIndex, argsMap.get(e), a, null, neg);
+				continue;
+			}
+			Expr[] ops = BytecodeUtils.getOperands(e);
+			Dual[] ds = new Dual[ops.length];
+			for(int i=0; i<ops.length; i++)
+				ds[i] = duals.get(cse.getNumber(BytecodeUtils.getEmitExpr(ops[i])));
+			Dual d = duals.get(num);
+			addPartials(e, num, d, ds);
+			for(int i=0; i<ops.length; i++) {
+				if(ds[i].active)
+					addAdjoint(adjoints, owned, cse.getNumber(BytecodeUtils.getEmitExpr(ops[i])),
+							a, d.coefs[i], d.negs[i]);
+			}
+		}
+	}
+
+	/**
+	 * The distinct nodes of e which depend on an argument in post order
+	 */
+	private void addActiveNodes(Expr e, Set<Integer> visited, List<Expr> nodes) {
+		e = BytecodeUtils.getEmitExpr(e);
+		int num = cse.getNumber(e);
+		if(!visited.add(num) || !duals.get(num).active)
+			return;
+		for(Expr arg : BytecodeUtils.getOperands(e))
+			addActiveNodes(arg, visited, nodes);
+		nodes.add(e);
+	}
+
+	/**
+	 * adjoint of node num += coef*a (or -= if neg)
+	 */
+	private void addAdjoint(Map<Integer, Integer> adjoints, Set<Integer> owned, int num, 
+			int a, Dual coef, boolean neg) {
+		Integer old = adjoints.get(num);
+		if(old == null && !neg) {
+			//The same as the adjoint of the node or the coefficient, no code
+			if(coef == null) {
+				adjoints.put(num, a);
+				return;
+			} else if(a == ONE && coef.value >= 0) {
+				adjoints.put(num, coef.value);
+				return;
+			}
+		}
+		if(old != null)
+			loadTangent(old);
+		if(coef == null) {
+			loadTangent(a);
+		} else if(a == ONE) {
+			load(coef);
+		} else {
+			il.append(new DLOAD(a));
+			load(coef);
+			il.append(new DMUL());
+		}
+		if(old != null)
+			il.append(neg ? new DSUB() : new DADD());
+		else if(neg)
+			il.append(new DNEG());
+		if(old != null && owned.contains(num)) {
+			il.append(new DSTORE(old));
+		} else {
+			adjoints.put(num, store("a"+num));
+			owned.add(num);
+		}
+	}
+
+	/**
+	 * The chain rule: tangent = sum_i coef_i * tangent of ds[i]
+	 */
+	private void addTangents(Expr e, int num, Dual d, Dual[] ds) {
+		addPartials(e, num, d, ds);
+		Dual[] coefs = d.coefs;
+		boolean[] negs = d.negs;
+		TreeSet<Integer> indices = new TreeSet<Integer>();
+		for(Dual op : ds)
+			indices.addAll(op.tangents.keySet());
+		for(int j : indices) {
+			List<Integer> terms = new ArrayList<Integer>();
+			for(int i=0; i<ds.length; i++) {
+				if(ds[i].tangents.containsKey(j))
+					terms.add(i);
+			}
+			if(terms.size() == 1 && !negs[terms.get(0)]) {
+				//The same tangent as the operand or the coefficient, no code
+				int i = terms.get(0);
+				int t = ds[i].tangents.get(j);
+				if(coefs[i] == null) {
+					d.tangents.put(j, t);
+					continue;
+				} else if(t == ONE && coefs[i].value >= 0) {
+					d.tangents.put(j, coefs[i].value);
+					continue;
+				}
+			}
+			boolean first = true;
+			boolean firstNeg = false;
+			for(int i : terms) {
+				int t = ds[i].tangents.get(j);
+				if(coefs[i] == null) {
+					loadTangent(t);
+				} else if(t == ONE) {
+					load(coefs[i]);
+				} else {
+					il.append(new DLOAD(t));
+					load(coefs[i]);
+					il.append(new DMUL());
+				}
+				if(first) {
+					first = false;
+					firstNeg = negs[i];
+				} else {
+					il.append(negs[i] != firstNeg ? new DSUB() : new DADD());
+				}
+			}
+			if(firstNeg)
+				il.append(new DNEG());
+			d.tangents.put(j, store("t"+num+"_"+j));
+		}
+	}
+
+	/**
+	 * Generate the partial derivatives of e with respect to its active operands:
+	 * d(e) = sum_i (negs[i] ? -1 : 1) * coefs[i] * d(ds[i]), a null coefficient is 1.
+	 * They are generated once for each node and kept in d.
+	 */
+	private void addPartials(Expr e, int num, Dual d, Dual[] ds) {
+		if(d.coefs != null)
+			return;
+		Dual[] coefs = new Dual[ds.length]; //null for 1
+		boolean[] negs = new boolean[ds.length];
+		d.coefs = coefs;
+		d.negs = negs;
+		if(e instanceof Add) {
+		} else if(e instanceof Subtract) {
+			negs[1] = true;
+		} else if(e instanceof Negate) {
+			negs[0] = true;
+		} else if(e instanceof Multiply) {
+			coefs[0] = ds[1];
+			coefs[1] = ds[0];
+		} else if(e instanceof MultiplyAdd) {
+			coefs[0] = ds[1];
+			coefs[1] = ds[0];
+		} else if(e instanceof Divide) {
+			//d(a/b) = da/b - (a/b)/b db
+			il.append(new PUSH(cp, 1.0));
+			load(ds[1]);
+			il.append(new DDIV());
+			coefs[0] = new Dual(store("r"+num));
+			if(ds[1].active) {
+				il.append(new DLOAD(d.value));
+				il.append(new DLOAD(coefs[0].value));
+				il.append(new DMUL());
+				coefs[1] = new Dual(store("q"+num));
+				negs[1] = true;
+			}
+		} else if(e instanceof Reciprocal) {
+			//operands: 1, arg; d(1/x) = -(1/x)^2 dx
+			il.append(new DLOAD(d.value));
+			il.append(new DLOAD(d.value));
+			il.append(new DMUL());
+			coefs[1] = new Dual(store("c"+num));
+			negs[1] = true;
+		} else if(e instanceof Exp) {
+			coefs[0] = d;
+		} else if(e instanceof Pow) {
+			if(ds[0].active) {
+				//b*a^(b-1)
+				load(ds[1]);
+				load(ds[0]);
+				if(ds[1].constant instanceof SymReal<?> && ((SymReal<?>)ds[1].constant).isInteger()) {
+					int n = ((SymReal<?>)ds[1].constant).getIntValue() - 1;
+					if(n != 1) {
+						il.append(new PUSH(cp, n));
+						il.append(factory.createInvoke("symjava.symbolic.utils.BytecodeSupport", "powi",
+								Type.DOUBLE, new Type[] { Type.DOUBLE, Type.INT }, Const.INVOKESTATIC));
+					}
+				} else {
+					if(ds[1].constant != null) {
+						il.append(new PUSH(cp, getValue(ds[1].constant)-1.0));
+					} else {
+						load(ds[1]);
+						il.append(new PUSH(cp, 1.0));
+						il.append(new DSUB());
+					}
+					invokeMath("pow", 2);
+				}
+				il.append(new DMUL());
+				coefs[0] = new Dual(store("c"+num));
+			}
+			if(ds[1].active) {
+				//a^b*log(a)
+				il.append(new DLOAD(d.value));
+				load(ds[0]);
+				invokeMath("log", 1);
+				il.append(new DMUL());
+				coefs[1] = new Dual(store("c"+num+"_"+1));
+			}
+		} else if(e instanceof Sqrt) {
+			//operands: x, root; d(x^(1/r)) = x^(1/r)/(r*x) dx
+			if(ds[1].active) {
+				throw new RuntimeException("Variable root of Sqrt is not supported in this version when generating gradient!");
+			}
+			if(ds[1].constant != null && getValue(ds[1].constant) == 2.0) {
+				il.append(new PUSH(cp, 0.5));
+				il.append(new DLOAD(d.value));
+				il.append(new DDIV());
+			} else {
+				il.append(new DLOAD(d.value));
+				load(ds[1]);
+				load(ds[0]);
+				il.append(new DMUL());
+				il.append(new DDIV());
+			}
+			coefs[0] = new Dual(store("c"+num));
+		} else if(e instanceof Log) {
+			//operands: base, x; log_b(x) = log(x)/log(b)
+			if(ds[0].constant != null) {
+				il.append(new PUSH(cp, Math.log(getValue(ds[0].constant))));
+			} else {
+				load(ds[0]);
+				invokeMath("log", 1);
+			}
+			int lnb = store("lnb"+num);
+			if(ds[1].active) {
+				//1/(x*log(b))
+				il.append(new PUSH(cp, 1.0));
+				load(ds[1]);
+				il.append(new DLOAD(lnb));
+				il.append(new DMUL());
+				il.append(new DDIV());
+				coefs[1] = new Dual(store("c"+num+"_"+1));
+			}
+			if(ds[0].active) {
+				//-log_b(x)/(b*log(b))
+				il.append(new DLOAD(d.value));
+				load(ds[0]);
+				il.append(new DLOAD(lnb));
+				il.append(new DMUL());
+				il.append(new DDIV());
+				coefs[0] = new Dual(store("c"+num));
+				negs[0] = true;
+			}
+		} else if(e instanceof Sin) {
+			load(ds[0]);
+			invokeMath("cos", 1);
+			coefs[0] = new Dual(store("c"+num));
+		} else if(e instanceof Cos) {
+			load(ds[0]);
+			invokeMath("sin", 1);
+			coefs[0] = new Dual(store("c"+num));
+			negs[0] = true;
+		} else if(e instanceof Tan) {
+			//1+tan(x)^2
+			il.append(new PUSH(cp, 1.0));
+			il.append(new DLOAD(d.value));
+			il.append(new DLOAD(d.value));
+			il.append(new DMUL());
+			il.append(new DADD());
+			coefs[0] = new Dual(store("c"+num));
+		}
+	}
+
+	private void load(Dual d) {
+		if(d.value >= 0)
+			il.append(new DLOAD(d.value));
+		else
+			BytecodeUtils.addOthers(mg, cp, factory, il, argsIndex, d.constant, args, argsMap);
+	}
+
+	private void loadTangent(int t) {
+		if(t == ONE)
+			il.append(new PUSH(cp, 1.0));
+		else
+			il.append(new DLOAD(t));
+	}
+
+	private int store(String name) {
+		int idx = mg.addLocalVariable(name, Type.DOUBLE, null, null).getIndex();
+		il.append(new DSTORE(idx));
+		return idx;
+	}
+
+	private void invokeMath(String name, int nArgs) {
+		Type[] types = new Type[nArgs];
+		for(int i=0; i<nArgs; i++)
+			types[i] = Type.DOUBLE;
+		il.append(factory.createInvoke("java.lang.Math", name,
+				Type.DOUBLE, types, Const.INVOKESTATIC));
+	}
+
+	static double getValue(Expr constant) {
+		if(constant instanceof SymConst)
+			return ((SymConst)constant).getValue();
+		return ((Number)((SymReal<?>)constant).getValue()).doubleValue();
+	}
+}
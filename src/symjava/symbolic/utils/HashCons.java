@@ -0,0 +1,232 @@
+package symjava.symbolic.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+
+import symjava.symbolic.Add;
+import symjava.symbolic.Divide;
+import symjava.symbolic.Expr;
+import symjava.symbolic.Multiply;
+import symjava.symbolic.Negate;
+import symjava.symbolic.Pow;
+import symjava.symbolic.Reciprocal;
+import symjava.symbolic.Subtract;
+import symjava.symbolic.SymDouble;
+import symjava.symbolic.SymFloat;
+import symjava.symbolic.SymInteger;
+import symjava.symbolic.SymLong;
+import symjava.symbolic.SymReal;
+
+/**
+ * Hash consing of expressions: the factories Add.simplifiedIns(), Multiply.simplifiedIns(),
+ * Pow.simplifiedIns() and Utils.flattenSortAndSimplify() return one shared instance for
+ * structurally identical nodes. Expressions with a lot of repeated subexpressions, e.g. the
+ * Hessian of a function of many variables, become DAGs instead of trees and comparing two
+ * shared nodes is an identity test.
+ *
+ * A node matches a pooled node if they are of the same class with the same simplification
+ * state and their operands are the same instances (numbers are compared by value). Only
+ * the nodes created by the factories are interned. An operand passed by the caller is not
+ * interned since the caller is free to modify it (e.g. setLabel()), the new node refers
+ * to a pooled copy of it instead, see internOperand().
+ *
+ * The pool holds weak references only. An interned node is not modified, setSimplifyOps(),
+ * setAsSimplified() and setLabel() return a modified copy of it instead.
+ *
+ */
+public class HashCons {
+	static class Ref extends WeakReference<Expr> {
+		int hash;
+		Ref next;
+		Ref(Expr e, int hash, ReferenceQueue<Expr> queue, Ref next) {
+			super(e, queue);
+			this.hash = hash;
+			this.next = next;
+		}
+	}
+
+	static Set<Class<?>> poolable = new HashSet<Class<?>>();
+	static {
+		poolable.add(Add.class);
+		poolable.add(Subtract.class);
+		poolable.add(Multiply.class);
+		poolable.add(Divide.class);
+		poolable.add(Pow.class);
+		poolable.add(Negate.class);
+		poolable.add(Reciprocal.class);
+		poolable.add(SymInteger.class);
+		poolable.add(SymLong.class);
+		poolable.add(SymFloat.class);
+		poolable.add(SymDouble.class);
+	}
+
+	static boolean enabled = true;
+	static Ref[] table = new Ref[1024];
+	static int size = 0;
+	static ReferenceQueue<Expr> queue = new ReferenceQueue<Expr>();
+
+	/**
+	 * Return the pooled node which is structurally identical to e. If there is
+	 * no such node e is added to the pool and returned.
+	 *
+	 * @param e a new node which is not referenced by others yet or an interned node
+	 * @return
+	 */
+	public static synchronized Expr intern(Expr e) {
+		if(!enabled || e.isInterned || !poolable.contains(e.getClass()))
+			return e;
+		int hash = hash(e);
+		Expr c = find(e, hash);
+		if(c != null)
+			return c;
+		add(e, hash);
+		return e;
+	}
+
+	/**
+	 * Return the pooled node which is structurally identical to e, an operand of
+	 * a new node. If there is no such node a copy of e is added to the pool, so e 
+	 * is not modified and stays owned by the caller.
+	 *
+	 * @param e
+	 * @return
+	 */
+	public static synchronized Expr internOperand(Expr e) {
+		if(!enabled || e.isInterned || !poolable.contains(e.getClass()))
+			return e;
+		int hash = hash(e);
+		Expr c = find(e, hash);
+		if(c != null)
+			return c;
+		c = e.copy();
+		add(c, hash);
+		return c;
+	}
+
+	static Expr find(Expr e, int hash) {
+		expunge();
+		for(Ref r = table[hash & (table.length - 1)]; r != null; r = r.next) {
+			if(r.hash == hash) {
+				Expr c = r.get();
+				if(c != null && isIdentical(c, e))
+					return c;
+			}
+		}
+		return null;
+	}
+
+	static void add(Expr e, int hash) {
+		int idx = hash & (table.length - 1);
+		e.isInterned = true;
+		table[idx] = new Ref(e, hash, queue, table[idx]);
+		if(++size > table.length - (table.length >> 2))
+			resize();
+	}
+
+	/**
+	 * Return e.setAsSimplified() as a pooled node. If e is not interned it may be
+	 * owned by the caller, so a pooled copy of it is returned, see internOperand().
+	 *
+	 * @param e
+	 * @return
+	 */
+	public static Expr setAsSimplified(Expr e) {
+		if(!e.isInterned)
+			return internOperand(e.setAsSimplified());
+		return intern(e.setAsSimplified());
+	}
+
+	/**
+	 * Number of the nodes in the pool
+	 * @return
+	 */
+	public static synchronized int size() {
+		expunge();
+		return size;
+	}
+
+	/**
+	 * Remove all the nodes from the pool. The nodes which are already shared stay interned.
+	 */
+	public static synchronized void clear() {
+		table = new Ref[1024];
+		size = 0;
+		queue = new ReferenceQueue<Expr>();
+	}
+
+	/**
+	 * Turn the hash consing on or off (e.g. for comparing the memory usage)
+	 * @param flag
+	 */
+	public static synchronized void setEnabled(boolean flag) {
+		enabled = flag;
+	}
+
+	public static synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	static int hash(Expr e) {
+		int h = e.getStructuralHash();
+		h = 31*h + e.getSimplifyOps();
+		h = 31*h + (e.isSimplified ? 1 : 0);
+		return h ^ (h >>> 16);
+	}
+
+	static boolean isIdentical(Expr c, Expr e) {
+		if(c.getClass() != e.getClass() || c.getSimplifyOps() != e.getSimplifyOps() ||
+				c.isSimplified != e.isSimplified)
+			return false;
+		if(e instanceof SymReal<?>)
+			return ((SymReal<?>)c).getValue().equals(((SymReal<?>)e).getValue());
+		Expr[] cArgs = c.args();
+		Expr[] eArgs = e.args();
+		if(cArgs.length != eArgs.length)
+			return false;
+		for(int i=0; i<eArgs.length; i++) {
+			if(cArgs[i] != eArgs[i] && !isSameNumber(cArgs[i], eArgs[i]))
+				return false;
+		}
+		return true;
+	}
+
+	static boolean isSameNumber(Expr c, Expr e) {
+		return e instanceof SymReal<?> && c.getClass() == e.getClass() &&
+				((SymReal<?>)c).getValue().equals(((SymReal<?>)e).getValue());
+	}
+
+	static void resize() {
+		Ref[] newTable = new Ref[table.length*2];
+		for(Ref r : table) {
+			while(r != null) {
+				Ref next = r.next;
+				int idx = r.hash & (newTable.length - 1);
+				r.next = newTable[idx];
+				newTable[idx] = r;
+				r = next;
+			}
+		}
+		table = newTable;
+	}
+
+	static void expunge() {
+		Object o;
+		while((o = queue.poll()) != null) {
+			Ref ref = (Ref)o;
+			int idx = ref.hash & (table.length - 1);
+			Ref prev = null;
+			for(Ref r = table[idx]; r != null; prev = r, r = r.next) {
+				if(r == ref) {
+					if(prev == null)
+						table[idx] = r.next;
+					else
+						prev.next = r.next;
+					size--;
+					break;
+				}
+			}
+		}
+	}
+}
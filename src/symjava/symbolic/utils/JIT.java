@@ -3,47 +3,101 @@ package symjava.symbolic.utils;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.sun.org.apache.bcel.internal.generic.ClassGen;
-
 import symjava.bytecode.BytecodeBatchFunc;
+import symjava.bytecode.BytecodeBatchVecFunc;
 import symjava.bytecode.BytecodeFunc;
 import symjava.bytecode.BytecodeVecFunc;
-import symjava.bytecode.VecFuncs;
+import symjava.bytecode.FloatBatchFunc;
+import symjava.bytecode.FloatFunc;
 import symjava.symbolic.Expr;
 import symjava.symbolic.Func;
 import symjava.symbolic.Symbol;
 
 public class JIT {
 	
+	/**
+	 * Compiled functions of the same expressions are reused, see FuncCache
+	 */
+	static FuncCache cache = new FuncCache(256);
+	
+	static {
+		//Compiled classes are kept between runs if -Dsymjava.classcache.dir=<dir> is given
+		String dir = System.getProperty("symjava.classcache.dir");
+		if(dir != null) {
+			long maxBytes = Long.getLong("symjava.classcache.maxbytes", 64L*1024*1024);
+			cache.setClassCache(new ClassCache(new java.io.File(dir), maxBytes));
+		}
+	}
+	
+	/**
+	 * Options used by the methods without a JITOptions parameter,
+	 * the classes are only defined in memory by default
+	 */
+	static JITOptions options = new JITOptions();
+	
 	private JIT() {}
 	
+	public static FuncCache getCache() {
+		return cache;
+	}
+	
+	public static JITOptions getOptions() {
+		return options;
+	}
+	
+	public static void setOptions(JITOptions options) {
+		JIT.options = options;
+	}
+	
 	public static BytecodeFunc compile(Expr[] args, Expr expr) {
+		return compile(args, expr, options);
+	}
+	
+	public static BytecodeFunc compile(Expr[] args, Expr expr, JITOptions options) {
 		if(expr instanceof Func) {
 			Func func = (Func)expr;
-			return func.toBytecodeFunc();
+			return func.toBytecodeFunc(options);
 		} else {
 			Func func = new Func("JITFunc_"+java.util.UUID.randomUUID().toString().replaceAll("-", ""), expr);
 			func.args = args;
-			return func.toBytecodeFunc(true, false);
+			return func.toBytecodeFunc(options);
 		}
 	}
 	
 	public static BytecodeFunc compile(Expr expr) {
+		return compile(expr, options);
+	}
+	
+	public static BytecodeFunc compile(Expr expr, JITOptions options) {
 		if(expr instanceof Func) {
 			Func func = (Func)expr;
-			return func.toBytecodeFunc();
+			return func.toBytecodeFunc(options);
 		} else {
 			Func func = new Func("JITFunc_"+java.util.UUID.randomUUID().toString().replaceAll("-", ""), expr);
-			return func.toBytecodeFunc(true, false);
+			return func.toBytecodeFunc(options);
 		}
 	}
 	
+	/**
+	 * Compile exprs into one class. Large outputs are split into several 
+	 * methods of the class according to the size of their bytecode, 
+	 * see BytecodeUtils.genClassBytecodeVecFunc()
+	 * 
+	 * @param args
+	 * @param exprs
+	 * @return
+	 */
 	public static BytecodeVecFunc compile(Expr[] args, Expr[] exprs) {
-		boolean isWriteFile = true;
-		boolean staticMethod = false;
+		return compile(args, exprs, options);
+	}
+	
+	public static BytecodeVecFunc compile(Expr[] args, Expr[] exprs, JITOptions options) {
 		try {
-			int NMaxExpr = 36;
-			FuncClassLoader<BytecodeVecFunc> fcl = new FuncClassLoader<BytecodeVecFunc>();
+			//The zeros are part of the key since they are part of the output
+			String key = options.isStaticMethod() ? null : FuncCache.getKey("BytecodeVecFunc"+options.getCodegenKey(), args, exprs);
+			BytecodeVecFunc func = cache.get(key);
+			if(func != null)
+				return func;
 			List<Expr> nonZeroList = new ArrayList<Expr>();
 			List<Integer> nonZeroIdx = new ArrayList<Integer>();
 			for(int i=0; i<exprs.length; i++) {
@@ -52,39 +106,10 @@ public class JIT {
 					nonZeroIdx.add(i);
 				}
 			}
-			if(exprs.length > NMaxExpr) {
-				int N = exprs.length;
-				List<Expr> batchExprs = new ArrayList<Expr>();
-				List<Integer> batchOutPos = new ArrayList<Integer>();
-				VecFuncs ret = new VecFuncs();
-				for(int i = 0; i<nonZeroList.size(); i++) {
-					batchExprs.add(nonZeroList.get(i));
-					batchOutPos.add(nonZeroIdx.get(i));
-					if(i%NMaxExpr == NMaxExpr-1) {
-						String className = "JITVecFunc_XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX__"+i+"___outof___"+exprs.length+"___XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
-						ClassGen genClass = BytecodeUtils.genClassBytecodeVecFunc(className, batchExprs, batchOutPos, args, 
-								isWriteFile, staticMethod);
-						BytecodeVecFunc func = fcl.newInstance(genClass);
-						ret.addFunc(func, batchOutPos.get(0));
-						batchExprs.clear();
-						batchOutPos.clear();
-					}
-				}
-				int remain = N%NMaxExpr;
-				if(remain > 0) {
-					String className = "JITVecFunc_XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX__"+(N-remain)+"___outof___"+exprs.length+"___XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
-					ClassGen genClass = BytecodeUtils.genClassBytecodeVecFunc(className, batchExprs, batchOutPos, args, 
-							isWriteFile, staticMethod);
-					BytecodeVecFunc func = fcl.newInstance(genClass);
-					ret.addFunc(func, batchOutPos.get(0));
-				}
-				return ret;
-			} else {
-				String className = "JITVecFunc_XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX__"+exprs.length+"___XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
-				ClassGen genClass = BytecodeUtils.genClassBytecodeVecFunc(className, nonZeroList, nonZeroIdx, args, 
-						isWriteFile, staticMethod);
-				return fcl.newInstance(genClass);
-			}
+			String className = "JITVecFunc_XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX__"+exprs.length+"___XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
+			GeneratedClass genClass = options.getBackend().genBytecodeVecFunc(className, nonZeroList, nonZeroIdx, args, 
+					options);
+			return cache.newInstance(key, genClass, options);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -92,10 +117,211 @@ public class JIT {
 	}
 	
 	public static BytecodeBatchFunc compileBatchFunc(Expr[] args, Expr expr) {
+		return compileBatchFunc(args, expr, options);
+	}
+	
+	/**
+	 * 
+	 * @param args
+	 * @param expr
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static BytecodeBatchFunc compileBatchFunc(Expr[] args, Expr expr, JITOptions options) {
+		String key = FuncCache.getKey("BytecodeBatchFunc"+options.getCodegenKey(), args, expr);
+		BytecodeBatchFunc func = cache.get(key);
+		if(func != null)
+			return func;
 		String className = "JITVecFunc_YYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYYY"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
-		ClassGen genClass = BytecodeUtils.genClassBytecodeBatchFunc(className,expr, args, true, false);
-		FuncClassLoader<BytecodeBatchFunc> fcl = new FuncClassLoader<BytecodeBatchFunc>();
-		return fcl.newInstance(genClass);
+		GeneratedClass genClass = options.getBackend().genBytecodeBatchFunc(className,expr, args, options);
+		return cache.newInstance(key, genClass, options);
+	}
+	
+	/**
+	 * Compile exprs into a function evaluating all of them at many points
+	 * in one loop, see BytecodeBatchVecFunc
+	 * 
+	 * @param args
+	 * @param exprs
+	 * @return
+	 */
+	public static BytecodeBatchVecFunc compileBatchVecFunc(Expr[] args, Expr[] exprs) {
+		return compileBatchVecFunc(args, exprs, options);
+	}
+	
+	/**
+	 * 
+	 * @param args
+	 * @param exprs
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static BytecodeBatchVecFunc compileBatchVecFunc(Expr[] args, Expr[] exprs, JITOptions options) {
+		String key = FuncCache.getKey("BytecodeBatchVecFunc"+options.getCodegenKey(), args, exprs);
+		BytecodeBatchVecFunc func = cache.get(key);
+		if(func != null)
+			return func;
+		List<Expr> nonZeroList = new ArrayList<Expr>();
+		List<Integer> nonZeroIdx = new ArrayList<Integer>();
+		for(int i=0; i<exprs.length; i++) {
+			if(!Utils.symCompare(Symbol.C0, exprs[i])) {
+				nonZeroList.add(exprs[i]);
+				nonZeroIdx.add(i);
+			}
+		}
+		String className = "JITBatchVecFunc_"+exprs.length+"_"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
+		GeneratedClass genClass = options.getBackend().genBytecodeBatchVecFunc(className, nonZeroList, nonZeroIdx, args, options);
+		return cache.newInstance(key, genClass, options);
+	}
+	
+	/**
+	 * Compile expr in single precision, see FloatCodegen and FloatPrecision
+	 * 
+	 * @param args
+	 * @param expr
+	 * @return
+	 */
+	public static FloatFunc compileFloat(Expr[] args, Expr expr) {
+		return compileFloat(args, expr, options);
+	}
+	
+	/**
+	 * 
+	 * @param args
+	 * @param expr
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static FloatFunc compileFloat(Expr[] args, Expr expr, JITOptions options) {
+		String key = FuncCache.getKey("FloatFunc"+options.getCodegenKey(), args, expr);
+		FloatFunc func = cache.get(key);
+		if(func != null)
+			return func;
+		String className = "JITFloatFunc_"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
+		GeneratedClass genClass = options.getBackend().genFloatFunc(className, expr, args, options);
+		return cache.newInstance(key, genClass, options);
+	}
+	
+	/**
+	 * Compile expr into a single precision function evaluating it at many points
+	 * 
+	 * @param args
+	 * @param expr
+	 * @return
+	 */
+	public static FloatBatchFunc compileFloatBatchFunc(Expr[] args, Expr expr) {
+		return compileFloatBatchFunc(args, expr, options);
+	}
+	
+	/**
+	 * 
+	 * @param args
+	 * @param expr
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static FloatBatchFunc compileFloatBatchFunc(Expr[] args, Expr expr, JITOptions options) {
+		String key = FuncCache.getKey("FloatBatchFunc"+options.getCodegenKey(), args, expr);
+		FloatBatchFunc func = cache.get(key);
+		if(func != null)
+			return func;
+		String className = "JITFloatBatchFunc_"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
+		GeneratedClass genClass = options.getBackend().genFloatBatchFunc(className, expr, args, options);
+		return cache.newInstance(key, genClass, options);
+	}
+	
+	/**
+	 * Compile expr into a function returning its value and its gradient in one pass:
+	 * outAry[outPos] = expr, outAry[outPos+1+j] = d(expr)/d(args[j]).
+	 * The derivatives are propagated with the values (forward mode, see GradientCodegen), 
+	 * no symbolic derivative is built.
+	 * 
+	 * @param args
+	 * @param expr
+	 * @return
+	 */
+	public static BytecodeVecFunc compileWithGradient(Expr[] args, Expr expr) {
+		return compileWithGradient(args, expr, options);
+	}
+	
+	/**
+	 * 
+	 * @param args
+	 * @param expr
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static BytecodeVecFunc compileWithGradient(Expr[] args, Expr expr, JITOptions options) {
+		String key = FuncCache.getKey("ForwardGradient"+options.getCodegenKey(), args, expr);
+		BytecodeVecFunc func = cache.get(key);
+		if(func != null)
+			return func;
+		String className = "JITGradFunc_"+args.length+"_"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
+		GeneratedClass genClass = options.getBackend().genForwardGradient(className, expr, args, options);
+		return cache.newInstance(key, genClass, options);
+	}
+	
+	/**
+	 * Compile expr into a function returning its gradient: 
+	 * outAry[outPos+j] = d(expr)/d(args[j]).
+	 * The adjoints are propagated from expr to the arguments (reverse mode, 
+	 * see GradientCodegen), the cost is a small multiple of one evaluation 
+	 * of expr for any number of arguments.
+	 * 
+	 * @param args
+	 * @param expr
+	 * @return
+	 */
+	public static BytecodeVecFunc compileGradient(Expr[] args, Expr expr) {
+		return compileGradient(args, expr, options);
+	}
+	
+	/**
+	 * 
+	 * @param args
+	 * @param expr
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static BytecodeVecFunc compileGradient(Expr[] args, Expr expr, JITOptions options) {
+		String key = FuncCache.getKey("ReverseGradient"+options.getCodegenKey(), args, expr);
+		BytecodeVecFunc func = cache.get(key);
+		if(func != null)
+			return func;
+		String className = "JITGradFunc_"+args.length+"_"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
+		GeneratedClass genClass = options.getBackend().genReverseGradient(className, expr, args, options);
+		return cache.newInstance(key, genClass, options);
+	}
+	
+	/**
+	 * Compile the Jacobian of exprs with respect to args: outAry[outPos+k] is the 
+	 * k-th non-zero entry in CSR order of the pattern Utils.getDependencies(exprs, args).
+	 * The arguments are colored by Utils.colorColumns() and the cost is about the 
+	 * number of colors times one evaluation, see GradientCodegen.genClassJacobian()
+	 * 
+	 * @param args
+	 * @param exprs
+	 * @return
+	 */
+	public static BytecodeVecFunc compileJacobian(Expr[] args, Expr[] exprs) {
+		return compileJacobian(args, exprs, options);
+	}
+	
+	/**
+	 * 
+	 * @param args
+	 * @param exprs
+	 * @param options static method is not supported
+	 * @return
+	 */
+	public static BytecodeVecFunc compileJacobian(Expr[] args, Expr[] exprs, JITOptions options) {
+		String key = FuncCache.getKey("Jacobian"+options.getCodegenKey(), args, exprs);
+		BytecodeVecFunc func = cache.get(key);
+		if(func != null)
+			return func;
+		String className = "JITJacobianFunc_"+exprs.length+"_"+java.util.UUID.randomUUID().toString().replaceAll("-", "");
+		GeneratedClass genClass = options.getBackend().genJacobian(className, exprs, args, options);
+		return cache.newInstance(key, genClass, options);
 	}
 	
 	public static void main(String[] args) {
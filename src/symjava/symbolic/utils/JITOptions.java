@@ -0,0 +1,410 @@
+package symjava.symbolic.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * Options of the bytecode generation, see JIT.
+ *
+ * By default the generated classes are only defined in memory. Set a dump
+ * directory to write the class files to disk, e.g. for inspecting them
+ * with javap.
+ *
+ */
+public class JITOptions {
+	/**
+	 * The directory where the class files were written before JITOptions was introduced
+	 */
+	public static final String LEGACY_DUMP_DIR = "bin/symjava/bytecode";
+
+	/**
+	 * The largest number of lanes of the batch functions, see setLanes()
+	 */
+	public static final int MAX_LANES = 16;
+
+	static int nativeLanes = -1;
+	static Boolean fmaSupported = null;
+	static int vectorApiLength = -1;
+
+	String dumpDir = null;
+	boolean dumpOnErrorOnly = false;
+	boolean staticMethod = false;
+	boolean debug = false;
+	CodegenBackend backend = BcelBackend.INSTANCE;
+	int lanes = 1;
+	boolean vectorApi = false;
+	boolean fma = false;
+	boolean horner = false;
+	boolean inlinePow = true;
+	boolean relaxedMath = false;
+
+	public JITOptions() {
+	}
+
+	public JITOptions(JITOptions options) {
+		this.dumpDir = options.dumpDir;
+		this.dumpOnErrorOnly = options.dumpOnErrorOnly;
+		this.staticMethod = options.staticMethod;
+		this.debug = options.debug;
+		this.backend = options.backend;
+		this.lanes = options.lanes;
+		this.vectorApi = options.vectorApi;
+		this.fma = options.fma;
+		this.horner = options.horner;
+		this.inlinePow = options.inlinePow;
+		this.relaxedMath = options.relaxedMath;
+	}
+
+	/**
+	 * Options equal to the old flags of the code generators
+	 *
+	 * @param writeClassFile write class files to LEGACY_DUMP_DIR
+	 * @param staticMethod
+	 * @return
+	 */
+	public static JITOptions fromFlags(boolean writeClassFile, boolean staticMethod) {
+		return new JITOptions()
+			.setDumpDir(writeClassFile ? LEGACY_DUMP_DIR : null)
+			.setStaticMethod(staticMethod);
+	}
+
+	public String getDumpDir() {
+		return dumpDir;
+	}
+
+	/**
+	 * Set the directory of the class files, null for not writing class files
+	 *
+	 * @param dumpDir
+	 * @return
+	 */
+	public JITOptions setDumpDir(String dumpDir) {
+		this.dumpDir = dumpDir;
+		return this;
+	}
+
+	public boolean isDumpOnErrorOnly() {
+		return dumpOnErrorOnly;
+	}
+
+	/**
+	 * Write a class file only if the class can not be defined, e.g. it fails
+	 * the verification. The file is written to the system temporary directory
+	 * if no dump directory is set.
+	 *
+	 * @param dumpOnErrorOnly
+	 * @return
+	 */
+	public JITOptions setDumpOnErrorOnly(boolean dumpOnErrorOnly) {
+		this.dumpOnErrorOnly = dumpOnErrorOnly;
+		return this;
+	}
+
+	public boolean isStaticMethod() {
+		return staticMethod;
+	}
+
+	/**
+	 * Generate 'public static apply()' instead of an instance method. A static
+	 * function is called by the name of its class, see BytecodeSupport.
+	 *
+	 * @param staticMethod
+	 * @return
+	 */
+	public JITOptions setStaticMethod(boolean staticMethod) {
+		this.staticMethod = staticMethod;
+		return this;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * Print the compiled expressions
+	 *
+	 * @param debug
+	 * @return
+	 */
+	public JITOptions setDebug(boolean debug) {
+		this.debug = debug;
+		return this;
+	}
+
+	public CodegenBackend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Set the generator of the classes, BcelBackend by default
+	 *
+	 * @param backend
+	 * @return
+	 */
+	public JITOptions setBackend(CodegenBackend backend) {
+		this.backend = backend;
+		return this;
+	}
+
+	/**
+	 * Return the number of lanes of the batch functions, 0 is resolved
+	 * to getNativeLanes()
+	 *
+	 * @return
+	 */
+	public int getLanes() {
+		return lanes == 0 ? getNativeLanes() : lanes;
+	}
+
+	/**
+	 * Evaluate the arithmetic expressions of the batch functions at 'lanes'
+	 * points in each iteration of the loop, operation by operation for all the
+	 * points. The loop is shaped for the superword optimization of the C2
+	 * compiler, which packs such isomorphic operations on adjacent array
+	 * elements into SIMD instructions. The remaining points are evaluated
+	 * by the scalar loop. It is the fallback of setVectorApi().
+	 *
+	 * @param lanes 1 for the scalar loop only (default), 0 for getNativeLanes()
+	 * @return
+	 */
+	public JITOptions setLanes(int lanes) {
+		if(lanes < 0 || lanes > MAX_LANES)
+			throw new IllegalArgumentException("lanes must be in [0, "+MAX_LANES+"]: "+lanes);
+		this.lanes = lanes;
+		return this;
+	}
+
+	/**
+	 * Return the number of doubles in a SIMD register used by the C2 compiler
+	 * (-XX:MaxVectorSize), or 1 if the superword optimization is disabled or
+	 * the JVM is not HotSpot
+	 *
+	 * @return
+	 */
+	public static synchronized int getNativeLanes() {
+		if(nativeLanes < 0) {
+			nativeLanes = 1;
+			try {
+				HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+				if("true".equals(vm.getVMOption("UseSuperWord").getValue())) {
+					int bytes = Integer.parseInt(vm.getVMOption("MaxVectorSize").getValue());
+					nativeLanes = Math.max(1, Math.min(MAX_LANES, bytes/8));
+				}
+			} catch (Exception e) {
+				//Not HotSpot or the C2 compiler is not available
+			} catch (LinkageError e) {
+				//com.sun.management is not available
+			}
+		}
+		return nativeLanes;
+	}
+
+	public boolean isVectorApi() {
+		return vectorApi;
+	}
+
+	/**
+	 * Evaluate the arithmetic expressions of the batch functions with the
+	 * lane-wise operations of jdk.incubator.vector.DoubleVector, 
+	 * getVectorApiLength() points in each iteration of the loop. The 
+	 * remaining points are evaluated by the scalar loop. The results are the
+	 * same as the scalar loop. It has no effect if the Vector API is not
+	 * available, see getVectorApiLength(), the lane loop of setLanes() is 
+	 * generated instead.
+	 *
+	 * @param vectorApi
+	 * @return
+	 */
+	public JITOptions setVectorApi(boolean vectorApi) {
+		this.vectorApi = vectorApi;
+		return this;
+	}
+
+	/**
+	 * Return the number of doubles in DoubleVector.SPECIES_PREFERRED, or 0 if
+	 * the Vector API is not available: Java 15 or earlier, or the module is
+	 * not added by --add-modules jdk.incubator.vector
+	 *
+	 * @return
+	 */
+	public static synchronized int getVectorApiLength() {
+		if(vectorApiLength < 0) {
+			vectorApiLength = 0;
+			try {
+				Object species = Class.forName("jdk.incubator.vector.DoubleVector")
+						.getField("SPECIES_PREFERRED").get(null);
+				int n = (Integer)Class.forName("jdk.incubator.vector.VectorSpecies")
+						.getMethod("length").invoke(species);
+				vectorApiLength = n > 1 ? n : 0;
+			} catch (Exception e) {
+				//The Vector API is not available
+			} catch (LinkageError e) {
+				//The Vector API is not available
+			}
+		}
+		return vectorApiLength;
+	}
+
+	/**
+	 * Return true if setVectorApi() is on and the Vector API is available
+	 *
+	 * @return
+	 */
+	public boolean useVectorApi() {
+		return vectorApi && getVectorApiLength() > 0;
+	}
+
+	public boolean isFma() {
+		return fma;
+	}
+
+	/**
+	 * Compile a*b + c to Math.fma(a, b, c), which is rounded once. It has no
+	 * effect if isFmaSupported() returns false since the software emulation
+	 * of Math.fma() is much slower than a multiplication and an addition.
+	 *
+	 * @param fma
+	 * @return
+	 */
+	public JITOptions setFma(boolean fma) {
+		this.fma = fma;
+		return this;
+	}
+
+	public boolean isHorner() {
+		return horner;
+	}
+
+	/**
+	 * Compile the sums which are polynomials in one argument in the
+	 * Horner form, see CodegenRewriter
+	 *
+	 * @param horner
+	 * @return
+	 */
+	public JITOptions setHorner(boolean horner) {
+		this.horner = horner;
+		return this;
+	}
+
+	public boolean isInlinePow() {
+		return inlinePow;
+	}
+
+	/**
+	 * Compile the powers with a constant integer exponent up to 
+	 * CodegenRewriter.MAX_INLINE_POW to multiplications (default), see
+	 * CodegenRewriter. The multiplications are done in the same order as
+	 * BytecodeSupport.powi(), which is called if it is false, so the results
+	 * are the same.
+	 *
+	 * @param inlinePow
+	 * @return
+	 */
+	public JITOptions setInlinePow(boolean inlinePow) {
+		this.inlinePow = inlinePow;
+		return this;
+	}
+
+	public boolean isRelaxedMath() {
+		return relaxedMath;
+	}
+
+	/**
+	 * Allow the rewrites of CodegenRewriter which are faster but may change
+	 * the last bits of the results: Exp is compiled to Math.exp(x) instead of
+	 * Math.pow(e, x) and a*(1/b) to a/b. It is off by default.
+	 *
+	 * @param relaxedMath
+	 * @return
+	 */
+	public JITOptions setRelaxedMath(boolean relaxedMath) {
+		this.relaxedMath = relaxedMath;
+		return this;
+	}
+
+	/**
+	 * Return true if Math.fma() exists (Java 9 or later) and it is
+	 * an instruction of the CPU (-XX:+UseFMA)
+	 *
+	 * @return
+	 */
+	public static synchronized boolean isFmaSupported() {
+		if(fmaSupported == null) {
+			fmaSupported = false;
+			try {
+				Math.class.getMethod("fma", double.class, double.class, double.class);
+				HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+				fmaSupported = "true".equals(vm.getVMOption("UseFMA").getValue());
+			} catch (Exception e) {
+				//Java 8 or not HotSpot
+			} catch (LinkageError e) {
+				//com.sun.management is not available
+			}
+		}
+		return fmaSupported;
+	}
+
+	/**
+	 * Return a string identifying the options which change the generated
+	 * code, it is a part of the keys of the compiled functions in FuncCache
+	 *
+	 * @return
+	 */
+	public String getCodegenKey() {
+		StringBuilder sb = new StringBuilder();
+		int n = getLanes();
+		if(n != 1)
+			sb.append("[lanes=").append(n).append("]");
+		if(useVectorApi())
+			sb.append("[vector=").append(getVectorApiLength()).append("]");
+		if(fma && isFmaSupported())
+			sb.append("[fma]");
+		if(horner)
+			sb.append("[horner]");
+		if(!inlinePow)
+			sb.append("[powi]");
+		if(relaxedMath)
+			sb.append("[relaxed]");
+		return sb.toString();
+	}
+
+	/**
+	 * Write the class file of gc if a dump directory is set and
+	 * dumpOnErrorOnly is false
+	 *
+	 * @param gc
+	 */
+	public void dump(GeneratedClass gc) {
+		if(dumpDir != null && !dumpOnErrorOnly)
+			writeClassFile(gc, dumpDir);
+	}
+
+	/**
+	 * Write the class file of gc which can not be defined
+	 *
+	 * @param gc
+	 */
+	public void dumpOnError(GeneratedClass gc) {
+		if(dumpOnErrorOnly)
+			writeClassFile(gc, dumpDir != null ? dumpDir : System.getProperty("java.io.tmpdir"));
+	}
+
+	static void writeClassFile(GeneratedClass gc, String dir) {
+		String className = gc.className.substring(gc.className.lastIndexOf('.')+1);
+		try {
+			new File(dir).mkdirs();
+			FileOutputStream out = new FileOutputStream(new File(dir, className+".class"));
+			try {
+				out.write(gc.bytes);
+			} finally {
+				out.close();
+			}
+		} catch (java.io.IOException e) {
+			System.err.println(e);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package symjava.symbolic.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import symjava.symbolic.Expr;
+
+/**
+ * Read the sort key of an expression char by char. The key of an operator
+ * is given by its parts, see Expr.getSortKeyParts(), which are visited with
+ * an explicit stack instead of being concatenated into one string.
+ *
+ */
+public class SortKeyReader {
+	List<Object> stack = new ArrayList<Object>();
+	String cur = "";
+	int pos = 0;
+
+	public SortKeyReader(Expr expr) {
+		stack.add(expr);
+	}
+
+	/**
+	 * Return the next char of the key or -1 at the end of the key
+	 * @return
+	 */
+	public int next() {
+		while(pos >= cur.length()) {
+			if(stack.isEmpty())
+				return -1;
+			Object o = stack.remove(stack.size() - 1);
+			if(o instanceof Expr) {
+				Expr e = (Expr)o;
+				Object[] parts = e.getSortKeyParts();
+				if(parts != null) {
+					for(int i = parts.length - 1; i >= 0; i--)
+						stack.add(parts[i]);
+					continue;
+				}
+				o = e.getSortKey();
+			}
+			cur = String.valueOf(o);
+			pos = 0;
+		}
+		return cur.charAt(pos++);
+	}
+
+	/**
+	 * Build the whole key as a string
+	 * @param expr
+	 * @return
+	 */
+	public static String read(Expr expr) {
+		SortKeyReader r = new SortKeyReader(expr);
+		StringBuilder sb = new StringBuilder();
+		for(int c = r.next(); c >= 0; c = r.next())
+			sb.append((char)c);
+		return sb.toString();
+	}
+}
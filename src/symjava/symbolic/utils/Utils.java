@@ -2,22 +2,30 @@ package symjava.symbolic.utils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import symjava.symbolic.Add;
 import symjava.symbolic.Divide;
 import symjava.symbolic.Expr;
 import symjava.symbolic.Func;
+import symjava.symbolic.Integrate;
 import symjava.symbolic.Multiply;
 import symjava.symbolic.Negate;
+import symjava.symbolic.Pow;
 import symjava.symbolic.Reciprocal;
 import symjava.symbolic.Subtract;
 import symjava.symbolic.Symbol;
 import symjava.symbolic.Symbols;
+import symjava.symbolic.SymReal;
 
 public class Utils {
 
@@ -35,49 +43,94 @@ public class Utils {
 		return l;
 	}
 	
-	public static Expr[] sortExprs(Expr[] exprs) {
-		Arrays.sort(exprs, new Comparator<Expr>() {
-			@Override
-			public int compare(Expr o1, Expr o2) {
-				if(o1 instanceof Symbol && o2 instanceof Symbol) {
-					Symbol s1 = (Symbol)o1;
-					Symbol s2 = (Symbol)o2;
-					
-					int rlt = s1.getPrefix().compareTo(s2.getPrefix());
-					if(rlt == 0) {
-						if(s1.containsSubIndex() && s2.containsSubIndex())
-							return s1.getSubIndex()-s2.getSubIndex();
-					}
-					return rlt;
-				}
-				return o1.getSortKey().compareTo(o2.getSortKey());
+	static Comparator<Expr> sortKeyComparator = new Comparator<Expr>() {
+		@Override
+		public int compare(Expr o1, Expr o2) {
+			return compareSortKey(o1, o2);
+		}
+	};
+	
+	/**
+	 * Compare the sort keys of two expressions. The digits in the keys are
+	 * compared by their numeric values, so the sub indices of symbols are in
+	 * numeric order, e.g. x_2, x_10, xx_1. The keys are read by SortKeyReader, 
+	 * so the keys of the sub expressions of an operator are not built.
+	 * 
+	 * @param e1
+	 * @param e2
+	 * @return
+	 */
+	public static int compareSortKey(Expr e1, Expr e2) {
+		if(e1 == e2)
+			return 0;
+		SortKeyReader r1 = new SortKeyReader(e1);
+		SortKeyReader r2 = new SortKeyReader(e2);
+		StringBuilder d1 = new StringBuilder();
+		StringBuilder d2 = new StringBuilder();
+		int c1 = r1.next(), c2 = r2.next();
+		while(c1 >= 0 && c2 >= 0) {
+			if(Character.isDigit(c1) && Character.isDigit(c2)) {
+				d1.setLength(0);
+				d2.setLength(0);
+				for(; c1 >= 0 && Character.isDigit(c1); c1 = r1.next())
+					d1.append((char)c1);
+				for(; c2 >= 0 && Character.isDigit(c2); c2 = r2.next())
+					d2.append((char)c2);
+				int cmp = compareDigits(d1, d2);
+				if(cmp != 0)
+					return cmp;
+			} else if(c1 != c2) {
+				return c1 - c2;
+			} else {
+				c1 = r1.next();
+				c2 = r2.next();
 			}
-		});
+		}
+		if(c1 >= 0 || c2 >= 0)
+			return c1 >= 0 ? 1 : -1;
+		//The keys differ at most in the leading zeros of the numbers
+		r1 = new SortKeyReader(e1);
+		r2 = new SortKeyReader(e2);
+		do {
+			c1 = r1.next();
+			c2 = r2.next();
+		} while(c1 == c2 && c1 >= 0);
+		return c1 - c2;
+	}
+	
+	/**
+	 * Compare two numbers given by their digits, the leading zeros are skipped
+	 * and the longer number is greater
+	 */
+	private static int compareDigits(CharSequence s1, CharSequence s2) {
+		int b1 = 0, b2 = 0;
+		int n1 = s1.length(), n2 = s2.length();
+		while(b1 < n1 - 1 && s1.charAt(b1) == '0')
+			b1++;
+		while(b2 < n2 - 1 && s2.charAt(b2) == '0')
+			b2++;
+		if(n1 - b1 != n2 - b2)
+			return (n1 - b1) - (n2 - b2);
+		for(; b1 < n1; b1++, b2++) {
+			if(s1.charAt(b1) != s2.charAt(b2))
+				return s1.charAt(b1) - s2.charAt(b2);
+		}
+		return 0;
+	}
+	
+	public static Expr[] sortExprs(Expr[] exprs) {
+		Arrays.sort(exprs, sortKeyComparator);
 		return exprs;
 	}
 	
 	public static List<Expr> sortExprs(List<Expr> list) {
-		Collections.sort(list, new Comparator<Expr>() {
-			@Override
-			public int compare(Expr o1, Expr o2) {
-				if(o1 instanceof Symbol && o2 instanceof Symbol) {
-					Symbol s1 = (Symbol)o1;
-					Symbol s2 = (Symbol)o2;
-					
-					int rlt = s1.getPrefix().compareTo(s2.getPrefix());
-					if(rlt == 0) {
-						if(s1.containsSubIndex() && s2.containsSubIndex())
-							return s1.getSubIndex()-s2.getSubIndex();
-					}
-					return rlt;
-				}
-				return o1.getSortKey().compareTo(o2.getSortKey());
-			}
-		});
+		Collections.sort(list, sortKeyComparator);
 		return list;
 	}
 
 	public static boolean flattenSortAndCompare(Expr expr1, Expr expr2) {
+		if(expr1 == expr2)
+			return true;
 		List<Expr> l1 = flattenAddAndSort(expr1);
 		List<Expr> l2 = flattenAddAndSort(expr2);
 		if(l1.size() != l2.size())
@@ -106,6 +159,8 @@ public class Utils {
 	 * @return
 	 */
 	public static boolean symCompare(Expr expr1, Expr expr2) {
+		if(expr1 == expr2)
+			return true;
 		if( expr1 instanceof Symbol || expr1 instanceof Symbols)
 			return expr1.symEquals(expr2);
 		if( expr2 instanceof Symbol || expr2 instanceof Symbols)
@@ -153,69 +208,218 @@ public class Utils {
 		List<Expr> addList = flattenAddAndSort(expr);
 		List<Expr> rlt = new ArrayList<Expr>();
 		for(int i=0; i<addList.size(); i++) {
-			Expr e = addList.get(i);
-			List<Expr> mulList = flattenMultiplyAndSort(e);
-			if(mulList.size() == 1)
-				rlt.addAll(mulList);
-			else {
-				int sign = getMultiplyGlobalSign(mulList);
-				removeNegate(mulList);
-				//if(mulList.size() > 2) {
-					simplifyMultiplyListHelper(mulList);
-				//}
-				if(sign == -1) {
-					rlt.add(new Negate(multiplyListToExpr(mulList)));
-				} else {
-					rlt.add(multiplyListToExpr(mulList));
-				}				
-			}
+			rlt.add(simplifyAddTerm(addList.get(i)));
 		}
 		//if(addList.size() > 2) {
 			simplifyAddListHelper(rlt);
 		//}
-		Expr ret = addListToExpr(rlt);
-		ret.setAsSimplified();
-		return ret;
+		Expr ret = Add.sortedSumOf(rlt);
+		if(ret != null)
+			return ret;
+		ret = addListToExpr(rlt);
+		return HashCons.setAsSimplified(ret);
+	}
+	
+	/**
+	 * Simplify a term of a sum (see flattenAdd()) which is a product of factors
+	 * 
+	 * @param e
+	 * @return
+	 */
+	public static Expr simplifyAddTerm(Expr e) {
+		List<Expr> mulList = flattenMultiplyAndSort(e);
+		if(mulList.size() == 1)
+			return mulList.get(0);
+		int sign = getMultiplyGlobalSign(mulList);
+		removeNegate(mulList);
+		//if(mulList.size() > 2) {
+			simplifyMultiplyListHelper(mulList);
+		//}
+		if(sign == -1) {
+			return HashCons.intern(new Negate(HashCons.internOperand(multiplyListToExpr(mulList))));
+		} else {
+			return multiplyListToExpr(mulList);
+		}
+	}
+	
+	/**
+	 * The terms of a sum or the factors of a product which have the same
+	 * non-numeric part, e.g. 2*x and 3*x or pow(x,2) and x
+	 */
+	static class LikeTerms {
+		Expr first;
+		Expr coeff;
+		int count;
+		LikeTerms(Expr first, Expr coeff) {
+			this.first = first;
+			this.coeff = coeff;
+			this.count = 1;
+		}
 	}
 	
+	/**
+	 * Collect the like terms of l in one pass: the terms are bucketed by their
+	 * symbol part (see Multiply.getSymbolTerm()) and the coefficients of a bucket
+	 * are summed up. The terms which are left are combined pairwise by 
+	 * Add.shallowSimplifiedIns() only if they are negated, e.g. -x - y = -(x + y)
+	 * 
+	 * @param l
+	 * @return l
+	 */
 	protected static List<Expr> simplifyAddListHelper(List<Expr> l) {
-		List<Expr> l2 = new ArrayList<Expr>();
+		Map<Expr, LikeTerms> buckets = new LinkedHashMap<Expr, LikeTerms>();
+		LikeTerms constant = null;
+		for(Expr e : l) {
+			boolean neg = false;
+			Expr t = e;
+			while(t instanceof Negate) {
+				neg = !neg;
+				t = ((Negate)t).arg;
+			}
+			Expr coeff = Symbol.C1;
+			if(t instanceof SymReal<?>) {
+				coeff = t;
+				t = null;
+			} else if(t instanceof Multiply && ((Multiply)t).getCoeffTerm() != null) {
+				coeff = ((Multiply)t).getCoeffTerm();
+				t = ((Multiply)t).getSymbolTerm();
+			}
+			if(neg)
+				coeff = Subtract.shallowSimplifiedIns(Symbol.C0, coeff);
+			LikeTerms terms = t == null ? constant : buckets.get(t);
+			if(terms == null) {
+				terms = new LikeTerms(e, coeff);
+				if(t == null)
+					constant = terms;
+				else
+					buckets.put(t, terms);
+			} else {
+				terms.coeff = Add.shallowSimplifiedIns(terms.coeff, coeff);
+				terms.count++;
+			}
+		}
 		
-		while(true) {
-			boolean foundPair = false;
-			for(int i=0; i<l.size(); i++) {
-				boolean found = false;
-				for(int j=i+1; j<l.size(); j++) {
-					int oldSimOps = l.get(i).getSimplifyOps() + l.get(j).getSimplifyOps();
-					//Expr simIns = Add.simplifiedIns(l.get(i), l.get(j));
-					Expr simIns = Add.shallowSimplifiedIns(l.get(i), l.get(j));
-					if( simIns.getSimplifyOps() > oldSimOps ) {
-						l2.add(simIns);
-						found = true;
-						foundPair = true;
-						l.remove(j);
-						break;
-					}
-				}
-				if(found) {
-					l.remove(i);
-					break;
+		List<Expr> rlt = new ArrayList<Expr>();
+		List<Expr> negs = new ArrayList<Expr>();
+		for(Map.Entry<Expr, LikeTerms> entry : buckets.entrySet()) {
+			LikeTerms terms = entry.getValue();
+			Expr e = terms.first;
+			if(terms.count > 1) {
+				SymReal<?> coeff = (SymReal<?>)terms.coeff;
+				if(coeff.isZero())
+					continue;
+				if(coeff.getDoubleValue() < 0) {
+					Expr abs = Subtract.shallowSimplifiedIns(Symbol.C0, coeff);
+					e = HashCons.intern(new Negate(HashCons.internOperand(simplifyAddTerm(abs.multiply(entry.getKey())))).setAsSimplified());
+				} else {
+					e = simplifyAddTerm(coeff.multiply(entry.getKey()));
 				}
 			}
-			if(!foundPair)
-				break;
+			if(e instanceof Negate)
+				negs.add(e);
+			else
+				rlt.add(e);
 		}
-		
-		if(l2.size() > 0) {
-			l.addAll(l2);
-			return simplifyAddListHelper(l);
+		if(constant != null) {
+			Expr c = constant.count > 1 ? constant.coeff : constant.first;
+			if(!Symbol.C0.symEquals(c) || (rlt.isEmpty() && negs.isEmpty()))
+				rlt.add(c);
+		} else if(rlt.isEmpty() && negs.isEmpty()) {
+			rlt.add(Symbol.C0);
 		}
 		
+		rlt.addAll(mergePairs(negs, true));
+		l.clear();
+		l.addAll(rlt);
 		sortExprs(l);
 		return l;
 	}
 	
+	/**
+	 * Collect the factors of l with the same base in one pass: the exponents 
+	 * of a base are summed up, e.g. x*pow(x,2) = pow(x,3), and the numbers are
+	 * multiplied. Reciprocals and powers which are left are combined pairwise by 
+	 * Multiply.shallowSimplifiedIns()
+	 * 
+	 * @param l
+	 * @return l
+	 */
 	protected static List<Expr> simplifyMultiplyListHelper(List<Expr> l) {
+		Map<Expr, LikeTerms> buckets = new LinkedHashMap<Expr, LikeTerms>();
+		LikeTerms constant = null;
+		List<Expr> others = new ArrayList<Expr>();
+		for(Expr e : l) {
+			if(e instanceof SymReal<?>) {
+				if(constant == null)
+					constant = new LikeTerms(e, e);
+				else {
+					constant.coeff = Multiply.shallowSimplifiedIns(constant.coeff, e);
+					constant.count++;
+				}
+				continue;
+			} else if(e instanceof Reciprocal) {
+				others.add(e);
+				continue;
+			}
+			Expr base = e;
+			Expr exp = Symbol.C1;
+			if(e instanceof Pow) {
+				base = ((Pow)e).arg1;
+				exp = ((Pow)e).arg2;
+			}
+			LikeTerms terms = buckets.get(base);
+			if(terms == null) {
+				buckets.put(base, new LikeTerms(e, exp));
+			} else {
+				terms.coeff = terms.coeff.add(exp);
+				terms.count++;
+			}
+		}
+		
+		List<Expr> rlt = new ArrayList<Expr>();
+		for(Map.Entry<Expr, LikeTerms> entry : buckets.entrySet()) {
+			LikeTerms terms = entry.getValue();
+			Expr e = terms.first;
+			if(terms.count > 1) {
+				e = Pow.simplifiedIns(entry.getKey(), terms.coeff);
+				if(e instanceof SymReal<?>)
+					continue;
+				e = HashCons.setAsSimplified(e);
+			}
+			if(e instanceof Pow)
+				others.add(e);
+			else
+				rlt.add(e);
+		}
+		rlt.addAll(mergePairs(others, false));
+		if(constant != null) {
+			Expr c = constant.count > 1 ? constant.coeff : constant.first;
+			if(Symbol.C0.symEquals(c)) {
+				rlt.clear();
+				rlt.add(c);
+			} else if(rlt.isEmpty() || !Symbol.C1.symEquals(c)) {
+				if(!rlt.isEmpty() && Symbol.Cm1.symEquals(c))
+					rlt.set(0, Multiply.shallowSimplifiedIns(c, rlt.get(0)));
+				else
+					rlt.add(c);
+			}
+		}
+		if(rlt.isEmpty()) //e.g. x*pow(x,-1)
+			rlt.add(Symbol.C1);
+		l.clear();
+		l.addAll(rlt);
+		sortExprs(l);
+		return l;
+	}
+	
+	/**
+	 * Combine the pairs of l which can be simplified until there is no such pair
+	 * 
+	 * @param l
+	 * @param isAdd Add.shallowSimplifiedIns() or Multiply.shallowSimplifiedIns()
+	 * @return l
+	 */
+	static List<Expr> mergePairs(List<Expr> l, boolean isAdd) {
 		List<Expr> l2 = new ArrayList<Expr>();
 		
 		while(true) {
@@ -224,7 +428,8 @@ public class Utils {
 				boolean found = false;
 				for(int j=i+1; j<l.size(); j++) {
 					int oldSimOps = l.get(i).getSimplifyOps() + l.get(j).getSimplifyOps();
-					Expr simIns = Multiply.shallowSimplifiedIns(l.get(i), l.get(j));
+					Expr simIns = isAdd ? Add.shallowSimplifiedIns(l.get(i), l.get(j)) :
+						Multiply.shallowSimplifiedIns(l.get(i), l.get(j));
 					if( simIns.getSimplifyOps() > oldSimOps ) {
 						l2.add(simIns);
 						found = true;
@@ -244,10 +449,8 @@ public class Utils {
 		
 		if(l2.size() > 0) {
 			l.addAll(l2);
-			return simplifyMultiplyListHelper(l);
+			return mergePairs(l, isAdd);
 		}
-		
-		sortExprs(l);
 		return l;
 	}
 	
@@ -257,16 +460,16 @@ public class Utils {
 				throw new RuntimeException("Empty expression list!");
 			return list.get(0);
 		} else {
-			Expr rlt = list.get(0);
+			Expr rlt = HashCons.internOperand(list.get(0));
 			for(int i=1; i<list.size(); i++) {
 				Expr e = list.get(i);
 				if(e instanceof Negate) {
 					Negate ee = (Negate)e;
 					//rlt = Subtract.shallowSimplifiedIns(rlt, ee.base);
-					rlt = new Subtract(rlt, ee.arg);
+					rlt = HashCons.intern(new Subtract(rlt, HashCons.internOperand(ee.arg)));
 				} else
 					//rlt = Add.shallowSimplifiedIns(rlt, e);
-					rlt = new Add(rlt, e);
+					rlt = HashCons.intern(new Add(rlt, HashCons.internOperand(e)));
 			}
 			return rlt;
 		}
@@ -278,16 +481,16 @@ public class Utils {
 				throw new RuntimeException("Empty expression list!");
 			return list.get(0);
 		} else {
-			Expr rlt = list.get(0);
+			Expr rlt = HashCons.internOperand(list.get(0));
 			for(int i=1; i<list.size(); i++) {
 				Expr e = list.get(i);
 				if(e instanceof Reciprocal) {
 					Reciprocal ee = (Reciprocal)e;
 					//rlt = Divide.shallowSimplifiedIns(rlt, ee.base);
-					rlt = new Divide(rlt, ee.arg);
+					rlt = HashCons.intern(new Divide(rlt, HashCons.internOperand(ee.arg)));
 				} else {
 					//rlt = Multiply.shallowSimplifiedIns(rlt, e);
-					rlt = new Multiply(rlt, e);
+					rlt = HashCons.intern(new Multiply(rlt, HashCons.internOperand(e)));
 				}
 			}
 			return rlt;
@@ -320,6 +523,92 @@ public class Utils {
 		return rlt;
 	}
 	
+	/**
+	 * Return the indices of the arguments each expression depends on, i.e. the 
+	 * sparsity pattern of the Jacobian of exprs with respect to args
+	 * 
+	 * @param exprs
+	 * @param args
+	 * @return the i-th row is the sorted indices for exprs[i]
+	 */
+	public static int[][] getDependencies(Expr[] exprs, Expr[] args) {
+		Map<Expr, Integer> argsMap = new HashMap<Expr, Integer>();
+		for(int i=0; i<args.length; i++)
+			argsMap.put(args[i], i);
+		Map<Expr, BitSet> deps = new IdentityHashMap<Expr, BitSet>();
+		int[][] ret = new int[exprs.length][];
+		for(int i=0; i<exprs.length; i++) {
+			BitSet bits = getDependencies(exprs[i], argsMap, deps);
+			ret[i] = new int[bits.cardinality()];
+			int k = 0;
+			for(int j=bits.nextSetBit(0); j>=0; j=bits.nextSetBit(j+1))
+				ret[i][k++] = j;
+		}
+		return ret;
+	}
+	
+	private static BitSet getDependencies(Expr e, Map<Expr, Integer> argsMap, Map<Expr, BitSet> deps) {
+		e = BytecodeUtils.getEmitExpr(e);
+		if(e == null)
+			return new BitSet();
+		BitSet bits = deps.get(e);
+		if(bits != null)
+			return bits;
+		bits = new BitSet();
+		Integer idx = argsMap.get(e);
+		if(idx != null)
+			bits.set(idx);
+		if(e instanceof Func) {
+			//Parameters of an abstract function
+			for(Expr arg : ((Func)e).args)
+				bits.or(getDependencies(arg, argsMap, deps));
+		} else if(e instanceof Integrate) {
+			bits.or(getDependencies(((Integrate)e).integrand, argsMap, deps));
+		}
+		for(Expr arg : BytecodeUtils.getOperands(e))
+			bits.or(getDependencies(arg, argsMap, deps));
+		deps.put(e, bits);
+		return bits;
+	}
+	
+	/**
+	 * Color the columns of a sparse matrix such that two columns with a non-zero 
+	 * entry in the same row have different colors (Curtis-Powell-Reid). The columns 
+	 * of one color can share one directional derivative when computing a Jacobian.
+	 * Greedy coloring in the order of the columns.
+	 * 
+	 * @param pattern pattern[i] is the columns of the non-zero entries in row i, see getDependencies()
+	 * @param nCol
+	 * @return the color of each column, the colors are 0,1,...
+	 */
+	public static int[] colorColumns(int[][] pattern, int nCol) {
+		List<List<Integer>> colRows = new ArrayList<List<Integer>>();
+		for(int j=0; j<nCol; j++)
+			colRows.add(new ArrayList<Integer>());
+		for(int i=0; i<pattern.length; i++) {
+			for(int j : pattern[i])
+				colRows.get(j).add(i);
+		}
+		int[] colors = new int[nCol];
+		Arrays.fill(colors, -1);
+		//forbidden[c] == j if color c is used by a neighbor of column j
+		int[] forbidden = new int[nCol+1];
+		Arrays.fill(forbidden, -1);
+		for(int j=0; j<nCol; j++) {
+			for(int i : colRows.get(j)) {
+				for(int k : pattern[i]) {
+					if(colors[k] >= 0)
+						forbidden[colors[k]] = j;
+				}
+			}
+			int c = 0;
+			while(forbidden[c] == j)
+				c++;
+			colors[j] = c;
+		}
+		return colors;
+	}
+	
 	public static boolean containSymbol(Expr expr, Symbol s) {
 		List<Expr> list = new ArrayList<Expr>();
 		BytecodeUtils.post_order(expr, list);
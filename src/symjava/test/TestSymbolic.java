@@ -3,16 +3,37 @@ package symjava.test;
 import static symjava.symbolic.Symbol.*;
 import static symjava.math.SymMath.*;
 
+import java.io.File;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import symjava.bytecode.BytecodeBatchFunc;
+import symjava.bytecode.BytecodeBatchVecFunc;
 import symjava.bytecode.BytecodeFunc;
+import symjava.bytecode.BytecodeVecFunc;
+import symjava.bytecode.FloatBatchFunc;
+import symjava.bytecode.FloatFunc;
+import symjava.bytecode.ParallelBatchFunc;
 import symjava.domains.Domain;
 import symjava.domains.Domain2D;
 import symjava.domains.Interval;
 import symjava.math.Div;
 import symjava.math.Dot;
 import symjava.math.Grad;
+import symjava.matrix.SymMatrix;
 import symjava.matrix.SymVector;
+import symjava.numeric.NumMatrix;
+import symjava.numeric.NumSparseMatrix;
 import symjava.numeric.NumVector;
 import symjava.relational.Eq;
 import symjava.relational.Ge;
@@ -21,7 +42,17 @@ import symjava.relational.Le;
 import symjava.relational.Lt;
 import symjava.relational.Neq;
 import symjava.symbolic.*;
+import symjava.symbolic.utils.BytecodeUtils;
+import symjava.symbolic.utils.ClassCache;
+import symjava.symbolic.utils.CommonSubExprs;
+import symjava.symbolic.utils.FloatPrecision;
+import symjava.symbolic.utils.FuncCache;
+import symjava.symbolic.utils.FuncLoader;
+import symjava.symbolic.utils.GeneratedClass;
+import symjava.symbolic.utils.HashCons;
 import symjava.symbolic.utils.JIT;
+import symjava.symbolic.utils.JITOptions;
+import symjava.symbolic.utils.Utils;
 
 
 public class TestSymbolic {
@@ -47,6 +78,12 @@ public class TestSymbolic {
 				System.out.println("FAIL: " + d1 +" != " + d2);
 		}
 	}
+	public static void checkResult(boolean ok, String msg) {
+		if( ok )
+			System.out.println(true);
+		else
+			System.out.println("FAIL: " + msg);
+	}
 	public static void checkResult(String s1, String s2) {
 		if( s1.equals(s2) )
 			System.out.println(true);
@@ -400,6 +437,9 @@ public class TestSymbolic {
 		checkResult("cos(cos(x))*-sin(x)",sin(cos(x)).diff(x));
 		checkResult("-sin(x)*cos(x)",cos(sin(x)).diff(x));
 		checkResult("cos(x)*(1 + (tan(sin(x)))^2)",tan(sin(x)).diff(x));
+		//A sum with a cos term can be sorted
+		checkResult("cos(x) + x*y",x*y + cos(x));
+		checkResult("cos(x) + x",(cos(x) + x).simplify());
 
 	}
 	
@@ -453,6 +493,589 @@ public class TestSymbolic {
 			System.out.println(outAry[i]);
 		}
 	}
+	public static void testCSE() {
+		Expr e = exp(-x*y)*x + exp(-x*y)*y + exp(-x*y)*z;
+		BytecodeFunc f = JIT.compile(new Expr[]{x, y, z}, e);
+		checkResult(Math.exp(-2.0)*6, f.apply(1, 2, 3), e);
+		BytecodeBatchFunc bf = JIT.compileBatchFunc(new Expr[]{x, y, z}, e);
+		double[] outAry = new double[2];
+		bf.apply(outAry, 0, new double[]{1, 2}, new double[]{2, 1}, new double[]{3, 3});
+		checkResult(Math.exp(-2.0)*6, outAry[0], e);
+		checkResult(Math.exp(-2.0)*6, outAry[1], e);
+	}
+	
+	public static void testFuncCache() {
+		Expr[] args = new Expr[]{x, y};
+		//Expressions of the same structure built separately have the same key
+		String k1 = FuncCache.getKey("BytecodeFunc", args, new Add(new Multiply(x, y), new Sin(x)));
+		String k2 = FuncCache.getKey("BytecodeFunc", args, new Add(new Multiply(x, y), new Sin(x)));
+		checkResult(k1, k2);
+		checkResult(!k1.equals(FuncCache.getKey("BytecodeFunc", new Expr[]{y, x}, new Add(new Multiply(x, y), new Sin(x)))), 
+				"the order of the arguments is not a part of the key");
+		checkResult(!k1.equals(FuncCache.getKey("BytecodeFunc", args, new Add(new Multiply(x, y), new Cos(x)))), 
+				"sin(x) and cos(x) have the same key");
+		//The integrands are not cached
+		Expr I = Integrate.apply(exp(z), Interval.apply(0, x, z));
+		checkResult(FuncCache.getKey("BytecodeFunc", args, I) == null, "an integral is cached");
+		
+		FuncCache cache = JIT.getCache();
+		BytecodeFunc f1 = JIT.compile(args, x*y + sin(x));
+		long hits = cache.getHits();
+		BytecodeFunc f2 = JIT.compile(args, x*y + sin(x));
+		checkResult(f1 == f2 && cache.getHits() == hits + 1, "x*y + sin(x) is compiled again");
+		BytecodeFunc f3 = JIT.compile(args, x*y + sin(x), new JITOptions().setInlinePow(false));
+		checkResult(f1 != f3, "the options are not a part of the key");
+		checkResult(f1.apply(1, 2), f3.apply(1, 2), x*y + sin(x));
+	}
+	
+	public static void testClassCache() {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "symjava-test-"+System.nanoTime());
+		ClassCache cc = new ClassCache(dir, 1<<20);
+		byte[] bytes = new byte[] { 1, 2, 3 };
+		try {
+			cc.put("a", "A", bytes);
+			File fa = dir.listFiles()[0];
+			GeneratedClass gc = cc.get("a");
+			checkResult(gc != null && "A".equals(gc.className) && Arrays.equals(bytes, gc.bytes), "a is not stored");
+			
+			//A corrupted file is deleted
+			byte[] data = Files.readAllBytes(fa.toPath());
+			data[10] ^= 1;
+			Files.write(fa.toPath(), data);
+			checkResult(cc.get("a") == null && !fa.exists(), "a corrupted file is read");
+			
+			//A file written by another version of the code generator is deleted
+			cc.put("a", "A", bytes);
+			data = Files.readAllBytes(fa.toPath());
+			int len = data.length - 32;
+			ByteBuffer.wrap(data).putInt(4, BytecodeUtils.CODEGEN_VERSION - 1);
+			System.arraycopy(MessageDigest.getInstance("SHA-256").digest(Arrays.copyOf(data, len)), 0, data, len, 32);
+			Files.write(fa.toPath(), data);
+			checkResult(cc.get("a") == null && !fa.exists(), "a file of another version is read");
+			
+			//A file of another key is not returned
+			cc.put("a", "A", bytes);
+			cc.put("b", "B", bytes);
+			File fb = null;
+			for(File f : dir.listFiles()) {
+				if(!f.equals(fa))
+					fb = f;
+			}
+			Files.copy(fa.toPath(), fb.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			checkResult(cc.get("b") == null && cc.get("a") != null, "the class of a is returned for b");
+			
+			//The least recently used file is evicted
+			fa.setLastModified(System.currentTimeMillis() - 10000);
+			new ClassCache(dir, fa.length()).put("c", "C", bytes);
+			checkResult(!fa.exists() && dir.listFiles().length == 1, "a is not evicted");
+			
+			//A function is loaded from the disk after the functions in memory are cleared
+			cc.clear();
+			FuncCache cache = JIT.getCache();
+			cache.setClassCache(cc);
+			Expr e = x*y + exp(x);
+			BytecodeFunc f1 = JIT.compile(new Expr[]{x, y}, e);
+			cache.clear();
+			BytecodeFunc f2 = JIT.compile(new Expr[]{x, y}, e);
+			checkResult(f1 != f2 && cache.getDiskHits() == 1, "the function is not loaded from the disk");
+			checkResult(f1.apply(1, 2), f2.apply(1, 2), e);
+			cache.setClassCache(null);
+		} catch (Exception ex) {
+			checkResult(false, ex.toString());
+		} finally {
+			cc.clear();
+			dir.delete();
+		}
+	}
+	
+	public static void testDumpOptions() {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "symjava-dump-"+System.nanoTime());
+		checkResult(new JITOptions().getDumpDir() == null, "class files are written by default");
+		checkResult(JITOptions.LEGACY_DUMP_DIR, JITOptions.fromFlags(true, false).getDumpDir());
+		checkResult(JITOptions.fromFlags(false, true).getDumpDir() == null, "fromFlags(false, ...) writes class files");
+		JITOptions options = new JITOptions().setDumpDir(dir.getPath());
+		checkResult(dir.getPath(), new JITOptions(options).getDumpDir());
+		
+		byte[] bytes = new byte[] { 1, 2, 3 };
+		options.dump(new GeneratedClass("symjava.bytecode.Dump1", bytes));
+		File f1 = new File(dir, "Dump1.class");
+		checkResult(f1.exists() && f1.length() == 3, "Dump1.class is not written");
+		//Only the classes which can not be defined are written
+		JITOptions onError = new JITOptions(options).setDumpOnErrorOnly(true);
+		onError.dump(new GeneratedClass("symjava.bytecode.Dump2", bytes));
+		checkResult(!new File(dir, "Dump2.class").exists(), "Dump2.class is written");
+		onError.dumpOnError(new GeneratedClass("symjava.bytecode.Dump2", bytes));
+		checkResult(new File(dir, "Dump2.class").exists(), "Dump2.class is not written on error");
+		options.dumpOnError(new GeneratedClass("symjava.bytecode.Dump3", bytes));
+		checkResult(!new File(dir, "Dump3.class").exists(), "Dump3.class is written");
+		
+		//The class of a compiled function
+		Expr e = x*y + 7.25;
+		BytecodeFunc f = JIT.compile(new Expr[]{x, y}, e, new JITOptions().setDumpDir(dir.getPath()));
+		checkResult(new File(dir, f.getClass().getSimpleName().replaceAll("/.*", "")+".class").exists(), 
+				"the class of " + e + " is not written");
+		checkResult(9.25, f.apply(1, 2), e);
+		//Only the classes which can not be defined are written
+		e = x*y + 8.25;
+		f = JIT.compile(new Expr[]{x, y}, e, new JITOptions(options).setDumpOnErrorOnly(true));
+		checkResult(!new File(dir, f.getClass().getSimpleName()+".class").exists(), 
+				"the class of " + e + " is written");
+		checkResult(10.25, f.apply(1, 2), e);
+		for(File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+	
+	public static void testArgLocals() {
+		//x is used 3 times, y and z once: y is counted once in the shared exp(-x*y)
+		Expr e = exp(-x*y)*x + exp(-x*y)*z + sin(x);
+		CommonSubExprs cse = new CommonSubExprs();
+		cse.add(e);
+		Map<Expr, Integer> argsMap = new HashMap<Expr, Integer>();
+		argsMap.put(x, 0);
+		argsMap.put(y, 1);
+		argsMap.put(z, 2);
+		checkResult("[x]", cse.getRepeatedArgs(argsMap).toString());
+		
+		Expr[] args = new Expr[]{x, y, z};
+		BytecodeFunc f = JIT.compile(args, e);
+		checkResult(Math.exp(-2.0)*4 + Math.sin(1), f.apply(1, 2, 3), e);
+		//The locals are loaded again in each iteration
+		BytecodeBatchFunc bf = JIT.compileBatchFunc(args, e);
+		double[] outAry = new double[2];
+		bf.apply(outAry, 0, new double[]{1, 2}, new double[]{2, 1}, new double[]{3, 1});
+		checkResult(Math.exp(-2.0)*4 + Math.sin(1), outAry[0], e);
+		checkResult(Math.exp(-2.0)*3 + Math.sin(2), outAry[1], e);
+		//The locals are shared by the outputs
+		Expr[] exprs = new Expr[] { x*y, x + z, x*x*z };
+		BytecodeVecFunc vf = JIT.compile(args, exprs);
+		double[] outVec = new double[3];
+		vf.apply(outVec, 0, 2, 3, 4);
+		checkResult(6.0, outVec[0], exprs[0]);
+		checkResult(6.0, outVec[1], exprs[1]);
+		checkResult(16.0, outVec[2], exprs[2]);
+	}
+	
+	public static void testFuncLoader() {
+		Expr[] args = new Expr[]{x, y};
+		boolean hidden = FuncLoader.isHiddenClassEnabled();
+		//33 classes are defined by 2 or 3 pooled loaders
+		FuncLoader.setHiddenClassEnabled(false);
+		Set<ClassLoader> loaders = new HashSet<ClassLoader>();
+		for(int i=0; i<33; i++) {
+			Expr e = x*y + (1000 + i);
+			BytecodeFunc f = JIT.compile(args, e);
+			loaders.add(f.getClass().getClassLoader());
+			checkResult(1002.0 + i, f.apply(1, 2), e);
+		}
+		checkResult(loaders.size() <= 3, loaders.size() + " loaders");
+		//Java 15 or later
+		if(FuncLoader.isHiddenClassSupported()) {
+			FuncLoader.setHiddenClassEnabled(true);
+			Expr e = x*y + 2000;
+			BytecodeFunc f = JIT.compile(args, e);
+			//The name of a hidden class is like symjava.bytecode.JITFunc/0x...
+			checkResult(f.getClass().getName().contains("/"), f.getClass().getName());
+			checkResult(2002.0, f.apply(1, 2), e);
+		}
+		FuncLoader.setHiddenClassEnabled(hidden);
+	}
+	
+	public static void testChunkedVecFunc() {
+		//400 outputs are split into several apply<k>() methods
+		Expr[] outs = new Expr[400];
+		Domain I = Interval.apply(-10, x, z).setStepSize(0.001);
+		outs[0] = Integrate.apply(exp(-0.5*pow(z,2)), I);
+		for(int i=1; i<outs.length; i++)
+			outs[i] = sin(x*i)*y + i;
+		BytecodeVecFunc f = JIT.compile(new Expr[]{x, y}, outs);
+		double[] outAry = new double[outs.length];
+		f.apply(outAry, 0, 10, 2);
+		checkResult(Math.sqrt(2*Math.PI), outAry[0], outs[0]);
+		checkResult(Math.sin(10)*2 + 1, outAry[1], outs[1]);
+		checkResult(Math.sin(3990)*2 + 399, outAry[399], outs[399]);
+	}
+	
+	public static void testSharedVecFunc() {
+		//exp(-x*y) is computed once for all the outputs
+		Expr[] exprs = new Expr[] { exp(-x*y)*x, exp(-x*y)*y, exp(-x*y) + 1 };
+		BytecodeVecFunc f = JIT.compile(new Expr[]{x, y}, exprs);
+		double[] outAry = new double[3];
+		f.apply(outAry, 0, 1, 2);
+		checkResult(Math.exp(-2.0), outAry[0], exprs[0]);
+		checkResult(Math.exp(-2.0)*2, outAry[1], exprs[1]);
+		checkResult(Math.exp(-2.0) + 1, outAry[2], exprs[2]);
+		
+		//s is used by all the chunks and computed once in apply0()
+		int n = 100;
+		Symbol[] xs = new Symbol[n];
+		for(int i=0; i<n; i++)
+			xs[i] = new Symbol("x"+i);
+		Expr s = C0;
+		for(int i=0; i<n; i++)
+			s = s + exp(xs[i]*xs[(i+1)%n]);
+		Expr[] outs = new Expr[n];
+		for(int i=0; i<n; i++)
+			outs[i] = exp(xs[i])/s + sin(xs[i]);
+		BytecodeVecFunc g = JIT.compile(xs, outs);
+		double[] args = new double[n];
+		for(int i=0; i<n; i++)
+			args[i] = 0.01*i;
+		double sum = 0.0;
+		for(int i=0; i<n; i++)
+			sum += Math.exp(args[i]*args[(i+1)%n]);
+		outAry = new double[n];
+		g.apply(outAry, 0, args);
+		for(int i=0; i<n; i+=33)
+			checkResult(Math.exp(args[i])/sum + Math.sin(args[i]), outAry[i], outs[i]);
+	}
+	
+	public static void testBatchVecFunc() {
+		Expr[] exprs = new Expr[] { x*y, C0, x+y*y };
+		BytecodeBatchVecFunc f = JIT.compileBatchVecFunc(new Expr[]{x, y}, exprs);
+		double[][] outAry = new double[3][3];
+		f.apply(outAry, 1, 3, new double[]{1, 2, 3}, new double[]{4, 5, 6});
+		checkResult(0.0, outAry[0][0], exprs[0]);
+		checkResult(10.0, outAry[0][1], exprs[0]);
+		checkResult(18.0, outAry[0][2], exprs[0]);
+		checkResult(0.0, outAry[1][2], exprs[1]);
+		checkResult(27.0, outAry[2][1], exprs[2]);
+		checkResult(39.0, outAry[2][2], exprs[2]);
+	}
+	
+	public static void testParallelBatchFunc() {
+		Expr e = x*y + sin(x);
+		BytecodeBatchFunc bf = JIT.compileBatchFunc(new Expr[]{x, y}, e);
+		int n = 1000;
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for(int i=0; i<n; i++) {
+			xs[i] = 0.01*i;
+			ys[i] = 1.0 - 0.002*i;
+		}
+		//outAry[outPos+i] for i in [from, to)
+		double[] outAry = new double[8];
+		bf.apply(outAry, 1, 2, 5, xs, ys);
+		checkResult(outAry[2] == 0.0 && outAry[6] == 0.0, "outAry is written out of the range");
+		checkResult(xs[2]*ys[2] + Math.sin(xs[2]), outAry[3], e);
+		checkResult(xs[4]*ys[4] + Math.sin(xs[4]), outAry[5], e);
+		
+		//The ranges of the tasks cover [from, to) once and are not larger than grainSize
+		final List<int[]> ranges = new ArrayList<int[]>();
+		final BytecodeBatchFunc func = bf;
+		BytecodeBatchFunc recorder = new BytecodeBatchFunc() {
+			@Override
+			public void apply(double[] outAry, int outPos, int from, int to, double[]... args) {
+				synchronized(ranges) {
+					ranges.add(new int[] { from, to });
+				}
+				func.apply(outAry, outPos, from, to, args);
+			}
+		};
+		ParallelBatchFunc pf = new ParallelBatchFunc(recorder, 64);
+		double[] out1 = new double[n + 1];
+		pf.apply(out1, 1, 10, n, xs, ys);
+		int[] covered = new int[n];
+		boolean small = true;
+		for(int[] r : ranges) {
+			small &= r[1] - r[0] <= 64;
+			for(int i=r[0]; i<r[1]; i++)
+				covered[i]++;
+		}
+		boolean once = true;
+		for(int i=0; i<n; i++)
+			once &= covered[i] == (i < 10 ? 0 : 1);
+		checkResult(small && once && ranges.size() > 1, ranges.size() + " ranges");
+		double[] out2 = new double[n + 1];
+		bf.apply(out2, 1, 10, n, xs, ys);
+		checkResult(Arrays.equals(out1, out2), "the parallel results are different");
+		
+		//All the points by the default grain size
+		double[] out3 = new double[n];
+		new ParallelBatchFunc(bf).apply(out3, 0, xs, ys);
+		checkResult(out2[n], out3[n-1], e);
+		try {
+			new ParallelBatchFunc(bf, 0);
+			checkResult(false, "grainSize 0 is accepted");
+		} catch(IllegalArgumentException ex) {
+			checkResult(true, null);
+		}
+	}
+	
+	public static void testLanes() {
+		Expr e = (x*y + 3*x - y/2)/(1 + x*x);
+		Expr[] args = new Expr[]{x, y};
+		BytecodeBatchFunc f1 = JIT.compileBatchFunc(args, e);
+		BytecodeBatchFunc f4 = JIT.compileBatchFunc(args, e, new JITOptions().setLanes(4));
+		double[] xs = new double[]{1, 2, 3, 4, 5, 6, 7};
+		double[] ys = new double[]{7, 6, 5, 4, 3, 2, 1};
+		double[] out1 = new double[7];
+		double[] out4 = new double[7];
+		f1.apply(out1, 0, xs, ys);
+		f4.apply(out4, 0, xs, ys);
+		for(int i=0; i<7; i++)
+			checkResult(out1[i], out4[i], e);
+	}
+	
+	public static void testVectorApi() {
+		Expr e = (x*y + 3*x - y/2)/(1 + x*x) - 1/y;
+		Expr[] args = new Expr[]{x, y};
+		//The Vector API is used if it is available (--add-modules jdk.incubator.vector), 
+		//the lane loop otherwise
+		JITOptions options = new JITOptions().setVectorApi(true).setLanes(4);
+		BytecodeBatchFunc f1 = JIT.compileBatchFunc(args, e);
+		BytecodeBatchFunc fv = JIT.compileBatchFunc(args, e, options);
+		int n = 37;
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for(int i=0; i<n; i++) {
+			xs[i] = 0.3*i - 5;
+			ys[i] = 1.5 + Math.sin(i);
+		}
+		double[] out1 = new double[n];
+		double[] outv = new double[n];
+		f1.apply(out1, 0, xs, ys);
+		fv.apply(outv, 0, xs, ys);
+		for(int i=0; i<n; i++)
+			checkResult(out1[i] == outv[i], e + " at " + i);
+		
+		Expr[] exprs = new Expr[]{e, x*x + y};
+		BytecodeBatchVecFunc g1 = JIT.compileBatchVecFunc(args, exprs);
+		BytecodeBatchVecFunc gv = JIT.compileBatchVecFunc(args, exprs, options);
+		double[][] outAry1 = new double[2][n];
+		double[][] outAryv = new double[2][n];
+		g1.apply(outAry1, 0, n, new double[][]{xs, ys});
+		gv.apply(outAryv, 0, n, new double[][]{xs, ys});
+		for(int k=0; k<2; k++)
+			for(int i=0; i<n; i++)
+				checkResult(outAry1[k][i] == outAryv[k][i], exprs[k] + " at " + i);
+	}
+	
+	public static void testHorner() {
+		Expr e = 1 + 2*x + 3*x*x - x*x*x/6 + y*x*x;
+		Expr[] args = new Expr[]{x, y};
+		BytecodeFunc f = JIT.compile(args, e);
+		BytecodeFunc fh = JIT.compile(args, e, new JITOptions().setHorner(true).setFma(true));
+		checkResult(f.apply(1.5, 0.5), fh.apply(1.5, 0.5), e);
+		checkResult(f.apply(-2.0, 3.0), fh.apply(-2.0, 3.0), e);
+	}
+	
+	public static void testInlinePow() {
+		Expr e = pow(x+y, 5) + y/pow(x, 3) + pow(x, 2.5);
+		Expr[] args = new Expr[]{x, y};
+		BytecodeFunc f = JIT.compile(args, e);
+		BytecodeFunc fp = JIT.compile(args, e, new JITOptions().setInlinePow(false));
+		//The multiplications give the same bits as BytecodeSupport.powi()
+		checkResult(fp.apply(1.5, 0.5) == f.apply(1.5, 0.5), e + " is changed by inlinePow");
+		checkResult(fp.apply(2.0, -3.0) == f.apply(2.0, -3.0), e + " is changed by inlinePow");
+		BytecodeFunc fr = JIT.compile(args, e, new JITOptions().setRelaxedMath(true));
+		checkResult(fp.apply(1.5, 0.5), fr.apply(1.5, 0.5), e);
+		
+		Expr e2 = pow(x, 2.5);
+		double inf = Double.NEGATIVE_INFINITY;
+		checkResult(JIT.compile(args, e2).apply(inf, 0.0) == Math.pow(inf, 2.5), e2 + " at -Infinity");
+		
+		Expr e3 = exp(x*y);
+		BytecodeFunc fe = JIT.compile(args, e3, new JITOptions().setRelaxedMath(true));
+		BytecodeFunc fep = JIT.compile(args, e3);
+		checkResult(fe.apply(1.5, 0.5) == Math.exp(0.75), e3 + " by Math.exp");
+		checkResult(fep.apply(1.5, 0.5) == Math.pow(Math.E, 0.75), e3 + " by Math.pow");
+	}
+	
+	public static void testFloatFunc() {
+		Expr e = x*y/(1 + x*x) + sqrt(y*y + 1);
+		Expr[] args = new Expr[]{x, y};
+		FloatFunc f = JIT.compileFloat(args, e);
+		BytecodeFunc fd = JIT.compile(args, e);
+		System.out.println(Math.abs(fd.apply(1.5, 0.5) - f.apply(1.5f, 0.5f)) < 1e-6);
+		FloatBatchFunc fb = JIT.compileFloatBatchFunc(args, e);
+		float[] outAry = new float[2];
+		fb.apply(outAry, 0, new float[]{1.5f, 2.0f}, new float[]{0.5f, 3.0f});
+		checkResult(f.apply(2.0f, 3.0f), outAry[1], e);
+		System.out.println(FloatPrecision.check(args, e, -3, 3, 1000, 1));
+	}
+	
+	public static void testGradient() {
+		Expr e = x*x*y + y*y/(1 + x) + pow(x, 0.5);
+		Expr[] args = new Expr[]{x, y};
+		BytecodeVecFunc g = JIT.compileWithGradient(args, e);
+		double[] outAry = new double[3];
+		g.apply(outAry, 0, 2.0, 3.0);
+		checkResult(JIT.compile(args, e).apply(2.0, 3.0), outAry[0], e);
+		checkResult(JIT.compile(args, e.diff(x)).apply(2.0, 3.0), outAry[1], e.diff(x));
+		checkResult(JIT.compile(args, e.diff(y)).apply(2.0, 3.0), outAry[2], e.diff(y));
+	}
+	
+	public static void testReverseGradient() {
+		Expr e = x*x*y + y*y/(1 + x) + pow(x, 0.5);
+		Expr[] args = new Expr[]{x, y};
+		NumVector ng = grad(e, args);
+		double[] outAry = ng.eval(new double[2], 2.0, 3.0);
+		checkResult(JIT.compile(args, e.diff(x)).apply(2.0, 3.0), outAry[0], e.diff(x));
+		checkResult(JIT.compile(args, e.diff(y)).apply(2.0, 3.0), outAry[1], e.diff(y));
+	}
+	
+	public static void testSparseMatrix() {
+		Expr f = x*x*y + y*y*z + z*z;
+		Expr[] args = new Expr[]{x, y, z};
+		SymMatrix H = hess(f);
+		NumSparseMatrix S = H.toNumSparseMatrix(args);
+		S.eval(1.0, 2.0, 3.0);
+		System.out.println(S.nnz()); //7 of 9
+		NumMatrix D = H.toNumMatrix(args);
+		double[] outAry = new double[9];
+		D.eval(outAry, 1.0, 2.0, 3.0);
+		double[][] sparse = S.copyData();
+		for(int i=0; i<3; i++)
+			for(int j=0; j<3; j++)
+				checkResult(outAry[i*3+j], sparse[i][j], H.get(i, j));
+	}
+	
+	public static void testJacobian() {
+		Expr[] args = new Expr[]{x, y, z};
+		Expr[] F = new Expr[]{x*x - y, y*y*z, z + x};
+		int[][] pattern = Utils.getDependencies(F, args);
+		int[] colors = Utils.colorColumns(pattern, args.length);
+		System.out.println(colors[0]+" "+colors[1]+" "+colors[2]); //0 1 2
+		NumSparseMatrix J = NumSparseMatrix.jacobian(F, args);
+		J.eval(1.0, 2.0, 3.0);
+		double[][] dense = J.copyData();
+		for(int i=0; i<F.length; i++)
+			for(int j=0; j<args.length; j++)
+				checkResult(JIT.compile(args, F[i].diff(args[j])).apply(1.0, 2.0, 3.0), dense[i][j], F[i].diff(args[j]));
+	}
+	
+	public static void testHashCons() {
+		Expr e1 = pow(x + y, 3) * z;
+		Expr e2 = pow(x + y, 3) * z;
+		checkResult(e1 == e2, e1 + " is not shared");
+		checkResult(Utils.symCompare(e1, e2), e1 + " != " + e2);
+		Expr d1 = e1.diff(x);
+		Expr d2 = e2.diff(x);
+		checkResult(d1 == d2, d1 + " is not shared");
+		checkResult(3*Math.pow(1.0+2.0, 2)*3.0, JIT.compile(new Expr[]{x, y, z}, d1).apply(1.0, 2.0, 3.0), d1);
+		
+		//The operands owned by the caller are not interned
+		Expr a = new Multiply(x, y);
+		Expr b = new Pow(x, Expr.valueOf(2));
+		Multiply.shallowSimplifiedIns(a, z);
+		Add.shallowSimplifiedIns(a, b);
+		Utils.multiplyListToExpr(Arrays.asList(a, b));
+		Utils.addListToExpr(Arrays.asList(a, b));
+		checkResult(!a.isInterned && !b.isInterned, a + " or " + b + " is interned");
+		a.setLabel("xy");
+		checkResult("x*y*z", Multiply.shallowSimplifiedIns(new Multiply(x, y), z).toString());
+		
+		//An interned node is shared, setLabel() returns a relabeled copy of it
+		Expr p = x*y;
+		Expr q = p + z;
+		int hash = q.getStructuralHash();
+		Expr p2 = p.setLabel("P");
+		checkResult(p.isInterned && p2 != p, p + " is relabeled");
+		checkResult("P", p2.toString());
+		checkResult("x*y + z", q.toString());
+		checkResult(hash == q.getStructuralHash(), "the hash of " + q + " is changed");
+	}
+	
+	public static void testLazyLabel() {
+		Expr e = C0;
+		for(int i=0; i<10000; i++)
+			e = new Add(e, new Multiply(x, new Sin(y + i)));
+		Expr e2 = new Add(new Multiply(x, new Sin(y + 1)), z);
+		checkResult("x*sin(1 + y) + z", e2.toString());
+		Map<Expr, Integer> map = new HashMap<Expr, Integer>();
+		map.put(x + y, 1);
+		map.put(e, 2);
+		checkResult(Integer.valueOf(1).equals(map.get(x + y)), "x + y is not found");
+		checkResult(Integer.valueOf(2).equals(map.get(e)), "the sum of 10000 terms is not found");
+		//The sort key of an operator is read from the keys of its operands
+		checkResult("xsin(1 + y)z", e2.getSortKey());
+		checkResult(e.getSortKey().startsWith("0xsin(y)xsin(1 + y)"), "wrong key of the sum of 10000 terms");
+		Symbol x_2 = new Symbol("x_2"), x_10 = new Symbol("x_10");
+		checkResult(Utils.compareSortKey(new Multiply(x_2, y), new Multiply(x_10, y)) < 0, "x_2*y > x_10*y");
+		checkResult(Utils.compareSortKey(new Pow(x, Expr.valueOf(2)), x) > 0, "x^2 < x");
+		checkResult(Utils.compareSortKey(e, e2) < 0, "wrong order of the sum of 10000 terms");
+	}
+	
+	public static void testStructuralEquals() {
+		Expr e1 = new Add(new Multiply(x, y), new Sin(z));
+		Expr e2 = new Add(new Multiply(x, y), new Sin(z));
+		Expr e3 = new Add(new Sin(z), new Multiply(x, y));
+		checkResult(e1.equals(e2) && e1.hashCode() == e2.hashCode(), e1 + " != " + e2);
+		checkResult(e1.equals(e3) && e1.hashCode() == e3.hashCode() && e1.symEquals(e3), e1 + " != " + e3);
+		Expr e4 = new Add(new Multiply(y, x), new Sin(z));
+		checkResult(e1.equals(e4) && e1.hashCode() == e4.hashCode(), e1 + " != " + e4);
+		Expr e5 = new Subtract(new Sin(z), new Multiply(x, y));
+		checkResult(!e1.equals(e5), e1 + " == " + e5);
+		Set<Expr> set = new HashSet<Expr>();
+		set.add(e1);
+		set.add(e2);
+		set.add(e3);
+		set.add(e4);
+		set.add(e5);
+		checkResult(set.size() == 2, "size " + set.size());
+		//Only the operands of one node are swapped
+		Expr e6 = new Add(new Add(x, y), z);
+		Expr e7 = new Add(x, new Add(y, z));
+		checkResult(!e6.equals(e7) && e6.symEquals(e7), e6 + " == " + e7);
+		Expr e8 = new Multiply(new Multiply(x, y), new Multiply(y, x));
+		Expr e9 = new Multiply(new Multiply(y, x), new Multiply(x, y));
+		checkResult(e8.equals(e9), e8 + " != " + e9);
+	}
+	
+	public static void testLikeTerms() {
+		Expr e = x*2 + y + x*3 - x*5 + pow(x,2)*x*y;
+		checkResult("pow(x,3)*y + y", e.simplify());
+		//Exponents cancel to 0
+		checkResult("1", Utils.flattenSortAndSimplify(new Multiply(x, new Pow(x, new SymInteger(-1)))));
+		checkResult("1 + y", new Add(new Multiply(x, new Pow(x, new SymInteger(-1))), y).simplify());
+		int n = 5000;
+		Expr sum = C0;
+		for(int i=0; i<n; i++) {
+			Symbol xi = new Symbol("x_"+i);
+			sum = new Add(sum, new Add(new Multiply(C2, xi), xi));
+		}
+		long begin = System.currentTimeMillis();
+		Expr rlt = Utils.flattenSortAndSimplify(sum);
+		System.out.println("Simplify "+n+" terms: "+(System.currentTimeMillis()-begin)+"ms");
+		checkResult("3*x_0 + 3*x_1 + 3*x_10", rlt.toString().substring(0, 22));
+	}
+	
+	public static void testIncrementalSum() {
+		int n = 10000;
+		Symbol[] xs = new Symbol[n];
+		for(int i=0; i<n; i++)
+			xs[i] = new Symbol("x_"+i);
+		long begin = System.currentTimeMillis();
+		Expr sum = C0;
+		for(int i=0; i<n; i++)
+			sum = sum + xs[(int)((i*7919L)%n)];
+		System.out.println("Add "+n+" terms: "+(System.currentTimeMillis()-begin)+"ms");
+		checkResult("x_0 + x_1 + x_2 + x_3", sum.toString().substring(0, 21));
+		
+		//The same terms in a balanced tree, which is flattened, sorted and simplified at once
+		Expr[] tree = new Expr[n];
+		for(int i=0; i<n; i++)
+			tree[i] = xs[n-1-i];
+		for(int len=n; len>1; len=(len+1)/2) {
+			for(int i=0; i<len/2; i++)
+				tree[i] = new Add(tree[2*i], tree[2*i+1]);
+			if(len % 2 == 1)
+				tree[len/2] = tree[len-1];
+		}
+		checkResult(sum.equals(Utils.flattenSortAndSimplify(tree[0])), "the sums are different");
+		checkResult("x_1", (sum + xs[1] - sum).toString());
+	}
+	
+	public static void testIntegrate2D() {
+		//The last step of y is 0.1, the integrand is evaluated at y=1 there
+		Domain D = new Domain2D("D", x, y).setBound(x, C0, C1).setBound(y, C0, C1)
+				.setStepSize(x, 0.25).setStepSize(y, 0.3);
+		Expr I = Integrate.apply(y, D);
+		//The trapezoid rule is exact for a linear integrand
+		checkResult(0.5, JIT.compile(new Expr[]{z}, I).apply(0), I);
+	}
+	
 	public static void main(String[] args) {
 		//eclipse不能编译的问题：cmd进到某个class目录后，该目录不允许删除，
 		//导致eclipse不能删除该目录，所以不能编译
@@ -468,6 +1091,31 @@ public class TestSymbolic {
 //		testSymReal();
 //		testSinCosTan();
 //		testLogic();
+//		testCSE();
+//		testFuncCache();
+//		testClassCache();
+//		testDumpOptions();
+//		testArgLocals();
+//		testFuncLoader();
+//		testChunkedVecFunc();
+//		testSharedVecFunc();
+//		testBatchVecFunc();
+//		testParallelBatchFunc();
+//		testLanes();
+//		testVectorApi();
+//		testHorner();
+//		testInlinePow();
+//		testFloatFunc();
+//		testGradient();
+//		testReverseGradient();
+//		testSparseMatrix();
+//		testJacobian();
+//		testHashCons();
+//		testLazyLabel();
+//		testStructuralEquals();
+//		testLikeTerms();
+//		testIncrementalSum();
+//		testIntegrate2D();
 		
 		//set vm parameters: -XX:+PrintCompilation
 		testJITVectorized();